@@ -0,0 +1,152 @@
+package ru.ac.phyche.gcms.ei2fp_java;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Inference benchmark for Inference.ModelFP (mass spectrum to fingerprints)
+ * with synthetic weights. Layers: SPECTRUM_LENGTH - hidden - hidden - hidden/2
+ * - hidden/2 - FP_LENGTH, as in ei2fp.jl. The released model has hidden = 4096
+ * (text weight files of several hundred megabytes are written for it), the
+ * default is smaller. Run: java -cp
+ * target/svekla-0.0.3-jar-with-dependencies.jar org.openjdk.jmh.Main
+ * ModelFPBenchmark -p hidden=4096
+ *
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ModelFPBenchmark {
+	@Param({ "1024" })
+	public int hidden;
+
+	private Inference.ModelFP model;
+	private float[] spectrum;
+
+	/**
+	 * Sparse spectrum: about 100 peaks, intensities up to 1
+	 */
+	private static float[] randomSpectrum(Random rnd) {
+		float[] result = new float[Inference.ModelFP.SPECTRUM_LENGTH];
+		for (int j = 0; j < 100; j++) {
+			result[rnd.nextInt(result.length)] = rnd.nextFloat();
+		}
+		return result;
+	}
+
+	private static void writeWeight(File file, int rows, int columns, Random rnd) throws IOException {
+		FileWriter fw = new FileWriter(file);
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < rows; i++) {
+			line.setLength(0);
+			for (int j = 0; j < columns; j++) {
+				line.append((float) (rnd.nextGaussian() / Math.sqrt(columns))).append(' ');
+			}
+			fw.write(line.append('\n').toString());
+		}
+		fw.close();
+	}
+
+	private static void writeBias(File file, int length, float value, Random rnd) throws IOException {
+		FileWriter fw = new FileWriter(file);
+		for (int i = 0; i < length; i++) {
+			fw.write((value + 0.01F * (float) rnd.nextGaussian()) + "\n");
+		}
+		fw.close();
+	}
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		Random rnd = new Random(0);
+		File folder = File.createTempFile("ei2fp-benchmark", "");
+		folder.delete();
+		folder.mkdirs();
+		int[] sizes = new int[] { Inference.ModelFP.SPECTRUM_LENGTH, hidden, hidden, hidden / 2, hidden / 2,
+				Inference.ModelFP.FP_LENGTH };
+		for (int l = 1; l <= 5; l++) {
+			writeWeight(new File(folder, "dense" + l + "_weight.txt"), sizes[l], sizes[l - 1], rnd);
+			writeBias(new File(folder, "dense" + l + "_bias.txt"), sizes[l], 0, rnd);
+		}
+		writeBias(new File(folder, "batchnorm_mu.txt"), sizes[4], 0, rnd);
+		writeBias(new File(folder, "batchnorm_sigma2.txt"), sizes[4], 1, rnd);
+		writeBias(new File(folder, "batchnorm_beta.txt"), sizes[4], 0, rnd);
+		writeBias(new File(folder, "batchnorm_gamma.txt"), sizes[4], 1, rnd);
+		model = new Inference.ModelFP();
+		model.loadFromFolder(folder.getAbsolutePath());
+		for (File f : folder.listFiles()) {
+			f.delete();
+		}
+		folder.delete();
+		spectrum = randomSpectrum(rnd);
+	}
+
+	/**
+	 * Batch of random spectra
+	 */
+	@State(Scope.Benchmark)
+	public static class Batch {
+		@Param({ "1", "16", "64" })
+		public int batchSize;
+
+		private float[][] spectra;
+
+		@Setup(Level.Trial)
+		public void setup() {
+			Random rnd = new Random(1);
+			spectra = new float[batchSize][];
+			for (int i = 0; i < batchSize; i++) {
+				spectra[i] = randomSpectrum(rnd);
+			}
+		}
+	}
+
+	/**
+	 * Number of predicted spectra (secondary result of throughput benchmark)
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Spectra {
+		public long spectra;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			spectra = 0;
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public float[] latency() {
+		return model.predict(spectrum);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public void throughput(Batch batch, Spectra counter, Blackhole bh) {
+		for (float[] s : batch.spectra) {
+			bh.consume(model.predict(s));
+		}
+		counter.spectra += batch.spectra.length;
+	}
+}
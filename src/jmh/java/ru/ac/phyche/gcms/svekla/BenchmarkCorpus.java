@@ -0,0 +1,66 @@
+package ru.ac.phyche.gcms.svekla;
+
+/**
+ * Fixed set of molecules for benchmarks: typical GC analytes of different size
+ * and structure (aliphatic, aromatic, heterocyclic, polyfunctional, with and
+ * without stereochemistry). Canonical SMILES (see Chemoinformatics.canonical).
+ *
+ */
+final class BenchmarkCorpus {
+	/**
+	 * SMILES strings as they are usually given in input files (not canonical)
+	 */
+	static final String[] SMILES = new String[] { "CCCCCCCCCC", // decane
+			"CCCCCCCCO", // 1-octanol
+			"CCOC(C)=O", // ethyl acetate
+			"CCCCCC(O)=O", // hexanoic acid
+			"O=Cc1ccccc1", // benzaldehyde
+			"Oc1ccccc1", // phenol
+			"c1ccc2ccccc2c1", // naphthalene
+			"c1ccncc1", // pyridine
+			"c1ccc2[nH]ccc2c1", // indole
+			"c1ccc2ncccc2c1", // quinoline
+			"CC(=C)[C@@H]1CCC(C)=CC1", // limonene
+			"CC(C)[C@@H]1CC[C@@H](C)C[C@H]1O", // menthol
+			"CC(C)=CCCC(C)(O)C=C", // linalool
+			"CC(C)=CCC/C(C)=C/CO", // geraniol
+			"COc1cc(CC=C)ccc1O", // eugenol
+			"COc1cc(C=O)ccc1O", // vanillin
+			"COC(=O)c1ccccc1O", // methyl salicylate
+			"O=C/C=C/c1ccccc1", // cinnamaldehyde
+			"Cc1ccc(C(C)C)c(O)c1", // thymol
+			"CC1=CC[C@@H](CC1=O)C(C)=C", // carvone
+			"CC1(C)[C@@H]2CC[C@@]1(C)C(=O)C2", // camphor
+			"CN1CCC[C@H]1c1cccnc1", // nicotine
+			"Cn1cnc2c1c(=O)n(C)c(=O)n2C", // caffeine
+			"CC(C)Cc1ccc(cc1)C(C)C(O)=O", // ibuprofen
+			"CC(=O)Oc1ccccc1C(O)=O", // acetylsalicylic acid
+			"CC(=O)Nc1ccc(O)cc1", // paracetamol
+			"CCOC(=O)c1ccccc1C(=O)OCC", // diethyl phthalate
+			"C/C1=C\\CCC(=C)[C@@H]2CC(C)(C)[C@H]2CC1", // caryophyllene
+			"CCCCCCCCCCCCCCCC(=O)OC", // methyl palmitate
+			"OC[C@H]1O[C@@H](O)[C@H](O)[C@@H](O)[C@@H]1O", // glucose
+			"Clc1ccc(cc1)C(c1ccc(Cl)cc1)C(Cl)(Cl)Cl", // DDT
+			"C[C@H](CCCC(C)C)[C@H]1CC[C@@H]2[C@@]1(CC[C@H]3[C@H]2CC=C4[C@@]3(CC[C@@H](C4)O)C)C" // cholesterol
+	};
+
+	private BenchmarkCorpus() {
+	}
+
+	/**
+	 *
+	 * @param stereochemistry keep stereochemistry
+	 * @return canonical SMILES strings of the corpus
+	 */
+	static String[] canonical(boolean stereochemistry) {
+		String[] result = new String[SMILES.length];
+		for (int i = 0; i < result.length; i++) {
+			try {
+				result[i] = Chemoinformatics.canonical(SMILES[i], stereochemistry);
+			} catch (Exception e) {
+				throw new RuntimeException("Wrong SMILES in benchmark corpus: " + SMILES[i]);
+			}
+		}
+		return result;
+	}
+}
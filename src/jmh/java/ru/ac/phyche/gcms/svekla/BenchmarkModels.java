@@ -0,0 +1,221 @@
+package ru.ac.phyche.gcms.svekla;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.openscience.cdk.exception.CDKException;
+
+/**
+ * Models with synthetic weights for benchmarks. Neural networks are randomly
+ * initialized, XGBoost, linear meta-learner and second-level models are trained
+ * for a short time on a synthetic data set (BenchmarkCorpus with made-up
+ * retention indices). Each model is saved to a temporary folder and loaded to a
+ * new instance, as in the applications. Predictions are meaningless, but the
+ * amount of computation is the same as for the real models.
+ *
+ */
+public final class BenchmarkModels {
+	/**
+	 * Model types
+	 *
+	 */
+	public static enum Type {
+		CNN1D, CNN2D, MLP, XGBOOST, STACKING, SECOND_LEVEL_SVR, SECOND_LEVEL_LINEAR_SVR, SECOND_LEVEL_RANDOM_FOREST,
+		SECOND_LEVEL_GBM
+	};
+
+	/**
+	 * Column type for first-level models (see Columns)
+	 */
+	static final int COLUMN = 0;
+
+	private BenchmarkModels() {
+	}
+
+	/**
+	 *
+	 * @return descriptors generator with standard descriptors set, descriptors are
+	 *         computed on request (not precomputed)
+	 */
+	static Descriptors descriptors() {
+		String[] names = Descriptors.descriptors2DBut_nAtomLAC_And_MolIP;
+		float[] max = new float[names.length];
+		for (int i = 0; i < max.length; i++) {
+			max[i] = 1000F;
+		}
+		return Descriptors.instance(names, new float[names.length], max, false);
+	}
+
+	/**
+	 * Synthetic data set: all molecules of BenchmarkCorpus, retention index grows
+	 * with the number of the molecule.
+	 *
+	 * @param column column type
+	 * @return data set
+	 */
+	static RetentionsDataset dataSet(int column) {
+		String[] smiles = BenchmarkCorpus.canonical(false);
+		ArrayList<RetentionsEntry> entries = new ArrayList<RetentionsEntry>();
+		for (int i = 0; i < smiles.length; i++) {
+			entries.add(RetentionsEntry.instance(smiles[i], 800 + 50 * i, column));
+		}
+		return RetentionsDataset.create(entries);
+	}
+
+	/**
+	 * Data set of the given size: molecules of BenchmarkCorpus repeated.
+	 *
+	 * @param size   number of entries
+	 * @param column column type
+	 * @return data set
+	 */
+	static RetentionsDataset batch(int size, int column) {
+		String[] smiles = BenchmarkCorpus.canonical(false);
+		ArrayList<RetentionsEntry> entries = new ArrayList<RetentionsEntry>();
+		for (int i = 0; i < size; i++) {
+			entries.add(RetentionsEntry.instance(smiles[i % smiles.length], 0, column));
+		}
+		return RetentionsDataset.create(entries);
+	}
+
+	private static <T extends Model> T reload(T model, T newInstance, File folder, String name)
+			throws IOException {
+		String filename = new File(folder, name).getAbsolutePath();
+		model.save(filename);
+		newInstance.load(filename);
+		newInstance.setDescriptorsGenerator(model.getDescriptorsGenerator());
+		return newInstance;
+	}
+
+	private static <T extends NeuralNetModel> T neuralNetwork(T model, T newInstance, Descriptors descriptors,
+			File folder, String name) throws IOException {
+		model.setDescriptorsGenerator(descriptors);
+		model.initNN();
+		return reload(model, newInstance, folder, name);
+	}
+
+	private static XGBoostModel xgboost(Descriptors descriptors, File folder) throws IOException, CDKException {
+		RetentionsDataset train = dataSet(COLUMN);
+		RetentionsDataset validation = train.compoundsBasedSplitAndShuffle(4);
+		XGBoostModel model = new XGBoostModel();
+		model.init(train, validation, descriptors);
+		model.train(XGBoostModel.xgboostDefaultParameters(), 100);
+		return reload(model, new XGBoostModel(), folder, "xgboost.model");
+	}
+
+	private static StackingLinearMetaLearnerModel stacking(Descriptors descriptors, File folder)
+			throws IOException, CDKException {
+		Model[] models = new Model[] {
+				neuralNetwork(new CNN1DFromSMILESModel(), new CNN1DFromSMILESModel(), descriptors, folder, "cnn1d.nn"),
+				neuralNetwork(new CNN2DFromDepictionModel(), new CNN2DFromDepictionModel(), descriptors, folder,
+						"cnn2d.nn"),
+				neuralNetwork(new MLPFromDescriptorsAndFingerprints(), new MLPFromDescriptorsAndFingerprints(),
+						descriptors, folder, "mlp.nn"),
+				xgboost(descriptors, folder) };
+		RetentionsDataset train = dataSet(COLUMN);
+		RetentionsDataset validation = train.compoundsBasedSplitAndShuffle(4);
+		StackingLinearMetaLearnerModel model = new StackingLinearMetaLearnerModel();
+		model.init(train, validation, descriptors, models);
+		model.trainMultipleIterations(100, 100, 100);
+		StackingLinearMetaLearnerModel result = new StackingLinearMetaLearnerModel();
+		result.setModels(models);
+		return reload(model, result, folder, "stacking.nn");
+	}
+
+	private static SecondLevelModelForPolar secondLevelInstance(Type type) {
+		if (type == Type.SECOND_LEVEL_SVR) {
+			return new SecondLevelModelForPolar.SecondLevelSVRModel();
+		}
+		if (type == Type.SECOND_LEVEL_LINEAR_SVR) {
+			return new SecondLevelModelForPolar.SecondLevelLinearSVRModel();
+		}
+		if (type == Type.SECOND_LEVEL_RANDOM_FOREST) {
+			return new SecondLevelModelForPolar.SecondLevelRandomForestModel();
+		}
+		return new SecondLevelModelForPolar.SecondLevelGBMModel();
+	}
+
+	private static SecondLevelModelForPolar secondLevel(Type type, Descriptors descriptors, File folder)
+			throws IOException, CDKException {
+		TrainPolar.MLP mlp = neuralNetwork(new TrainPolar.MLP(), new TrainPolar.MLP(), descriptors, folder,
+				"mlp.nn");
+		TrainPolar.CNN cnn = neuralNetwork(new TrainPolar.CNN(), new TrainPolar.CNN(), descriptors, folder,
+				"cnn.nn");
+		TrainPolar.MLP mlpPolar = neuralNetwork(new TrainPolar.MLP(), new TrainPolar.MLP(), descriptors, folder,
+				"mlpPolar.nn");
+		TrainPolar.CNN cnnPolar = neuralNetwork(new TrainPolar.CNN(), new TrainPolar.CNN(), descriptors, folder,
+				"cnnPolar.nn");
+		SecondLevelModelForPolar model = secondLevelInstance(type);
+		model.setDescriptorsGenerator(descriptors);
+		model.setNeuralNetworks(cnn.getNn(), mlp.getNn(), cnnPolar.getNn(), mlpPolar.getNn());
+		RetentionsDataset train = dataSet(COLUMN);
+		RetentionsDataset validation = train.compoundsBasedSplitAndShuffle(4);
+		model.init(train, validation, descriptors);
+		model.train(model.defaultParameters());
+		SecondLevelModelForPolar result = secondLevelInstance(type);
+		result.setPretrainedModelsFrom(model);
+		return reload(model, result, folder, "secondLevel.xml");
+	}
+
+	/**
+	 * Create model with synthetic weights.
+	 *
+	 * @param type   model type
+	 * @param folder folder for model files
+	 * @return model ready for prediction
+	 * @throws IOException  IO
+	 * @throws CDKException CDK
+	 */
+	static Model create(Type type, File folder) throws IOException, CDKException {
+		Descriptors descriptors = descriptors();
+		if (type == Type.CNN1D) {
+			return neuralNetwork(new CNN1DFromSMILESModel(), new CNN1DFromSMILESModel(), descriptors, folder,
+					"cnn1d.nn");
+		}
+		if (type == Type.CNN2D) {
+			return neuralNetwork(new CNN2DFromDepictionModel(), new CNN2DFromDepictionModel(), descriptors, folder,
+					"cnn2d.nn");
+		}
+		if (type == Type.MLP) {
+			return neuralNetwork(new MLPFromDescriptorsAndFingerprints(), new MLPFromDescriptorsAndFingerprints(),
+					descriptors, folder, "mlp.nn");
+		}
+		if (type == Type.XGBOOST) {
+			return xgboost(descriptors, folder);
+		}
+		if (type == Type.STACKING) {
+			return stacking(descriptors, folder);
+		}
+		return secondLevel(type, descriptors, folder);
+	}
+
+	/**
+	 * Temporary folder for model files. It is deleted on exit.
+	 *
+	 * @return folder
+	 * @throws IOException IO
+	 */
+	static File temporaryFolder() throws IOException {
+		File folder = File.createTempFile("svekla-benchmark", "");
+		folder.delete();
+		folder.mkdirs();
+		folder.deleteOnExit();
+		return folder;
+	}
+
+	/**
+	 * Delete model files and folder.
+	 *
+	 * @param folder folder
+	 */
+	static void delete(File folder) {
+		File[] files = folder.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+		folder.delete();
+	}
+}
@@ -0,0 +1,120 @@
+package ru.ac.phyche.gcms.svekla;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of per-molecule feature computation (see Chemoinformatics). Each
+ * invocation processes the whole BenchmarkCorpus, results are given per
+ * molecule. Run: java -cp target/svekla-0.0.3-jar-with-dependencies.jar
+ * org.openjdk.jmh.Main ChemoinformaticsBenchmark
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@OperationsPerInvocation(32)
+public class ChemoinformaticsBenchmark {
+
+	/**
+	 * All fingerprints types except NONE. Separate state, so that other
+	 * benchmarks are not repeated for each type.
+	 */
+	@State(Scope.Benchmark)
+	public static class FingerprintsState {
+		@Param({ "MACCS", "CIRCULAR_4_1024", "CIRCULAR_6_1024", "LINGO", "PUBCHEM", "KLEKOTA", "CIRCULAR_6_4096",
+				"ADDITIVE_CIRCULAR_4_1024_NO_SCALE", "ADDITIVE_CIRCULAR_6_1024_NO_SCALE", "CIRCULAR_4_512" })
+		public Chemoinformatics.FingerprintsType type;
+	}
+
+	private String[] smiles;
+	private String[] canonical;
+
+	@Setup
+	public void setup() {
+		if (BenchmarkCorpus.SMILES.length != 32) {
+			throw new RuntimeException("OperationsPerInvocation should be equal to the corpus size");
+		}
+		smiles = BenchmarkCorpus.SMILES;
+		canonical = BenchmarkCorpus.canonical(false);
+	}
+
+	@Benchmark
+	public void canonical(Blackhole bh) throws Exception {
+		for (String s : smiles) {
+			bh.consume(Chemoinformatics.canonical(s, false));
+		}
+	}
+
+	@Benchmark
+	public void canonicalStereo(Blackhole bh) throws Exception {
+		for (String s : smiles) {
+			bh.consume(Chemoinformatics.canonical(s, true));
+		}
+	}
+
+	@Benchmark
+	public void smilesToInchiKey(Blackhole bh) throws Exception {
+		for (String s : canonical) {
+			bh.consume(Chemoinformatics.smilesToInchiKey(s));
+		}
+	}
+
+	@Benchmark
+	public void fingerprints(FingerprintsState state, Blackhole bh) throws Exception {
+		for (String s : canonical) {
+			bh.consume(Chemoinformatics.fingerprints(s, state.type));
+		}
+	}
+
+	@Benchmark
+	public void descriptors(Blackhole bh) throws Exception {
+		for (String s : canonical) {
+			bh.consume(Chemoinformatics.descriptors(s, Descriptors.descriptors2DBut_nAtomLAC_And_MolIP));
+		}
+	}
+
+	@Benchmark
+	public void representation2d(Blackhole bh) throws Exception {
+		for (String s : canonical) {
+			bh.consume(Chemoinformatics.representation2d(s));
+		}
+	}
+
+	@Benchmark
+	public void representation2dCompact(Blackhole bh) throws Exception {
+		for (String s : canonical) {
+			bh.consume(Chemoinformatics.representation2dCompact(s));
+		}
+	}
+
+	@Benchmark
+	public void smilesToImage(Blackhole bh) throws Exception {
+		for (String s : canonical) {
+			bh.consume(Chemoinformatics.smilesToImage(s));
+		}
+	}
+
+	@Benchmark
+	public void tokenize(Blackhole bh) throws Exception {
+		for (String s : canonical) {
+			bh.consume(Chemoinformatics.tokenize(s));
+		}
+	}
+}
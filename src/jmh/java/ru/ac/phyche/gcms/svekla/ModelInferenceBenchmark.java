@@ -0,0 +1,120 @@
+package ru.ac.phyche.gcms.svekla;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Inference benchmarks for all model types (see BenchmarkModels): latency of
+ * prediction for one molecule given as SMILES string (Model.predictRI(smiles,
+ * columnType)) and throughput of batched prediction (Model.predictRI(dataSet,
+ * indices)) for several batch sizes. Feature computation is included in both
+ * cases. Throughput is reported as batches per second and, as secondary result
+ * "molecules", molecules per second. Run: java -cp
+ * target/svekla-0.0.3-jar-with-dependencies.jar org.openjdk.jmh.Main
+ * ModelInferenceBenchmark -p model=MLP
+ *
+ */
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ModelInferenceBenchmark {
+
+	/**
+	 * Model with synthetic weights, created once per trial.
+	 */
+	@State(Scope.Benchmark)
+	public static class ModelState {
+		@Param({ "CNN1D", "CNN2D", "MLP", "XGBOOST", "STACKING", "SECOND_LEVEL_SVR", "SECOND_LEVEL_LINEAR_SVR",
+				"SECOND_LEVEL_RANDOM_FOREST", "SECOND_LEVEL_GBM" })
+		public BenchmarkModels.Type model;
+
+		private File folder;
+		private Model instance;
+		private String[] smiles;
+
+		@Setup(Level.Trial)
+		public void setup() throws Exception {
+			folder = BenchmarkModels.temporaryFolder();
+			instance = BenchmarkModels.create(model, folder);
+			smiles = BenchmarkCorpus.canonical(false);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			BenchmarkModels.delete(folder);
+		}
+	}
+
+	/**
+	 * Batch of molecules (BenchmarkCorpus repeated)
+	 */
+	@State(Scope.Benchmark)
+	public static class BatchState {
+		@Param({ "1", "16", "64", "256" })
+		public int batchSize;
+
+		private RetentionsDataset batch;
+		private int[] indices;
+
+		@Setup(Level.Trial)
+		public void setup() {
+			batch = BenchmarkModels.batch(batchSize, BenchmarkModels.COLUMN);
+			indices = Model.range(batchSize);
+		}
+	}
+
+	/**
+	 * Number of predicted molecules (secondary result of throughput benchmark)
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Molecules {
+		public long molecules;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			molecules = 0;
+		}
+	}
+
+	/**
+	 * Next molecule of the corpus for the latency benchmark
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		private int position = 0;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public float latency(ModelState state, Cursor cursor) throws Exception {
+		String s = state.smiles[cursor.position];
+		cursor.position = (cursor.position + 1) % state.smiles.length;
+		return state.instance.predictRI(s, BenchmarkModels.COLUMN);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public float[] throughput(ModelState state, BatchState batch, Molecules molecules) throws Exception {
+		float[] result = state.instance.predictRI(batch.batch, batch.indices);
+		molecules.molecules += result.length;
+		return result;
+	}
+}
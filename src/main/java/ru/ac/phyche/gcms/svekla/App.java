@@ -64,8 +64,13 @@ public class App {
 		System.out.println("CCCCCC 0");
 		System.out.println("-file -allModels  <file name>  <outpt file>");
 		System.out.println("Predict retention index for all SMILES strings from file using all models.");
+		System.out.println("-stream [-allModels] <number of threads> <file name> <outpt file>");
+		System.out.println("Predict retention index for all SMILES strings from (large) file using several threads"
+				+ " with bounded memory. The same file formats as for -file option.");
 		System.out.println("-columns");
 		System.out.println("Show supported columns and respective numbers.");
+		System.out.println("-ConvertDescriptors <text descriptors file> <binary descriptors file>");
+		System.out.println("Convert file with precomputed descriptors to binary (memory-mapped) format.");
 	}
 
 	private static void removeUnsupportedCompounds(String inputFile, String outputFile, String unsupportedFile) {
@@ -131,61 +136,118 @@ public class App {
 		}
 	}
 
-	private static void predictForFile(String inputFile, String outputFile) {
+	/**
+	 * Predict and write one chunk of lines. entries.get(i) == null - line with
+	 * wrong SMILES or column. Errors for some molecules don't stop processing
+	 * (see StreamingPrediction): "ERROR" is written for these lines.
+	 */
+	private static void writePredictions(StackingLinearMetaLearnerModel model, ArrayList<String> smiles,
+			ArrayList<RetentionsEntry> entries, boolean allModels, FileWriter fw) throws IOException {
+		if (entries.size() == 0) {
+			return;
+		}
+		ArrayList<RetentionsEntry> correct = new ArrayList<RetentionsEntry>();
+		for (RetentionsEntry e : entries) {
+			if (e != null) {
+				correct.add(e);
+			}
+		}
+		RetentionsDataset chunk = RetentionsDataset.create(correct);
+		float[][] firstLevel;
+		float[] predicted;
 		try {
-			BufferedReader inp = new BufferedReader(new InputStreamReader(new FileInputStream(new File(inputFile))));
-			FileWriter fw = new FileWriter(outputFile);
+			firstLevel = model.firstLevelPredictions(chunk, Model.range(chunk.size()));
+			predicted = model.combineFirstLevelPredictions(firstLevel);
+		} catch (CDKException | RuntimeException e) {
+			// errors for some molecules; predict one by one
+			firstLevel = new float[chunk.size()][];
+			predicted = new float[chunk.size()];
+			for (int i = 0; i < chunk.size(); i++) {
+				try {
+					firstLevel[i] = model.firstLevelPredictions(chunk, new int[] { i })[0];
+					predicted[i] = model.combineFirstLevelPredictions(new float[][] { firstLevel[i] })[0];
+				} catch (CDKException | RuntimeException e1) {
+					firstLevel[i] = null;
+				}
+			}
+		}
+		int k = 0;
+		for (int i = 0; i < entries.size(); i++) {
+			String out = smiles.get(i) + " ERROR";
+			if (entries.get(i) != null) {
+				if (firstLevel[k] != null) {
+					out = smiles.get(i) + " " + chunk.getSmiles(k) + " " + Columns.column(chunk.getColumn(k)) + " "
+							+ predicted[k] + " ";
+					if (allModels) {
+						for (int j = 0; j < firstLevel[k].length; j++) {
+							out = out + firstLevel[k][j] + " ";
+						}
+					}
+				}
+				k++;
+			}
+			System.out.println(out);
+			fw.write(out + "\n");
+		}
+		smiles.clear();
+		entries.clear();
+	}
+
+	private static void predictForFile(String inputFile, String outputFile, boolean allModels) {
+		BufferedReader inp = null;
+		FileWriter fw = null;
+		try {
+			inp = new BufferedReader(new InputStreamReader(new FileInputStream(new File(inputFile))));
+			fw = new FileWriter(outputFile);
 			String s = inp.readLine();
-			fw.write("SMILES SMILES_(canonical_form) Retention_index\n");
-			System.out.println("SMILES SMILES_(canonical_form) Retention_index\n");
+			String header = StreamingPrediction.header(allModels);
+			fw.write(header + "\n");
+			System.out.println(header + "\n");
 			StackingLinearMetaLearnerModel model = loadModel();
+			ArrayList<String> smilesChunk = new ArrayList<String>();
+			ArrayList<RetentionsEntry> entriesChunk = new ArrayList<RetentionsEntry>();
 			while (s != null) {
 				if (!s.trim().equals("")) {
-					String smiles = s.split("\\s+")[0];
-					int column = s.split("\\s+").length == 1 ? 15 : Integer.parseInt(s.split("\\s+")[1]);
-					String canonical = Chemoinformatics.canonical(smiles, false);
-					String out = smiles + " " + canonical + " " + Columns.column(column) + " "
-							+ model.predictRI(canonical, column) + " ";
-					System.out.println(out);
-					fw.write(out + "\n");
+					String[] splitted = s.trim().split("\\s+");
+					String smiles = splitted[0];
+					RetentionsEntry entry = null;
+					try {
+						int column = splitted.length == 1 ? 15 : Integer.parseInt(splitted[1]);
+						String canonical = Chemoinformatics.canonical(smiles, false);
+						entry = RetentionsEntry.instance(canonical, 0, column);
+					} catch (CDKException | RuntimeException e) {
+						entry = null;
+					}
+					smilesChunk.add(smiles);
+					entriesChunk.add(entry);
+					if (entriesChunk.size() >= Model.PREDICTION_BATCH_SIZE) {
+						writePredictions(model, smilesChunk, entriesChunk, allModels, fw);
+					}
 				}
 				s = inp.readLine();
 			}
-			fw.close();
-			inp.close();
+			writePredictions(model, smilesChunk, entriesChunk, allModels, fw);
 		} catch (Exception e) {
 			e.printStackTrace();
 			System.out.println(e.getMessage());
+		} finally {
+			try {
+				if (fw != null) {
+					fw.close();
+				}
+				if (inp != null) {
+					inp.close();
+				}
+			} catch (IOException e) {
+				System.out.println(e.getMessage());
+			}
 		}
 	}
 
-	private static void predictForFileAllModels(String inputFile, String outputFile) {
+	private static void streamPredictions(String inputFile, String outputFile, int threads, boolean allModels) {
 		try {
-			BufferedReader inp = new BufferedReader(new InputStreamReader(new FileInputStream(new File(inputFile))));
-			FileWriter fw = new FileWriter(outputFile);
-			String s = inp.readLine();
-			fw.write("SMILES SMILES_(canonical_form) Column Linear_stacking_meta-model 1DCNN 2DCNN MLP XGBoost\n");
-			System.out.println(
-					"SMILES SMILES_(canonical_form) Column Linear_stacking_meta-model 1DCNN 2DCNN MLP XGBoost\n");
-			StackingLinearMetaLearnerModel model = loadModel();
-			while (s != null) {
-				if (!s.trim().equals("")) {
-					String smiles = s.split("\\s+")[0];
-					int column = s.split("\\s+").length == 1 ? 15 : Integer.parseInt(s.split("\\s+")[1]);
-					String canonical = Chemoinformatics.canonical(smiles, false);
-					String out = smiles + " " + canonical + " " + Columns.column(column) + " "
-							+ model.predictRI(canonical, column) + " ";
-					out = out + model.getModels()[0].predictRI(canonical, column) + " ";
-					out = out + model.getModels()[1].predictRI(canonical, column) + " ";
-					out = out + model.getModels()[2].predictRI(canonical, column) + " ";
-					out = out + model.getModels()[3].predictRI(canonical, column) + " ";
-					System.out.println(out);
-					fw.write(out + "\n");
-				}
-				s = inp.readLine();
-			}
-			fw.close();
-			inp.close();
+			StreamingPrediction prediction = StreamingPrediction.instance(() -> loadModel(), threads, allModels);
+			prediction.predict(inputFile, outputFile);
 		} catch (Exception e) {
 			e.printStackTrace();
 			System.out.println(e.getMessage());
@@ -233,6 +295,14 @@ public class App {
 
 	}
 
+	private static void convertDescriptors(String textFile, String binaryFile) {
+		try {
+			Descriptors.convertToBinaryFile(textFile, binaryFile);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
 	private static StackingLinearMetaLearnerModel loadModel() {
 		StackingLinearMetaLearnerModel result = new StackingLinearMetaLearnerModel();
 		String fileCNN1D = "./models/CNN1D.nn";
@@ -315,14 +385,36 @@ public class App {
 				System.exit(1);
 			}
 			if (args.length == 3) {
-				predictForFile(args[1], args[2]);
+				predictForFile(args[1], args[2], false);
 			}
 			if (args.length == 4) {
 				if (!args[1].equals("-allModels")) {
 					printUsageInfo();
 					System.exit(1);
 				}
-				predictForFileAllModels(args[2], args[3]);
+				predictForFile(args[2], args[3], true);
+			}
+			completed = true;
+		}
+		if (args[0].equals("-stream")) {
+			if (args.length == 4) {
+				streamPredictions(args[2], args[3], Integer.parseInt(args[1]), false);
+			} else {
+				if ((args.length == 5) && args[1].equals("-allModels")) {
+					streamPredictions(args[3], args[4], Integer.parseInt(args[2]), true);
+				} else {
+					printUsageInfo();
+					System.exit(1);
+				}
+			}
+			completed = true;
+		}
+		if (args[0].equals("-ConvertDescriptors")) {
+			if (args.length != 3) {
+				printUsageInfo();
+				System.exit(1);
+			} else {
+				convertDescriptors(args[1], args[2]);
 			}
 			completed = true;
 		}
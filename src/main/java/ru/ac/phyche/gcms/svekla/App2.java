@@ -67,6 +67,9 @@ public class App2 {
 		System.out.println("8) Remove from the data set compounds that are contained in other data set:");
 		System.out.println(
 				".... RemoveOverlap <data set 1 file> <data set 2 file>" + " <out file (data set 1 after removing)>");
+		System.out.println("9) Convert data set file to binary format (faster loading, data set files are detected"
+				+ " automatically, text files can be gzip-compressed):");
+		System.out.println(".... ConvertDataSet <data set file> <out file (binary data set)>");
 		System.out.println("The folder with neural networks should contain following files:");
 		System.out.println("mlp.nn, cnn.nn, mlpPolar.nn, cnnPolar.nn");
 		System.out.println("Second level models: 0 - SVR, 1 - SVR linear, 2 - Random forest, 3 - Gradient boosting");
@@ -212,6 +215,15 @@ public class App2 {
 		return model;
 	}
 
+	private static void setFeatureStore(SecondLevelModelForPolar model, String nnFolder, String descriptorsFile)
+			throws IOException {
+		String key = SecondLevelFeatureStore.fileHash(nnFolder + "/mlp.nn", nnFolder + "/cnn.nn",
+				nnFolder + "/mlpPolar.nn", nnFolder + "/cnnPolar.nn", descriptorsFile);
+		// training set features are persisted only by the store, the second-level
+		// feature cache isn't used here (see SecondLevelModelForPolar.setFeatureCache)
+		model.setFeatureStore(nnFolder + "/secondLevelFeatures.store", key);
+	}
+
 	private static void predictSecondLevel(String nnFolder, String descriptorsFile, String secondLevelModelFile,
 			int secondLevelModelType, String smilesOrSmilesFile) throws IOException {
 
@@ -251,6 +263,7 @@ public class App2 {
 			throws IOException, CDKException {
 		SecondLevelModelForPolar model = createModelAndLoadNNsAndDescriptors(nnFolder, descriptorsFile,
 				secondLevelModelType, true);
+		setFeatureStore(model, nnFolder, descriptorsFile);
 		RetentionsDataset train = dataset.copy();
 		train.makeCanoncalAll(false);
 		model.getDescriptorsGenerator().precompute(train.compounds(), false);
@@ -259,6 +272,8 @@ public class App2 {
 		RetentionsDataset val = train.compoundsBasedSplitAndShuffle(1);
 		model.init(train, val, model.getDescriptorsGenerator());
 		model.crossValidation(model.defaultParameters(), 10, train, crossValidationFile);
+		// cross-validation doesn't train this model (fold models are separate instances)
+		model.train(model.defaultParameters());
 		model.save(secondLevelModelFile);
 	}
 
@@ -266,6 +281,7 @@ public class App2 {
 			int secondLevelModelType, RetentionsDataset dataset) throws IOException, CDKException {
 		SecondLevelModelForPolar model = createModelAndLoadNNsAndDescriptors(nnFolder, descriptorsFile,
 				secondLevelModelType, true);
+		setFeatureStore(model, nnFolder, descriptorsFile);
 		RetentionsDataset train = dataset.copy();
 		train.makeCanoncalAll(false);
 		model.getDescriptorsGenerator().precompute(train.compounds(), false);
@@ -285,8 +301,7 @@ public class App2 {
 		model.load(secondLevelModelFile);
 		RetentionsDataset test = dataset.copy();
 		test.makeCanoncalAll(false);
-		String result = model.validate(test, predictionsFile);
-		System.out.println(result);
+		System.out.println(model.validationReport(test, predictionsFile).summary());
 	}
 
 	public static void main(String[] args) {
@@ -373,6 +388,14 @@ public class App2 {
 				data1.saveToFile(args[3]);
 				System.exit(0);
 			}
+			if (args[0].equals("ConvertDataSet")) {
+				if (args.length != 3) {
+					printUsageInfo();
+					System.exit(1);
+				}
+				RetentionsDataset.loadFromFile(args[1]).saveToBinaryFile(args[2]);
+				System.exit(0);
+			}
 			if (args[0].equals("SMILESToDepiction")) {
 				if (args.length != 3) {
 					printUsageInfo();
@@ -0,0 +1,109 @@
+package ru.ac.phyche.gcms.svekla;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.nd4j.linalg.dataset.MultiDataSet;
+import org.openscience.cdk.exception.CDKException;
+
+/**
+ * Background preparation of training batches for a neural network. Batches are
+ * drawn from the sampler in order and prepared (featurization and creation of
+ * input arrays, see NeuralNetModel.prepareTrainBatch) by worker threads while
+ * the current batch is used for training. At most queueDepth batches are
+ * prepared in advance. Batches are returned in the same order in which they were
+ * drawn from the sampler, so the sequence of batches doesn't depend on the
+ * number of workers.
+ *
+ */
+public class BatchPrefetcher {
+	private NeuralNetModel model;
+	private EpochSampler sampler;
+	private int batchSize;
+	private int queueDepth;
+	private ThreadPoolExecutor workers;
+	private ArrayDeque<Future<MultiDataSet>> queue = new ArrayDeque<Future<MultiDataSet>>();
+
+	/**
+	 *
+	 * @param model      neural network model with training set
+	 * @param sampler    sampler for the training set of the model
+	 * @param batchSize  batch size
+	 * @param queueDepth number of batches which are prepared in advance
+	 * @param workers    number of worker threads
+	 * @return new instance
+	 */
+	public static BatchPrefetcher instance(NeuralNetModel model, EpochSampler sampler, int batchSize, int queueDepth,
+			int workers) {
+		BatchPrefetcher result = new BatchPrefetcher();
+		result.model = model;
+		result.sampler = sampler;
+		result.batchSize = batchSize;
+		result.queueDepth = Math.max(1, queueDepth);
+		result.workers = Parallel.daemonPool(workers, "batch-prefetcher");
+		return result;
+	}
+
+	/**
+	 *
+	 * @return batch size
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 *
+	 * @return sampler
+	 */
+	public EpochSampler getSampler() {
+		return sampler;
+	}
+
+	private void fill() {
+		while (queue.size() < queueDepth) {
+			int[] batch = sampler.nextBatch(batchSize);
+			queue.add(workers.submit(() -> model.prepareTrainBatch(batch)));
+		}
+	}
+
+	/**
+	 * Next batch. Input arrays of the batch should be released after training
+	 * (see NeuralNetModel.releaseBatchInput).
+	 *
+	 * @return next batch
+	 * @throws CDKException errors during featurization
+	 */
+	public MultiDataSet next() throws CDKException {
+		fill();
+		Future<MultiDataSet> head = queue.poll();
+		fill();
+		try {
+			return head.get();
+		} catch (InterruptedException e) {
+			throw new CDKException(e.getMessage());
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof CDKException) {
+				throw (CDKException) e.getCause();
+			}
+			throw new CDKException(e.getCause().getMessage());
+		}
+	}
+
+	/**
+	 * Stop worker threads. Batches which were prepared in advance are released.
+	 */
+	public void close() {
+		workers.shutdown();
+		for (Future<MultiDataSet> f : queue) {
+			try {
+				model.releaseBatchInput(f.get().getFeatures());
+			} catch (InterruptedException | ExecutionException e) {
+				// the batch was not prepared, nothing to release
+			}
+		}
+		queue.clear();
+	}
+}
@@ -11,6 +11,8 @@ import org.deeplearning4j.nn.conf.layers.PoolingType;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.deeplearning4j.nn.weights.WeightInit;
 import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.buffer.DataType;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.learning.config.Adam;
@@ -53,21 +55,40 @@ public class CNN1DFromSMILESModel extends NeuralNetModel {
 		this.setNn(nn);
 	}
 
+	/**
+	 * Tokenized SMILES strings are small, so they are computed once for training
+	 * and validation sets.
+	 */
+	@Override
+	protected boolean precomputeTrainingFeatures() {
+		return true;
+	}
+
 	@Override
 	public INDArray[] nextBatchInput(RetentionsDataset dataSet, int[] indices) throws CDKException {
-		float[][][] features = new float[indices.length][][];
+		int[][] tokens = new int[indices.length][];
 		float[][] columnInfo = new float[indices.length][];
 		for (int i = 0; i < indices.length; i++) {
-			features[i] = new float[Chemoinformatics.SMILES_TOKENS][Chemoinformatics.SMILES_LEN];
-			int[] tokens = Chemoinformatics.tokenize(dataSet.getSmiles(indices[i]));
-			for (int j = 0; j < tokens.length; j++) {
-				features[i][tokens[j]][j] = 1.0F;
-			}
+			tokens[i] = dataSet.tokens(indices[i]);
 			columnInfo[i] = Columns.columnAndColumnTypeOneHot(dataSet.getColumn(indices[i]));
 		}
+		// one-hot encoding is written directly to the (zero-filled, c-ordered)
+		// buffer of the array: [entry][token][position]
+		INDArray featuresINDArray = Nd4j.zeros(DataType.FLOAT, indices.length, Chemoinformatics.SMILES_TOKENS,
+				Chemoinformatics.SMILES_LEN);
+		DataBuffer buffer = featuresINDArray.data();
+		long block = Chemoinformatics.SMILES_TOKENS * Chemoinformatics.SMILES_LEN;
+		for (int i = 0; i < indices.length; i++) {
+			for (int j = 0; j < tokens[i].length; j++) {
+				buffer.put(i * block + tokens[i][j] * Chemoinformatics.SMILES_LEN + j, 1.0F);
+			}
+		}
 		INDArray columnInfoINDArray = Nd4j.create(columnInfo);
-		INDArray featuresINDArray = Nd4j.create(features);
 		return new INDArray[] { featuresINDArray, columnInfoINDArray };
 	}
 
+	@Override
+	public Featurizer featurizer() {
+		return Featurizer.instance().require(Featurizer.FeatureBlock.TOKENS);
+	}
 }
@@ -1,5 +1,11 @@
 package ru.ac.phyche.gcms.svekla;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
 import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
 import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
 import org.deeplearning4j.nn.conf.graph.MergeVertex;
@@ -12,6 +18,8 @@ import org.deeplearning4j.nn.conf.layers.SubsamplingLayer;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.deeplearning4j.nn.weights.WeightInit;
 import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.buffer.DataType;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.learning.config.Adam;
@@ -30,6 +38,12 @@ import org.openscience.cdk.exception.CDKException;
  */
 public class CNN2DFromDepictionModel extends NeuralNetModel {
 
+	private ConcurrentHashMap<Integer, ConcurrentLinkedQueue<INDArray>> freeBuffers =
+			new ConcurrentHashMap<Integer, ConcurrentLinkedQueue<INDArray>>();
+	private Map<INDArray, Representation2d[]> bufferContents = Collections
+			.synchronizedMap(new IdentityHashMap<INDArray, Representation2d[]>());
+	private static final int MAX_FREE_BUFFERS = 4;
+
 	@Override
 	public void initNN() {
 		ComputationGraphConfiguration conf = new NeuralNetConfiguration.Builder().weightInit(WeightInit.RELU)
@@ -70,16 +84,90 @@ public class CNN2DFromDepictionModel extends NeuralNetModel {
 		this.setNn(nn);
 	}
 
+	/**
+	 * Compact 2D representations (see Representation2d) are small, so they are
+	 * computed once for training and validation sets.
+	 */
+	@Override
+	protected boolean precomputeTrainingFeatures() {
+		return true;
+	}
+
+	private static INDArray zeros(int batchSize) {
+		return Nd4j.zeros(DataType.FLOAT, batchSize, Representation2d.CHANNELS, Representation2d.SIZE,
+				Representation2d.SIZE);
+	}
+
+	/**
+	 * Compact 2D representations are written to a new zero-filled array (only
+	 * non-zero cells are written).
+	 */
 	@Override
 	public INDArray[] nextBatchInput(RetentionsDataset dataSet, int[] indices) throws CDKException {
-		float[][][][] features = new float[indices.length][][][];
+		return scatterBatchInput(dataSet, indices, zeros(indices.length), new Representation2d[indices.length]);
+	}
+
+	/**
+	 * Zero-filled arrays are taken from small pools (one pool per batch size, see
+	 * releaseBatchInput) instead of allocation of a new large array for each
+	 * training or prediction batch. Representations written to each array are
+	 * remembered, so only these cells are cleared when the array is returned to
+	 * the pool.
+	 */
+	@Override
+	protected INDArray[] prefetchBatchInput(RetentionsDataset dataSet, int[] indices) throws CDKException {
+		ConcurrentLinkedQueue<INDArray> free = freeBuffers.get(indices.length);
+		INDArray featuresINDArray = free == null ? null : free.poll();
+		if (featuresINDArray == null) {
+			featuresINDArray = zeros(indices.length);
+		}
+		Representation2d[] contents = new Representation2d[indices.length];
+		INDArray[] result = scatterBatchInput(dataSet, indices, featuresINDArray, contents);
+		bufferContents.put(featuresINDArray, contents);
+		return result;
+	}
+
+	private static INDArray[] scatterBatchInput(RetentionsDataset dataSet, int[] indices, INDArray featuresINDArray,
+			Representation2d[] contents) throws CDKException {
 		float[][] columnInfo = new float[indices.length][];
+		DataBuffer buffer = featuresINDArray.data();
 		for (int i = 0; i < indices.length; i++) {
-			features[i] = dataSet.representation2d(indices[i]);
+			contents[i] = dataSet.representation2dCompact(indices[i]);
+			contents[i].scatter(buffer, (long) i * Representation2d.LENGTH);
 			columnInfo[i] = Columns.columnAndColumnTypeOneHot(dataSet.getColumn(indices[i]));
 		}
-		INDArray columnInfoINDArray = Nd4j.create(columnInfo);
-		INDArray featuresINDArray = Nd4j.create(features);
-		return new INDArray[] { featuresINDArray, columnInfoINDArray };
+		return new INDArray[] { featuresINDArray, Nd4j.create(columnInfo) };
+	}
+
+	@Override
+	protected void releaseBatchInput(INDArray[] input) {
+		Representation2d[] contents = bufferContents.remove(input[0]);
+		if (contents == null) {
+			return;
+		}
+		ConcurrentLinkedQueue<INDArray> free = freeBuffers.computeIfAbsent(contents.length,
+				n -> new ConcurrentLinkedQueue<INDArray>());
+		if (free.size() >= MAX_FREE_BUFFERS) {
+			return;
+		}
+		DataBuffer buffer = input[0].data();
+		for (int i = 0; i < contents.length; i++) {
+			contents[i].clear(buffer, (long) i * Representation2d.LENGTH);
+		}
+		free.offer(input[0]);
+	}
+
+	/**
+	 * One input entry of this model is large (29x130x130), so prediction batches
+	 * are smaller than for other models.
+	 */
+	@Override
+	public int getPredictionBatchSize() {
+		return 32;
+	}
+
+	@Override
+	public Featurizer featurizer() {
+		return Featurizer.instance().require(Featurizer.FeatureBlock.REPRESENTATION_2D);
 	}
 }
@@ -0,0 +1,98 @@
+package ru.ac.phyche.gcms.svekla;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openscience.cdk.exception.CDKException;
+
+/**
+ * Memo of canonical SMILES strings (see Chemoinformatics.canonical) with and
+ * without stereochemistry. Each distinct SMILES string is canonicalized only
+ * once, missing values are computed in parallel (see compute and Parallel
+ * class). Data sets often contain the same compound many times (for different
+ * columns), so makeCanoncalAll, compoundsCanonical, filterIdentical,
+ * groupByCompounds, meanByCompounds and medianByCompounds of RetentionsDataset
+ * canonicalize only distinct SMILES strings using this memo.
+ * RetentionsDataset creates a memo on first use, data sets created from it
+ * (copy, subset, splits) share the memo (see
+ * RetentionsDataset.setCanonicalizer).
+ *
+ */
+public class Canonicalizer {
+	private ConcurrentHashMap<String, String> stereo = new ConcurrentHashMap<String, String>();
+	private ConcurrentHashMap<String, String> noStereo = new ConcurrentHashMap<String, String>();
+
+	private Canonicalizer() {
+	}
+
+	/**
+	 *
+	 * @return new empty memo
+	 */
+	public static Canonicalizer instance() {
+		return new Canonicalizer();
+	}
+
+	private ConcurrentHashMap<String, String> map(boolean stereochemistry) {
+		return stereochemistry ? stereo : noStereo;
+	}
+
+	/**
+	 * Canonicalize (in parallel) all SMILES strings which are not in the memo yet.
+	 *
+	 * @param smiles          SMILES strings
+	 * @param stereochemistry if TRUE - cis/trans isomers and optical isomers will
+	 *                        be denoted using special symbols.
+	 * @throws CDKException CDK errors for any of compounds
+	 */
+	public void compute(Collection<String> smiles, boolean stereochemistry) throws CDKException {
+		ConcurrentHashMap<String, String> map = map(stereochemistry);
+		ArrayList<String> missing = new ArrayList<String>();
+		for (String s : new HashSet<String>(smiles)) {
+			if (!map.containsKey(s)) {
+				missing.add(s);
+			}
+		}
+		if (missing.isEmpty()) {
+			return;
+		}
+		map.putAll(Parallel.computeAll(missing, s -> Chemoinformatics.canonical(s, stereochemistry).trim()));
+	}
+
+	/**
+	 *
+	 * @param smiles          SMILES string
+	 * @param stereochemistry if TRUE - cis/trans isomers and optical isomers will
+	 *                        be denoted using special symbols.
+	 * @return canonical SMILES string (trimmed), from the memo if it is there
+	 * @throws CDKException CDK error
+	 */
+	public String canonical(String smiles, boolean stereochemistry) throws CDKException {
+		ConcurrentHashMap<String, String> map = map(stereochemistry);
+		String result = map.get(smiles);
+		if (result == null) {
+			result = Chemoinformatics.canonical(smiles, stereochemistry).trim();
+			map.put(smiles, result);
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 * @param stereochemistry with or without stereochemistry
+	 * @return number of SMILES strings in the memo
+	 */
+	public int size(boolean stereochemistry) {
+		return map(stereochemistry).size();
+	}
+
+	/**
+	 * Remove all SMILES strings from the memo.
+	 */
+	public void clear() {
+		stereo.clear();
+		noStereo.clear();
+	}
+}
@@ -6,16 +6,8 @@ import java.awt.image.DataBufferByte;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
 import javax.vecmath.Point2d;
 
@@ -43,12 +35,10 @@ import org.openscience.cdk.interfaces.IBond;
 import org.openscience.cdk.isomorphism.Pattern;
 import org.openscience.cdk.layout.StructureDiagramGenerator;
 import org.openscience.cdk.qsar.DescriptorEngine;
-import org.openscience.cdk.qsar.DescriptorValue;
 import org.openscience.cdk.qsar.IDescriptor;
 import org.openscience.cdk.qsar.IMolecularDescriptor;
 import org.openscience.cdk.qsar.descriptors.molecular.WeightDescriptor;
 import org.openscience.cdk.qsar.result.DoubleResult;
-import org.openscience.cdk.qsar.result.IDescriptorResult;
 import org.openscience.cdk.smiles.SmiFlavor;
 import org.openscience.cdk.smiles.SmilesGenerator;
 import org.openscience.cdk.smiles.SmilesParser;
@@ -262,7 +252,24 @@ public class Chemoinformatics {
 		if (type == FingerprintsType.NONE) {
 			return new float[] {};
 		}
-		IAtomContainer mol = smilesToAtomContainer(smiles.trim());
+		return fingerprints(smilesToAtomContainer(smiles.trim()), type);
+	}
+
+	/**
+	 * The same as fingerprints(smiles, type) for already parsed molecule (see
+	 * smilesToAtomContainer method). Some fingerprints types can alter aromaticity
+	 * flags of the molecule, use a copy of the molecule if it will be used later.
+	 * 
+	 * @param mol  molecule
+	 * @param type types of fingerprints
+	 * @return float array. Typically zeros (0.0F) or ones (1.0F) or values which
+	 *         are identical to integers.
+	 * @throws CDKException CDK internal errors.
+	 */
+	static float[] fingerprints(IAtomContainer mol, FingerprintsType type) throws CDKException {
+		if (type == FingerprintsType.NONE) {
+			return new float[] {};
+		}
 		BitSet fp = null;
 		if (type == FingerprintsType.ADDITIVE_CIRCULAR_4_1024_NO_SCALE) {
 			return (circularAdditiveFingerPrints(mol, CircularFingerprinter.CLASS_ECFP4, 1024, false));
@@ -376,8 +383,9 @@ public class Chemoinformatics {
 
 	/**
 	 * Generates CDK descriptors. 3D descriptors (i.e. descriptors which require 3D
-	 * coordinates) are not supported. You can set timeout because some descriptors
-	 * for some molecules are calculated too slow.
+	 * coordinates) are not supported. Some descriptors for some molecules are
+	 * calculated too slow, timeouts are set in the default DescriptorsCalculator
+	 * instance (descriptors which exceed timeout are NaN).
 	 * 
 	 * @param smiles          molecule (SMILES string)
 	 * @param descriptorNames CDK descriptors names (such as "fragC", "C1SP1",
@@ -386,61 +394,7 @@ public class Chemoinformatics {
 	 * @throws CDKException CDK internal errors, incorrect SMILES etc.
 	 */
 	public static float[] descriptors(String smiles, String[] descriptorNames) throws CDKException {
-		HashSet<String> descriptorNamesSet = new HashSet<String>(Arrays.asList(descriptorNames));
-		IAtomContainer mol = smilesToAtomContainer(smiles);
-
-		HashMap<String, Float> resultMap = new HashMap<String, Float>();
-		List<IDescriptor> descriptors = descriptorList;
-
-		for (IDescriptor d : descriptors) {
-			IMolecularDescriptor md = (IMolecularDescriptor) d;
-			HashSet<String> thisDescriptorNamesSet = new HashSet<String>(Arrays.asList(md.getDescriptorNames()));
-			thisDescriptorNamesSet.retainAll(descriptorNamesSet);
-			if (thisDescriptorNamesSet.size() > 0) {
-				boolean failedToCalculate = false;
-				DescriptorValue dv = null;
-				try {
-					try {
-						dv = computeDescriptor(mol, md);
-					} catch (StackOverflowError | ArrayIndexOutOfBoundsException e) {
-						failedToCalculate = true;
-					}
-				} catch (NullPointerException e) {
-					failedToCalculate = true;
-					if ((md == null) || (mol == null)) {
-						throw e;
-					}
-				}
-				if (dv == null) {
-					failedToCalculate = true;
-				}
-				String[] values = null;
-				if (!failedToCalculate) {
-					IDescriptorResult dr = dv.getValue();
-					values = dr.toString().split(",");
-				}
-				String[] names = md.getDescriptorNames();
-
-				for (int j = 0; j < names.length; j++) {
-					float value = Float.NaN;
-					if (!failedToCalculate) {
-						value = Float.parseFloat(values[j]);
-					}
-					resultMap.put(names[j], value);
-				}
-			}
-		}
-		float[] result = new float[descriptorNames.length];
-
-		for (int k = 0; k < descriptorNames.length; k++) {
-			if ((resultMap.get(descriptorNames[k]) == null)) {
-				result[k] = Float.NaN;
-			} else {
-				float res = resultMap.get(descriptorNames[k]);
-				result[k] = Float.isInfinite(res) ? Float.NaN : res;
-			}
-		}
-		return result;
+		return DescriptorsPlan.compile(descriptorNames).compute(smilesToAtomContainer(smiles));
 	}
 
 	/**
@@ -520,7 +474,20 @@ public class Chemoinformatics {
 	 * @throws CDKException internal CDK
 	 */
 	public static float[] funcGroups(String smiles) throws CDKException {
-		IAtomContainer mol = smilesToAtomContainer(smiles);
+		return funcGroups(smilesToAtomContainer(smiles));
+	}
+
+	/**
+	 * The same as funcGroups(smiles) for already parsed molecule (see
+	 * smilesToAtomContainer method). SMARTS matching alters aromaticity flags of
+	 * the molecule, use a copy of the molecule if it will be used later.
+	 * 
+	 * @param mol molecule
+	 * @return an array with numbers of occurrences of each SMARTS query in the
+	 *         molecule.
+	 * @throws CDKException internal CDK
+	 */
+	static float[] funcGroups(IAtomContainer mol) throws CDKException {
 		String[] patterns = smartsPatterns();
 		float[] result = new float[patterns.length + 1];
 
@@ -552,26 +519,65 @@ public class Chemoinformatics {
 	 *                      longer than 50, usually).
 	 */
 	public static float[][][] representation2d(String smiles) throws CDKException {
-		IAtomContainer mol = calculate2dcoordinates(smilesToAtomContainer(smiles));
-		float[][][] result = new float[29][130][130];
+		return representation2d(smilesToAtomContainer(smiles), smiles);
+	}
+
+	/**
+	 * The same as representation2d(smiles) for already parsed molecule (see
+	 * smilesToAtomContainer method).
+	 * 
+	 * @param molecule molecule
+	 * @param smiles   SMILES string of the molecule (used for error messages)
+	 * @return [29][130][130] input for 2D-CNN
+	 * @throws CDKException CDK internal error, oversized molecules
+	 */
+	static float[][][] representation2d(IAtomContainer molecule, String smiles) throws CDKException {
+		return representation2dCompact(molecule, smiles).toDense();
+	}
+
+	/**
+	 * Compact form of 2D representation (see representation2d(smiles) and
+	 * Representation2d class): only cells which contain atoms or bonds are stored.
+	 * 
+	 * @param smiles molecule (SMILES string)
+	 * @return compact 2D representation
+	 * @throws CDKException CDK internal error, oversized molecules
+	 */
+	public static Representation2d representation2dCompact(String smiles) throws CDKException {
+		return representation2dCompact(smilesToAtomContainer(smiles), smiles);
+	}
+
+	/**
+	 * The same as representation2dCompact(smiles) for already parsed molecule (see
+	 * smilesToAtomContainer method).
+	 * 
+	 * @param molecule molecule
+	 * @param smiles   SMILES string of the molecule (used for error messages)
+	 * @return compact 2D representation
+	 * @throws CDKException CDK internal error, oversized molecules
+	 */
+	static Representation2d representation2dCompact(IAtomContainer molecule, String smiles) throws CDKException {
+		IAtomContainer mol = calculate2dcoordinates(molecule);
+		int n = mol.getAtomCount() + mol.getBondCount();
+		int[] channels = new int[n];
+		int[] x = new int[n];
+		int[] y = new int[n];
+		int k = 0;
 		for (IAtom atom : mol.atoms()) {
 			int[] coordinatesAndType = atomTypeAndCoordinatesToInts(atom);
-			try {
-				result[coordinatesAndType[0]][coordinatesAndType[1]][coordinatesAndType[2]] += 1;
-			} catch (ArrayIndexOutOfBoundsException e) {
-				throw new CDKException("Oversized 2D-representation of molecule " + smiles + " " + e.getMessage());
-			}
+			channels[k] = coordinatesAndType[0];
+			x[k] = coordinatesAndType[1];
+			y[k] = coordinatesAndType[2];
+			k++;
 		}
 		for (IBond bond : mol.bonds()) {
 			int[] coordinatesAndType = bondTypeAndCoordinatesToInts(bond);
-			try {
-				result[26 + coordinatesAndType[0]][coordinatesAndType[1]][coordinatesAndType[2]] += 1;
-			} catch (ArrayIndexOutOfBoundsException e) {
-				throw new CDKException("Oversized 2D-representation of molecule " + smiles + " " + e.getMessage());
-			}
+			channels[k] = 26 + coordinatesAndType[0];
+			x[k] = coordinatesAndType[1];
+			y[k] = coordinatesAndType[2];
+			k++;
 		}
-
-		return result;
+		return Representation2d.create(channels, x, y, smiles);
 	}
 
 	/**
@@ -614,6 +620,14 @@ public class Chemoinformatics {
 	// private methods
 	private static final List<IDescriptor> descriptorList = getDescriptorList();
 
+	/**
+	 * 
+	 * @return all CDK molecular descriptors (instances)
+	 */
+	static List<IDescriptor> descriptorList() {
+		return descriptorList;
+	}
+
 	private static List<IDescriptor> getDescriptorList() {
 		List<String> classes = DescriptorEngine
 				.getDescriptorClassNameByPackage("org.openscience.cdk.qsar.descriptors.molecular", null);
@@ -625,7 +639,16 @@ public class Chemoinformatics {
 		return engine.getDescriptorInstances();
 	}
 
-	private static IAtomContainer smilesToAtomContainer(String s) throws CDKException {
+	/**
+	 * Parse SMILES string, perceive atom types and aromaticity, add implicit
+	 * hydrogens. All features (fingerprints, functional groups, 2D representation,
+	 * descriptors) are computed for such molecules.
+	 * 
+	 * @param s SMILES string
+	 * @return molecule
+	 * @throws CDKException incorrect SMILES, CDK internal errors
+	 */
+	static IAtomContainer smilesToAtomContainer(String s) throws CDKException {
 		SmilesParser parser = new SmilesParser(DefaultChemObjectBuilder.getInstance());
 		IAtomContainer mol = parser.parseSmiles(s.trim());
 		Aromaticity arom = new Aromaticity(ElectronDonation.cdk(), Cycles.cdkAromaticSet());
@@ -711,35 +734,6 @@ public class Chemoinformatics {
 				"[CX3!R]=[SX1]", "[CX3R]=[SX1]", "[SiX4H1]", "[SiX4!R]", "[SiX4H0R]", "[PX3]", "[PX4]=O", "[PX4]=S" });
 	}
 
-	private static final ExecutorService exec = Executors.newCachedThreadPool();
-
-	private static DescriptorValue computeDescriptor(IAtomContainer mol, IMolecularDescriptor md) {
-		DecriptorComputeCall computer = new DecriptorComputeCall();
-		computer.md = md;
-		computer.mol = mol;
-
-		Future<DescriptorValue> future = exec.submit(computer);
-		DescriptorValue dv = null;
-		try {
-			dv = future.get(1, TimeUnit.SECONDS);
-		} catch (InterruptedException | ExecutionException | TimeoutException e) {
-
-		} finally {
-			future.cancel(true);
-		}
-		return dv;
-	}
-
-	private static class DecriptorComputeCall implements Callable<DescriptorValue> {
-		public IAtomContainer mol;
-		public IMolecularDescriptor md;
-
-		@Override
-		public DescriptorValue call() throws Exception {
-			return md.calculate(mol);
-		}
-	}
-
 	private static String atomTypeToString(IAtom at) {
 		HashSet<String> mostCommonAtomTypes = new HashSet<String>();
 		mostCommonAtomTypes.addAll(Arrays.asList(new String[] { "C.sp3", "C.sp2", "O.sp3", "O.sp2", "N.sp2", "N.amide",
@@ -0,0 +1,599 @@
+package ru.ac.phyche.gcms.svekla;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.openscience.cdk.exception.CDKException;
+
+/**
+ * Columnar (compact) retention data set for large data sets (hundreds of
+ * thousands of entries). SMILES strings are dictionary-encoded: each distinct
+ * SMILES string is stored only once, and each entry holds only an integer id of
+ * compound, retention index (float) and column type (short). Memory usage is
+ * about 10 bytes per entry plus the dictionary instead of a RetentionsEntry and
+ * a String per entry. Compound-based operations (splits, grouping) are integer
+ * operations on ids. The index of entries by compound and InChI-keys of
+ * compounds are computed once and cached. Conversion to RetentionsDataset (for
+ * models) - toDataset(). Binary file format (see saveToBinaryFile) is much
+ * faster to load than text one. SMILES strings are compared "as is" (no
+ * canonicalization), as in RetentionsDataset.compounds().
+ *
+ */
+public class CompactRetentionsDataset {
+	static final byte[] MAGIC = "SVKRDS01".getBytes(StandardCharsets.US_ASCII);
+
+	private String[] dictionary;
+	private int[] ids;
+	private float[] retentions;
+	private short[] columns;
+
+	private int[][] entriesByCompound = null;
+	private String[] inchiKeys = null;
+
+	private CompactRetentionsDataset() {
+	}
+
+	/**
+	 * Dictionary encoding of SMILES strings in order of first occurrence.
+	 */
+	private static class Encoder {
+		private HashMap<String, Integer> idsMap = new HashMap<String, Integer>();
+		private ArrayList<String> dictionary = new ArrayList<String>();
+
+		private int id(String smiles) {
+			Integer id = idsMap.get(smiles);
+			if (id == null) {
+				id = dictionary.size();
+				idsMap.put(smiles, id);
+				dictionary.add(smiles);
+			}
+			return id;
+		}
+
+		private String[] dictionary() {
+			return dictionary.toArray(new String[dictionary.size()]);
+		}
+	}
+
+	private static short column(int column) {
+		if ((column < Short.MIN_VALUE) || (column > Short.MAX_VALUE)) {
+			throw new RuntimeException("Column type out of range " + column);
+		}
+		return (short) column;
+	}
+
+	/**
+	 * Create compact data set from usual one. Order of entries is kept.
+	 *
+	 * @param dataset data set
+	 * @return new instance
+	 */
+	public static CompactRetentionsDataset instance(RetentionsDataset dataset) {
+		CompactRetentionsDataset result = new CompactRetentionsDataset();
+		int n = dataset.size();
+		Encoder encoder = new Encoder();
+		result.ids = new int[n];
+		result.retentions = new float[n];
+		result.columns = new short[n];
+		for (int i = 0; i < n; i++) {
+			result.ids[i] = encoder.id(dataset.getSmiles(i).trim());
+			result.retentions[i] = dataset.getRetention(i);
+			result.columns[i] = column(dataset.getColumn(i));
+		}
+		result.dictionary = encoder.dictionary();
+		return result;
+	}
+
+	/**
+	 * Load data set from file. File format is the same as for
+	 * RetentionsDataset.loadFromFile: one line per entry, SMILES string, retention
+	 * index (float) and column type (integer) separated by spaces. The file can be
+	 * gzip-compressed or binary (see saveToBinaryFile). RetentionsEntry instances
+	 * are not created.
+	 *
+	 * @param filename file name
+	 * @return loaded data set
+	 * @throws IOException IO, wrong format
+	 */
+	public static CompactRetentionsDataset loadFromFile(String filename) throws IOException {
+		if (isBinaryFile(filename)) {
+			return loadFromBinaryFile(filename);
+		}
+		BufferedReader inp = RetentionsDataset.textReader(filename);
+		Encoder encoder = new Encoder();
+		int n = 0;
+		int[] ids = new int[1024];
+		float[] retentions = new float[1024];
+		short[] columns = new short[1024];
+		try {
+			String s = inp.readLine();
+			while ((s != null) && (!s.trim().equals(""))) {
+				String[] f = RetentionsDataset.fields(s);
+				if (n == ids.length) {
+					ids = Arrays.copyOf(ids, 2 * n);
+					retentions = Arrays.copyOf(retentions, 2 * n);
+					columns = Arrays.copyOf(columns, 2 * n);
+				}
+				try {
+					retentions[n] = Float.parseFloat(f[1]);
+					columns[n] = column(Integer.parseInt(f[2]));
+				} catch (NumberFormatException e) {
+					throw new IOException("Wrong line in data set file: " + s);
+				}
+				ids[n] = encoder.id(f[0]);
+				n++;
+				s = inp.readLine();
+			}
+		} finally {
+			inp.close();
+		}
+		CompactRetentionsDataset result = new CompactRetentionsDataset();
+		result.dictionary = encoder.dictionary();
+		result.ids = Arrays.copyOf(ids, n);
+		result.retentions = Arrays.copyOf(retentions, n);
+		result.columns = Arrays.copyOf(columns, n);
+		return result;
+	}
+
+	/**
+	 * Save data set to file. The same format as RetentionsDataset.saveToFile.
+	 *
+	 * @param filename file name
+	 * @throws IOException IO
+	 */
+	public void saveToFile(String filename) throws IOException {
+		BufferedWriter fw = new BufferedWriter(new FileWriter(filename), 1 << 20);
+		StringBuilder line = new StringBuilder();
+		try {
+			for (int i = 0; i < ids.length; i++) {
+				line.setLength(0);
+				line.append(dictionary[ids[i]]).append(' ').append(retentions[i]).append(' ').append(columns[i])
+						.append('\n');
+				fw.append(line);
+			}
+		} finally {
+			fw.close();
+		}
+	}
+
+	/**
+	 * Save data set to binary file (see loadFromBinaryFile). File format
+	 * (big-endian): 8 bytes of MAGIC; int number of entries; int number of
+	 * compounds; compounds: SMILES (UTF); compound ids (ints); retention indices
+	 * (floats); column types (shorts). A temporary file is written first and then
+	 * renamed.
+	 *
+	 * @param filename file name
+	 * @throws IOException IO
+	 */
+	public void saveToBinaryFile(String filename) throws IOException {
+		File tmp = new File(filename + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 20));
+		try {
+			out.write(MAGIC);
+			out.writeInt(ids.length);
+			out.writeInt(dictionary.length);
+			for (String smiles : dictionary) {
+				out.writeUTF(smiles);
+			}
+			ByteBuffer buffer = ByteBuffer.allocate(10 * ids.length);
+			buffer.asIntBuffer().put(ids);
+			buffer.position(4 * ids.length);
+			buffer.asFloatBuffer().put(retentions);
+			buffer.position(8 * ids.length);
+			buffer.asShortBuffer().put(columns);
+			out.write(buffer.array());
+		} finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), new File(filename).toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Load data set from binary file (see saveToBinaryFile).
+	 *
+	 * @param filename file name
+	 * @return loaded data set
+	 * @throws IOException IO, wrong format
+	 */
+	public static CompactRetentionsDataset loadFromBinaryFile(String filename) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename), 1 << 20));
+		try {
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			if (!Arrays.equals(magic, MAGIC)) {
+				throw new IOException("Not a binary data set file: " + filename);
+			}
+			int n = in.readInt();
+			CompactRetentionsDataset result = new CompactRetentionsDataset();
+			result.dictionary = new String[in.readInt()];
+			for (int i = 0; i < result.dictionary.length; i++) {
+				result.dictionary[i] = in.readUTF();
+			}
+			byte[] bytes = new byte[10 * n];
+			in.readFully(bytes);
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			result.ids = new int[n];
+			result.retentions = new float[n];
+			result.columns = new short[n];
+			buffer.asIntBuffer().get(result.ids);
+			buffer.position(4 * n);
+			buffer.asFloatBuffer().get(result.retentions);
+			buffer.position(8 * n);
+			buffer.asShortBuffer().get(result.columns);
+			for (int id : result.ids) {
+				if ((id < 0) || (id >= result.dictionary.length)) {
+					throw new IOException("Wrong compound id in binary data set file: " + filename);
+				}
+			}
+			return result;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 *
+	 * @param filename file name
+	 * @return true if the file starts with MAGIC of binary data set file (see
+	 *         saveToBinaryFile)
+	 * @throws IOException IO
+	 */
+	public static boolean isBinaryFile(String filename) throws IOException {
+		return startsWith(filename, MAGIC);
+	}
+
+	static boolean startsWith(String filename, byte[] prefix) throws IOException {
+		FileInputStream in = new FileInputStream(filename);
+		try {
+			byte[] bytes = new byte[prefix.length];
+			int n = 0;
+			while (n < bytes.length) {
+				int r = in.read(bytes, n, bytes.length - n);
+				if (r < 0) {
+					return false;
+				}
+				n += r;
+			}
+			return Arrays.equals(bytes, prefix);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Convert to RetentionsDataset. One RetentionsEntry per entry is created, but
+	 * all entries of one compound share the same SMILES String instance.
+	 *
+	 * @return data set
+	 */
+	public RetentionsDataset toDataset() {
+		RetentionsEntry[] data = new RetentionsEntry[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			data[i] = new RetentionsEntry();
+			data[i].setSmiles(dictionary[ids[i]]);
+			data[i].setRetention(retentions[i]);
+			data[i].setColumnType(columns[i]);
+		}
+		return RetentionsDataset.create(data);
+	}
+
+	/**
+	 *
+	 * @return Number of entries (retention index - column type - SMILES) in the
+	 *         data set.
+	 */
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 *
+	 * @return number of distinct compounds (SMILES strings)
+	 */
+	public int numberOfCompounds() {
+		return dictionary.length;
+	}
+
+	/**
+	 *
+	 * @param id id of compound, 0 .. numberOfCompounds() - 1
+	 * @return SMILES string of compound
+	 */
+	public String getCompound(int id) {
+		return dictionary[id];
+	}
+
+	/**
+	 *
+	 * @param i number of entry
+	 * @return id of compound of i-th entry
+	 */
+	public int getCompoundId(int i) {
+		return ids[i];
+	}
+
+	/**
+	 *
+	 * @param i number of entry
+	 * @return SMILES of i-th entry
+	 */
+	public String getSmiles(int i) {
+		return dictionary[ids[i]];
+	}
+
+	/**
+	 *
+	 * @param i number of entry
+	 * @return retention index of i-th entry
+	 */
+	public float getRetention(int i) {
+		return retentions[i];
+	}
+
+	/**
+	 *
+	 * @param i number of entry
+	 * @return column of i-th entry
+	 */
+	public int getColumn(int i) {
+		return columns[i];
+	}
+
+	/**
+	 *
+	 * @param i number of entry
+	 * @return new RetentionsEntry for i-th entry
+	 */
+	public RetentionsEntry getEntry(int i) {
+		return RetentionsEntry.instance(dictionary[ids[i]], retentions[i], columns[i]);
+	}
+
+	/**
+	 * New data set with some entries of this data set. The dictionary contains
+	 * only compounds of the new data set (ids are renumbered).
+	 *
+	 * @param indices numbers of entries
+	 * @return new instance
+	 */
+	public CompactRetentionsDataset subset(int[] indices) {
+		CompactRetentionsDataset result = new CompactRetentionsDataset();
+		int[] newIds = new int[dictionary.length];
+		Arrays.fill(newIds, -1);
+		ArrayList<String> newDictionary = new ArrayList<String>();
+		String[] newInchiKeys = (inchiKeys == null) ? null : new String[dictionary.length];
+		result.ids = new int[indices.length];
+		result.retentions = new float[indices.length];
+		result.columns = new short[indices.length];
+		for (int i = 0; i < indices.length; i++) {
+			int id = ids[indices[i]];
+			if (newIds[id] == -1) {
+				newIds[id] = newDictionary.size();
+				if (newInchiKeys != null) {
+					newInchiKeys[newDictionary.size()] = inchiKeys[id];
+				}
+				newDictionary.add(dictionary[id]);
+			}
+			result.ids[i] = newIds[id];
+			result.retentions[i] = retentions[indices[i]];
+			result.columns[i] = columns[indices[i]];
+		}
+		result.dictionary = newDictionary.toArray(new String[newDictionary.size()]);
+		if (newInchiKeys != null) {
+			result.inchiKeys = Arrays.copyOf(newInchiKeys, result.dictionary.length);
+		}
+		return result;
+	}
+
+	private void setData(CompactRetentionsDataset d) {
+		this.dictionary = d.dictionary;
+		this.ids = d.ids;
+		this.retentions = d.retentions;
+		this.columns = d.columns;
+		this.inchiKeys = d.inchiKeys;
+		this.entriesByCompound = null;
+	}
+
+	private static void shuffle(int[] a, Random rnd) {
+		for (int i = a.length - 1; i > 0; i--) {
+			int j = rnd.nextInt(i + 1);
+			int b = a[j];
+			a[j] = a[i];
+			a[i] = b;
+		}
+	}
+
+	/**
+	 * Shuffle this data set. Change order of entries.
+	 */
+	public void shuffle() {
+		int[] order = Model.range(ids.length);
+		shuffle(order, new Random());
+		setData(subset(order));
+	}
+
+	/**
+	 * Entries grouped by compounds. The index is computed once and cached until
+	 * the data set is changed (shuffle, splits).
+	 *
+	 * @return int[numberOfCompounds()][], i-th element - numbers of all entries
+	 *         with compound id i in increasing order
+	 */
+	public int[][] groupByCompounds() {
+		if (entriesByCompound == null) {
+			int[] counts = new int[dictionary.length];
+			for (int id : ids) {
+				counts[id]++;
+			}
+			int[][] result = new int[dictionary.length][];
+			for (int id = 0; id < result.length; id++) {
+				result[id] = new int[counts[id]];
+			}
+			Arrays.fill(counts, 0);
+			for (int i = 0; i < ids.length; i++) {
+				result[ids[i]][counts[ids[i]]++] = i;
+			}
+			entriesByCompound = result;
+		}
+		return entriesByCompound;
+	}
+
+	/**
+	 *
+	 * @return HashSet of SMILES strings from this data set (see
+	 *         RetentionsDataset.compounds()).
+	 */
+	public HashSet<String> compounds() {
+		return new HashSet<String>(Arrays.asList(dictionary));
+	}
+
+	/**
+	 * InChI-keys are computed once per compound (not per entry) and cached.
+	 *
+	 * @return HashSet of InChI-key strings for compounds from this data set (see
+	 *         RetentionsDataset.inchiKeys()).
+	 * @throws CDKException CDK error
+	 */
+	public HashSet<String> inchiKeys() throws CDKException {
+		if (inchiKeys == null) {
+			String[] keys = new String[dictionary.length];
+			for (int id = 0; id < keys.length; id++) {
+				keys[id] = Chemoinformatics.smilesToInchiKey(dictionary[id]).trim();
+			}
+			inchiKeys = keys;
+		}
+		return new HashSet<String>(Arrays.asList(inchiKeys));
+	}
+
+	/**
+	 * Shuffle and split data set such way that all entries corresponding to any
+	 * compound will be contained in only one of subsets. The same as
+	 * RetentionsDataset.compoundsBasedSplitAndShuffle, but without string sets.
+	 *
+	 * @param compoundsToSplit number of COMPOUNDS (!!!not data entries!!!) which
+	 *                         will be separated to the subset.
+	 * @return subset which contains all data entries for compoundsToSplit compounds
+	 */
+	public CompactRetentionsDataset compoundsBasedSplitAndShuffle(int compoundsToSplit) {
+		Random rnd = new Random();
+		int[] compoundsOrder = Model.range(dictionary.length);
+		shuffle(compoundsOrder, rnd);
+		boolean[] split = new boolean[dictionary.length];
+		for (int i = 0; i < compoundsToSplit; i++) {
+			split[compoundsOrder[i]] = true;
+		}
+		int n = 0;
+		for (int id : ids) {
+			n += split[id] ? 1 : 0;
+		}
+		int[] splitIndices = new int[n];
+		int[] retainIndices = new int[ids.length - n];
+		int s = 0;
+		int r = 0;
+		for (int i = 0; i < ids.length; i++) {
+			if (split[ids[i]]) {
+				splitIndices[s++] = i;
+			} else {
+				retainIndices[r++] = i;
+			}
+		}
+		shuffle(splitIndices, rnd);
+		shuffle(retainIndices, rnd);
+		CompactRetentionsDataset result = subset(splitIndices);
+		setData(subset(retainIndices));
+		return result;
+	}
+
+	/**
+	 * The same as compoundsBasedSplitAndShuffle(int compoundsToSplit) but fraction
+	 * of compounds that should be separated is given instead number of compounds.
+	 *
+	 * @param fraction number of compounds which will be in split in all compounds
+	 * @return subset which contains all data entries for Math.round(fraction *
+	 *         ((float) numberOfCompounds())) compounds
+	 */
+	public CompactRetentionsDataset compoundsBasedSplitAndShuffle(float fraction) {
+		return compoundsBasedSplitAndShuffle(Math.round(fraction * ((float) dictionary.length)));
+	}
+
+	/**
+	 * See RetentionsDataset.meanByCompounds. SMILES strings are converted to
+	 * canonical form once per compound (not per entry), in parallel.
+	 *
+	 * @param stereochemistry if TRUE - cis/trans isomers and optical isomers will
+	 *                        be considered as different compounds.
+	 * @return RetentionsDataset that has one entry per compound. All column types
+	 *         will be -1.
+	 * @throws CDKException error during creation of canonical form.
+	 */
+	public RetentionsDataset meanByCompounds(boolean stereochemistry) throws CDKException {
+		return meanOrMedianByCompounds(stereochemistry, false);
+	}
+
+	/**
+	 * See RetentionsDataset.medianByCompounds. SMILES strings are converted to
+	 * canonical form once per compound (not per entry), in parallel.
+	 *
+	 * @param stereochemistry if TRUE - cis/trans isomers and optical isomers will
+	 *                        be considered as different compounds.
+	 * @return RetentionsDataset that has one entry per compound. All column types
+	 *         will be -1.
+	 * @throws CDKException error during creation of canonical form.
+	 */
+	public RetentionsDataset medianByCompounds(boolean stereochemistry) throws CDKException {
+		return meanOrMedianByCompounds(stereochemistry, true);
+	}
+
+	private RetentionsDataset meanOrMedianByCompounds(boolean stereochemistry, boolean median)
+			throws CDKException {
+		int[][] groups = groupByCompounds();
+		HashMap<String, ArrayList<Integer>> canonicalGroups = new HashMap<String, ArrayList<Integer>>();
+		Canonicalizer canonicalizer = Canonicalizer.instance();
+		canonicalizer.compute(Arrays.asList(dictionary), stereochemistry);
+		for (int id = 0; id < dictionary.length; id++) {
+			String canonical = canonicalizer.canonical(dictionary[id], stereochemistry);
+			ArrayList<Integer> c = canonicalGroups.get(canonical);
+			if (c == null) {
+				c = new ArrayList<Integer>();
+				canonicalGroups.put(canonical, c);
+			}
+			c.add(id);
+		}
+		ArrayList<RetentionsEntry> data = new ArrayList<RetentionsEntry>();
+		for (Entry<String, ArrayList<Integer>> e : canonicalGroups.entrySet()) {
+			int n = 0;
+			for (int id : e.getValue()) {
+				n += groups[id].length;
+			}
+			float[] r = new float[n];
+			n = 0;
+			for (int id : e.getValue()) {
+				for (int i : groups[id]) {
+					r[n++] = retentions[i];
+				}
+			}
+			float value = median ? RetentionsDataset.median(r) : RetentionsDataset.mean(r);
+			data.add(RetentionsEntry.instance(e.getKey(), value));
+		}
+		return RetentionsDataset.create(data);
+	}
+}
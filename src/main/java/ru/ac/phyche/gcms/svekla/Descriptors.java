@@ -6,6 +6,7 @@ import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map.Entry;
@@ -18,12 +19,15 @@ import org.openscience.cdk.exception.CDKException;
  * A molecular descriptors computation manager. This class calls method
  * descriptors from class Chemoinformatics. It allows to cache (store)
  * precomputed decriptors values for SMILES strings, save and load them, find
- * min and max value of a descriptor for a set of SMILES strings.
+ * min and max value of a descriptor for a set of SMILES strings. Precomputed
+ * descriptors can be stored in text file or in binary file. Binary file is
+ * memory-mapped and isn't loaded to heap (see saveToBinaryFile).
  *
  */
 public class Descriptors {
 
 	private HashMap<String, float[]> precomputed = null;
+	private DescriptorsBinaryStore store = null;
 	private boolean usePrecomputed = true;
 	private String[] descriptorsSet = null;
 	private float[] min = null;
@@ -74,9 +78,9 @@ public class Descriptors {
 			if (precomputed == null) {
 				throw new CDKException("No precomputed descriptors for this SMILES string!(1)");
 			}
-			float[] result = precomputed.get(smiles);
+			float[] result = getPrecomputed(smiles);
 			if (result == null) {
-				result = precomputed.get(Chemoinformatics.canonical(smiles, true));
+				result = getPrecomputed(Chemoinformatics.canonical(smiles, true));
 				if (result == null) {
 					throw new CDKException("No precomputed descriptors for this SMILES string!(2)");
 				}
@@ -85,6 +89,35 @@ public class Descriptors {
 		}
 	}
 
+	private float[] getPrecomputed(String smiles) {
+		float[] result = precomputed.get(smiles);
+		if ((result == null) && (store != null)) {
+			result = store.get(smiles);
+		}
+		return result;
+	}
+
+	/**
+	 * 
+	 * @return number of compounds with precomputed descriptors (both in heap and
+	 *         in memory-mapped binary file)
+	 */
+	public int precomputedSize() {
+		if (precomputed == null) {
+			return 0;
+		}
+		if (store == null) {
+			return precomputed.size();
+		}
+		int result = precomputed.size();
+		for (int i = 0; i < store.size(); i++) {
+			if (!precomputed.containsKey(store.key(i))) {
+				result++;
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * Precomputing of descriptors. Compute and store descriptors for set of SMILES
 	 * strings. This method computes descriptors in parallel, using parallelStream.
@@ -113,6 +146,10 @@ public class Descriptors {
 			d.smiles = smiles;
 			descriptors.add(d);
 		}
+		DescriptorsCalculator calculator = DescriptorsCalculator.getDefault();
+		HashMap<String, Long> timeouts = calculator.getTimeouts();
+		HashMap<String, Long> failures = calculator.getFailures();
+		long budgetExceeded = calculator.getBudgetExceeded();
 		try {
 			AtomicInteger i = new AtomicInteger(0);
 			descriptors.parallelStream().forEach(d -> {
@@ -133,6 +170,10 @@ public class Descriptors {
 		} catch (Throwable e) {
 			throw (new CDKException(e.getMessage()));
 		}
+		String statistics = calculator.statisticsSince(timeouts, failures, budgetExceeded);
+		if (!statistics.isEmpty()) {
+			System.out.println("Warning! Some descriptors were not computed. " + statistics);
+		}
 
 		if (recalculateMinMax) {
 			min = new float[descriptorsSet.length];
@@ -241,7 +282,7 @@ public class Descriptors {
 					"Only instance with precomputed descriptors can be saved to file"));
 		}
 		FileWriter fw = new FileWriter(filename);
-		fw.write(descriptorsSet.length + " " + precomputed.size() + " ");
+		fw.write(descriptorsSet.length + " " + precomputedSize() + " ");
 		for (int i = 0; i < descriptorsSet.length; i++) {
 			fw.write(this.descriptorsSet[i].trim() + " ");
 		}
@@ -252,6 +293,19 @@ public class Descriptors {
 			fw.write(this.max[i] + " ");
 		}
 		fw.write("\n");
+		if (store != null) {
+			for (int j = 0; j < store.size(); j++) {
+				String smiles = store.key(j);
+				if (!precomputed.containsKey(smiles)) {
+					fw.write(smiles + " ");
+					float[] d = store.row(j);
+					for (int i = 0; i < d.length; i++) {
+						fw.write(d[i] + " ");
+					}
+					fw.write("\n");
+				}
+			}
+		}
 		for (Entry<String, float[]> e : precomputed.entrySet()) {
 			fw.write(e.getKey() + " ");
 			float[] d = e.getValue();
@@ -263,16 +317,80 @@ public class Descriptors {
 		fw.close();
 	}
 
+	/**
+	 * Save all content of this instance to binary file. File format: header with
+	 * descriptor names and min and max values, SMILES strings sorted in ascending
+	 * order (key index) and float matrix with descriptors (one row per compound),
+	 * see DescriptorsBinaryStore class for details. The values already are scaled
+	 * to [0,1] as (value-min[i])/(max[i]-min[i]). readFromFile method reads both
+	 * text and binary files. Binary file is memory-mapped, descriptors are read
+	 * from it on demand (by get method) without loading the file to heap and
+	 * parsing.
+	 * 
+	 * @param filename file name
+	 * @throws IOException IO, only instance with precomputed descriptors can be
+	 *                     saved to file, instead - exception will be thrown.
+	 */
+	public void saveToBinaryFile(String filename) throws IOException {
+		if (!usePrecomputed) {
+			throw (new UnsupportedOperationException(
+					"Only instance with precomputed descriptors can be saved to file"));
+		}
+		ArrayList<String> smiles = new ArrayList<String>();
+		ArrayList<float[]> descriptors = new ArrayList<float[]>();
+		if (store != null) {
+			for (int j = 0; j < store.size(); j++) {
+				String s = store.key(j);
+				if (!precomputed.containsKey(s)) {
+					smiles.add(s);
+					descriptors.add(store.row(j));
+				}
+			}
+		}
+		for (Entry<String, float[]> e : precomputed.entrySet()) {
+			smiles.add(e.getKey());
+			descriptors.add(e.getValue());
+		}
+		DescriptorsBinaryStore.write(filename, descriptorsSet, min, max, smiles, descriptors);
+	}
+
+	/**
+	 * Convert text file (see saveToFile) to binary file (see saveToBinaryFile).
+	 * 
+	 * @param textFile   input text file name
+	 * @param binaryFile output binary file name
+	 * @throws IOException IO
+	 */
+	public static void convertToBinaryFile(String textFile, String binaryFile) throws IOException {
+		Descriptors d = readFromFile(textFile);
+		if (!d.usePrecomputed) {
+			DescriptorsBinaryStore.write(binaryFile, d.descriptorsSet, d.min, d.max, new ArrayList<String>(),
+					new ArrayList<float[]>());
+		} else {
+			d.saveToBinaryFile(binaryFile);
+		}
+	}
+
 	/**
 	 * Load new instance from file. If no precomputed compounds in file
 	 * usePrecomputed_ will be false, else will be true. File format described in
-	 * method saveToFile.
+	 * method saveToFile. Binary files (see saveToBinaryFile) are detected
+	 * automatically, they are memory-mapped instead of loading.
 	 * 
 	 * @param filename file name
 	 * @return new instance
 	 * @throws IOException IO
 	 */
 	public static Descriptors readFromFile(String filename) throws IOException {
+		if (DescriptorsBinaryStore.isBinaryFile(filename)) {
+			DescriptorsBinaryStore store = DescriptorsBinaryStore.open(filename);
+			Descriptors result = Descriptors.instance(store.getNames(), store.getMin(), store.getMax(),
+					(store.size() != 0));
+			if (store.size() != 0) {
+				result.store = store;
+			}
+			return result;
+		}
 		BufferedReader inp = new BufferedReader(new InputStreamReader(new FileInputStream(new File(filename))));
 		String s = inp.readLine();
 		String[] split = s.split("\\s+");
@@ -0,0 +1,307 @@
+package ru.ac.phyche.gcms.svekla;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Read-only binary file with precomputed molecular descriptors. The file is
+ * memory-mapped, descriptors are read directly from the file on request, so
+ * large files don't occupy heap. File format (big-endian): 8 bytes of MAGIC;
+ * int number of descriptors (nd); int number of compounds (n); nd descriptor
+ * names (int length of UTF-8 bytes, bytes); nd floats - min values; nd floats
+ * - max values; (n+1) longs - offsets of SMILES strings in the key block; key
+ * block - UTF-8 SMILES strings sorted (bytewise) in ascending order; zero
+ * padding to multiple of 8 bytes; n*nd floats - descriptors, one row per
+ * compound in the same order as SMILES strings. See Descriptors class.
+ *
+ */
+class DescriptorsBinaryStore {
+	static final byte[] MAGIC = "SVKDESC1".getBytes(StandardCharsets.US_ASCII);
+
+	private String[] names;
+	private float[] min;
+	private float[] max;
+	private int size;
+	private MappedByteBuffer index;
+	private long keysStart;
+	private MappedByteBuffer[] matrix;
+	private int rowsPerChunk;
+
+	String[] getNames() {
+		return names;
+	}
+
+	float[] getMin() {
+		return min;
+	}
+
+	float[] getMax() {
+		return max;
+	}
+
+	/**
+	 *
+	 * @return number of compounds
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 *
+	 * @param filename file name
+	 * @return true if the file starts with MAGIC
+	 * @throws IOException IO
+	 */
+	static boolean isBinaryFile(String filename) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(filename, "r");
+		try {
+			if (raf.length() < MAGIC.length) {
+				return false;
+			}
+			byte[] magic = new byte[MAGIC.length];
+			raf.readFully(magic);
+			return Arrays.equals(magic, MAGIC);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Open and map file.
+	 *
+	 * @param filename file name
+	 * @return new instance
+	 * @throws IOException IO, wrong format
+	 */
+	static DescriptorsBinaryStore open(String filename) throws IOException {
+		DescriptorsBinaryStore result = new DescriptorsBinaryStore();
+		RandomAccessFile raf = new RandomAccessFile(filename, "r");
+		try {
+			byte[] magic = new byte[MAGIC.length];
+			raf.readFully(magic);
+			if (!Arrays.equals(magic, MAGIC)) {
+				throw new IOException("Not a binary descriptors file: " + filename);
+			}
+			int nd = raf.readInt();
+			result.size = raf.readInt();
+			result.names = new String[nd];
+			result.min = new float[nd];
+			result.max = new float[nd];
+			for (int i = 0; i < nd; i++) {
+				byte[] b = new byte[raf.readInt()];
+				raf.readFully(b);
+				result.names[i] = new String(b, StandardCharsets.UTF_8);
+			}
+			for (int i = 0; i < nd; i++) {
+				result.min[i] = raf.readFloat();
+			}
+			for (int i = 0; i < nd; i++) {
+				result.max[i] = raf.readFloat();
+			}
+			long indexStart = raf.getFilePointer();
+			long offsetsLength = 8L * (result.size + 1);
+			raf.seek(indexStart + offsetsLength - 8);
+			long keysLength = raf.readLong();
+			long indexLength = offsetsLength + keysLength;
+			if (indexLength > Integer.MAX_VALUE) {
+				throw new IOException("Too many compounds in binary descriptors file: " + filename);
+			}
+			FileChannel channel = raf.getChannel();
+			result.index = channel.map(FileChannel.MapMode.READ_ONLY, indexStart, indexLength);
+			result.keysStart = offsetsLength;
+			long matrixStart = indexStart + indexLength;
+			matrixStart = matrixStart + padding(matrixStart);
+			if (matrixStart + 4L * nd * result.size > raf.length()) {
+				throw new IOException("Binary descriptors file is truncated: " + filename);
+			}
+			long rowBytes = 4L * Math.max(1, nd);
+			result.rowsPerChunk = (int) Math.max(1, Integer.MAX_VALUE / rowBytes);
+			int chunks = (result.size + result.rowsPerChunk - 1) / result.rowsPerChunk;
+			result.matrix = new MappedByteBuffer[chunks];
+			for (int c = 0; c < chunks; c++) {
+				long rows = Math.min(result.rowsPerChunk, result.size - ((long) c) * result.rowsPerChunk);
+				result.matrix[c] = channel.map(FileChannel.MapMode.READ_ONLY,
+						matrixStart + ((long) c) * result.rowsPerChunk * 4L * nd, rows * 4L * nd);
+			}
+		} finally {
+			raf.close();
+		}
+		return result;
+	}
+
+	private static int padding(long position) {
+		return (int) ((8 - position % 8) % 8);
+	}
+
+	private long offset(int i) {
+		return index.getLong(8 * i);
+	}
+
+	private int compare(int i, byte[] key) {
+		int start = (int) (keysStart + offset(i));
+		int length = (int) (offset(i + 1) - offset(i));
+		int n = Math.min(length, key.length);
+		for (int j = 0; j < n; j++) {
+			int c = (index.get(start + j) & 0xff) - (key[j] & 0xff);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return length - key.length;
+	}
+
+	private int find(String smiles) {
+		byte[] key = smiles.getBytes(StandardCharsets.UTF_8);
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int c = compare(mid, key);
+			if (c < 0) {
+				low = mid + 1;
+			} else if (c > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 *
+	 * @param i number of compound (in sorted order)
+	 * @return SMILES string
+	 */
+	String key(int i) {
+		int start = (int) (keysStart + offset(i));
+		byte[] b = new byte[(int) (offset(i + 1) - offset(i))];
+		for (int j = 0; j < b.length; j++) {
+			b[j] = index.get(start + j);
+		}
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 *
+	 * @param i number of compound (in sorted order)
+	 * @return descriptors (new array)
+	 */
+	float[] row(int i) {
+		int nd = names.length;
+		MappedByteBuffer chunk = matrix[i / rowsPerChunk];
+		int start = (i % rowsPerChunk) * 4 * nd;
+		float[] result = new float[nd];
+		for (int j = 0; j < nd; j++) {
+			result[j] = chunk.getFloat(start + 4 * j);
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 * @param smiles SMILES string
+	 * @return descriptors (new array) or null if the file doesn't contain this
+	 *         SMILES string
+	 */
+	float[] get(String smiles) {
+		int i = find(smiles);
+		return i < 0 ? null : row(i);
+	}
+
+	/**
+	 *
+	 * @param smiles SMILES string
+	 * @return true if the file contains this SMILES string
+	 */
+	boolean contains(String smiles) {
+		return find(smiles) >= 0;
+	}
+
+	/**
+	 * Write binary file.
+	 *
+	 * @param filename    file name
+	 * @param names       descriptor names
+	 * @param min         min values
+	 * @param max         max values
+	 * @param smiles      SMILES strings (any order, without duplicates)
+	 * @param descriptors descriptors[i] - descriptors for smiles.get(i)
+	 * @throws IOException IO
+	 */
+	static void write(String filename, String[] names, float[] min, float[] max, ArrayList<String> smiles,
+			ArrayList<float[]> descriptors) throws IOException {
+		int n = smiles.size();
+		byte[][] keys = new byte[n][];
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			keys[i] = smiles.get(i).getBytes(StandardCharsets.UTF_8);
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				byte[] x = keys[a];
+				byte[] y = keys[b];
+				int l = Math.min(x.length, y.length);
+				for (int j = 0; j < l; j++) {
+					int c = (x[j] & 0xff) - (y[j] & 0xff);
+					if (c != 0) {
+						return c;
+					}
+				}
+				return x.length - y.length;
+			}
+		});
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16));
+		try {
+			out.write(MAGIC);
+			out.writeInt(names.length);
+			out.writeInt(n);
+			for (String name : names) {
+				byte[] b = name.trim().getBytes(StandardCharsets.UTF_8);
+				out.writeInt(b.length);
+				out.write(b);
+			}
+			for (int i = 0; i < names.length; i++) {
+				out.writeFloat(min[i]);
+			}
+			for (int i = 0; i < names.length; i++) {
+				out.writeFloat(max[i]);
+			}
+			long offset = 0;
+			out.writeLong(offset);
+			for (int i = 0; i < n; i++) {
+				offset += keys[order[i]].length;
+				out.writeLong(offset);
+			}
+			for (int i = 0; i < n; i++) {
+				out.write(keys[order[i]]);
+			}
+			for (int i = padding(out.size() & 0xffffffffL); i > 0; i--) {
+				out.writeByte(0);
+			}
+			for (int i = 0; i < n; i++) {
+				float[] d = descriptors.get(order[i]);
+				if (d.length != names.length) {
+					throw new IOException("Wrong number of descriptors for " + smiles.get(order[i]));
+				}
+				for (int j = 0; j < d.length; j++) {
+					out.writeFloat(d[j]);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+}
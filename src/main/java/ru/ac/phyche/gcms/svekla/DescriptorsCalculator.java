@@ -0,0 +1,339 @@
+package ru.ac.phyche.gcms.svekla;
+
+import java.util.HashMap;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.qsar.DescriptorValue;
+import org.openscience.cdk.qsar.IMolecularDescriptor;
+
+/**
+ * Computes CDK molecular descriptors. All descriptors for one molecule are
+ * computed in one task in a bounded thread pool. Computation of each descriptor
+ * is limited with timeout, computation of all descriptors for one molecule is
+ * limited with time budget. If a descriptor exceeds the timeout, its task is
+ * cancelled and computation continues (with a copy of the molecule) from the
+ * next descriptor. If the time budget is exceeded, remaining descriptors are
+ * not computed. Timed out and failed descriptors are counted (per descriptor
+ * class). Chemoinformatics.descriptors uses the default instance (see
+ * getDefault and setDefault).
+ *
+ */
+public class DescriptorsCalculator {
+	/**
+	 * Default timeout for computation of one descriptor for one molecule,
+	 * milliseconds.
+	 */
+	public static final long DEFAULT_DESCRIPTOR_TIMEOUT = 1000;
+	/**
+	 * Default time budget for computation of all descriptors for one molecule,
+	 * milliseconds.
+	 */
+	public static final long DEFAULT_MOLECULE_BUDGET = 30000;
+
+	private static DescriptorsCalculator defaultInstance = instance(Runtime.getRuntime().availableProcessors(),
+			DEFAULT_DESCRIPTOR_TIMEOUT, DEFAULT_MOLECULE_BUDGET);
+
+	private ThreadPoolExecutor pool = null;
+	private int threads;
+	private int abandoned = 0;
+	private long descriptorTimeout;
+	private long moleculeBudget;
+	private ConcurrentHashMap<String, AtomicLong> timeouts = new ConcurrentHashMap<String, AtomicLong>();
+	private ConcurrentHashMap<String, AtomicLong> failures = new ConcurrentHashMap<String, AtomicLong>();
+	private AtomicLong budgetExceeded = new AtomicLong(0);
+
+	/**
+	 *
+	 * @param threads           number of threads in the pool
+	 * @param descriptorTimeout timeout for computation of one descriptor,
+	 *                          milliseconds
+	 * @param moleculeBudget    time budget for computation of all descriptors for
+	 *                          one molecule, milliseconds
+	 * @return new instance
+	 */
+	public static DescriptorsCalculator instance(int threads, long descriptorTimeout, long moleculeBudget) {
+		DescriptorsCalculator result = new DescriptorsCalculator();
+		result.threads = threads;
+		result.descriptorTimeout = descriptorTimeout;
+		result.moleculeBudget = moleculeBudget;
+		result.pool = Parallel.daemonPool(threads, "descriptors");
+		return result;
+	}
+
+	/**
+	 *
+	 * @return instance used by Chemoinformatics.descriptors
+	 */
+	public static DescriptorsCalculator getDefault() {
+		return defaultInstance;
+	}
+
+	/**
+	 *
+	 * @param calculator instance that will be used by Chemoinformatics.descriptors
+	 */
+	public static void setDefault(DescriptorsCalculator calculator) {
+		defaultInstance = calculator;
+	}
+
+	/**
+	 * Tasks which exceeded timeout are cancelled, but CDK descriptors typically
+	 * ignore interruption. Such tasks are abandoned and the pool is temporarily
+	 * extended by one thread for each of them.
+	 */
+	private synchronized void abandon(int delta) {
+		abandoned += delta;
+		int size = threads + abandoned;
+		if (size > pool.getMaximumPoolSize()) {
+			pool.setMaximumPoolSize(size);
+			pool.setCorePoolSize(size);
+		} else {
+			pool.setCorePoolSize(size);
+			pool.setMaximumPoolSize(size);
+		}
+	}
+
+	private static void increment(ConcurrentHashMap<String, AtomicLong> counters, IMolecularDescriptor md) {
+		counters.computeIfAbsent(md.getClass().getSimpleName(), k -> new AtomicLong(0)).incrementAndGet();
+	}
+
+	private class MoleculeTask implements Callable<Void> {
+		private final IAtomContainer mol;
+		private final IMolecularDescriptor[] descriptors;
+		private final DescriptorValue[] results;
+		private volatile int current;
+		private volatile long startTime;
+		private volatile long currentStart;
+		private volatile boolean started = false;
+		private volatile boolean abandoned = false;
+		private AtomicBoolean released = new AtomicBoolean(false);
+
+		private MoleculeTask(IAtomContainer mol, IMolecularDescriptor[] descriptors, int start) {
+			this.mol = mol;
+			this.descriptors = descriptors;
+			this.results = new DescriptorValue[descriptors.length];
+			this.current = start;
+		}
+
+		private void release() {
+			if (released.compareAndSet(false, true)) {
+				abandon(-1);
+			}
+		}
+
+		@Override
+		public Void call() {
+			startTime = System.nanoTime();
+			currentStart = startTime;
+			started = true;
+			try {
+				for (int i = current; i < descriptors.length; i++) {
+					if (abandoned) {
+						return null;
+					}
+					currentStart = System.nanoTime();
+					current = i;
+					try {
+						results[i] = descriptors[i].calculate(mol);
+					} catch (Throwable e) {
+						if (!abandoned) {
+							increment(failures, descriptors[i]);
+						}
+					}
+				}
+				current = descriptors.length;
+				return null;
+			} finally {
+				if (abandoned) {
+					release();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compute descriptors for a molecule.
+	 *
+	 * @param mol         molecule, see Chemoinformatics.smilesToAtomContainer
+	 * @param descriptors CDK descriptors
+	 * @return result[i] - value of descriptors[i] or null if computation failed or
+	 *         timeout or time budget are exceeded
+	 * @throws CDKException interruption of the calling thread
+	 */
+	public DescriptorValue[] calculate(IAtomContainer mol, IMolecularDescriptor[] descriptors) throws CDKException {
+		DescriptorValue[] result = new DescriptorValue[descriptors.length];
+		IAtomContainer copy = null;
+		try {
+			copy = mol.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new CDKException(e.getMessage());
+		}
+		long budgetNanos = TimeUnit.MILLISECONDS.toNanos(moleculeBudget);
+		long timeout = TimeUnit.MILLISECONDS.toNanos(descriptorTimeout);
+		long deadline = Long.MAX_VALUE;
+		int position = 0;
+		IAtomContainer m = mol;
+		while (position < descriptors.length) {
+			MoleculeTask task = new MoleculeTask(m, descriptors, position);
+			Future<Void> future = pool.submit(task);
+			boolean finished = false;
+			while (!finished) {
+				// time in the queue of the pool is not counted
+				if (task.started && (deadline == Long.MAX_VALUE)) {
+					deadline = task.startTime + budgetNanos;
+				}
+				long wait = task.started ? Math.min(task.currentStart + timeout, deadline) - System.nanoTime()
+						: timeout;
+				try {
+					future.get(Math.max(wait, 0), TimeUnit.NANOSECONDS);
+					finished = true;
+				} catch (InterruptedException e) {
+					future.cancel(true);
+					throw new CDKException(e.getMessage());
+				} catch (ExecutionException e) {
+					finished = true;
+				} catch (TimeoutException e) {
+					if (!task.started) {
+						continue;
+					}
+					long now = System.nanoTime();
+					int current = task.current;
+					boolean descriptorTimeout = (now - task.currentStart >= timeout);
+					boolean budget = (now >= deadline);
+					if ((descriptorTimeout || budget) && (current < descriptors.length) && (current == task.current)) {
+						task.abandoned = true;
+						abandon(1);
+						if (!future.cancel(true)) {
+							// task was finished meanwhile
+							task.release();
+						}
+						if (descriptorTimeout) {
+							increment(timeouts, descriptors[current]);
+						}
+						System.arraycopy(task.results, position, result, position, current - position);
+						if (budget) {
+							budgetExceeded.incrementAndGet();
+							position = descriptors.length;
+						} else {
+							position = current + 1;
+							m = copy;
+							try {
+								copy = copy.clone();
+							} catch (CloneNotSupportedException e1) {
+								throw new CDKException(e1.getMessage());
+							}
+						}
+						finished = true;
+						task = null;
+					}
+				}
+			}
+			if (task != null) {
+				System.arraycopy(task.results, position, result, position, descriptors.length - position);
+				position = descriptors.length;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 * @return descriptor class name (simple name) - number of timeouts
+	 */
+	public HashMap<String, Long> getTimeouts() {
+		return toHashMap(timeouts);
+	}
+
+	/**
+	 *
+	 * @return descriptor class name (simple name) - number of failures
+	 *         (exceptions)
+	 */
+	public HashMap<String, Long> getFailures() {
+		return toHashMap(failures);
+	}
+
+	/**
+	 *
+	 * @return number of molecules for which time budget was exceeded
+	 */
+	public long getBudgetExceeded() {
+		return budgetExceeded.get();
+	}
+
+	/**
+	 * Reset all counters of timeouts and failures
+	 */
+	public void resetCounters() {
+		timeouts.clear();
+		failures.clear();
+		budgetExceeded.set(0);
+	}
+
+	private static HashMap<String, Long> toHashMap(ConcurrentHashMap<String, AtomicLong> counters) {
+		HashMap<String, Long> result = new HashMap<String, Long>();
+		for (Entry<String, AtomicLong> e : counters.entrySet()) {
+			result.put(e.getKey(), e.getValue().get());
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 * @return string with timeouts and failures for each descriptor class
+	 */
+	public String statistics() {
+		String result = "Time budget exceeded: " + budgetExceeded.get();
+		for (Entry<String, Long> e : getTimeouts().entrySet()) {
+			result = result + " " + e.getKey() + " timeouts: " + e.getValue();
+		}
+		for (Entry<String, Long> e : getFailures().entrySet()) {
+			result = result + " " + e.getKey() + " failures: " + e.getValue();
+		}
+		return result;
+	}
+
+	/**
+	 * Timeouts and failures since the snapshot of counters (e.g. during one call
+	 * of Descriptors.precompute; calls from other threads at the same time are
+	 * counted too).
+	 *
+	 * @param timeouts0       getTimeouts() at the start
+	 * @param failures0       getFailures() at the start
+	 * @param budgetExceeded0 getBudgetExceeded() at the start
+	 * @return string with timeouts and failures for each descriptor class, empty
+	 *         string if nothing timed out or failed
+	 */
+	public String statisticsSince(HashMap<String, Long> timeouts0, HashMap<String, Long> failures0,
+			long budgetExceeded0) {
+		String result = "";
+		long exceeded = budgetExceeded.get() - budgetExceeded0;
+		if (exceeded != 0) {
+			result = "Time budget exceeded: " + exceeded;
+		}
+		for (Entry<String, Long> e : getTimeouts().entrySet()) {
+			long n = e.getValue() - timeouts0.getOrDefault(e.getKey(), 0L);
+			if (n != 0) {
+				result = result + " " + e.getKey() + " timeouts: " + n;
+			}
+		}
+		for (Entry<String, Long> e : getFailures().entrySet()) {
+			long n = e.getValue() - failures0.getOrDefault(e.getKey(), 0L);
+			if (n != 0) {
+				result = result + " " + e.getKey() + " failures: " + n;
+			}
+		}
+		return result.trim();
+	}
+}
@@ -0,0 +1,178 @@
+package ru.ac.phyche.gcms.svekla;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.qsar.DescriptorValue;
+import org.openscience.cdk.qsar.IDescriptor;
+import org.openscience.cdk.qsar.IMolecularDescriptor;
+import org.openscience.cdk.qsar.result.DoubleArrayResult;
+import org.openscience.cdk.qsar.result.DoubleResult;
+import org.openscience.cdk.qsar.result.IDescriptorResult;
+import org.openscience.cdk.qsar.result.IntegerArrayResult;
+import org.openscience.cdk.qsar.result.IntegerResult;
+
+/**
+ * Compiled plan of computation of a set of CDK descriptors (given by names). It
+ * is resolved once which CDK descriptors (IMolecularDescriptor instances) are
+ * required and which value of which descriptor corresponds to each name. Values
+ * are read from descriptor results numerically. Plans are cached, so compile
+ * method can be called for each molecule. See Chemoinformatics.descriptors.
+ *
+ */
+public class DescriptorsPlan {
+	private static final ConcurrentHashMap<List<String>, DescriptorsPlan> plans = new ConcurrentHashMap<List<String>, DescriptorsPlan>();
+
+	private String[] descriptorNames;
+	private IMolecularDescriptor[] required;
+	private int[] descriptorIndex;
+	private int[] valueIndex;
+
+	/**
+	 * Compile plan or return already compiled one.
+	 *
+	 * @param descriptorNames CDK descriptors names (such as "fragC", "C1SP1",
+	 *                        "C2SP1", "C1SP2" etc...).
+	 * @return plan
+	 */
+	public static DescriptorsPlan compile(String[] descriptorNames) {
+		DescriptorsPlan result = plans.get(Arrays.asList(descriptorNames));
+		if (result == null) {
+			String[] names = descriptorNames.clone();
+			result = plans.computeIfAbsent(Arrays.asList(names), k -> create(names));
+		}
+		return result;
+	}
+
+	private static DescriptorsPlan create(String[] descriptorNames) {
+		// if a name is provided by several descriptors, the last one is used
+		HashMap<String, Integer> nameToDescriptor = new HashMap<String, Integer>();
+		HashMap<String, Integer> nameToValue = new HashMap<String, Integer>();
+		List<IDescriptor> all = Chemoinformatics.descriptorList();
+		for (int i = 0; i < all.size(); i++) {
+			String[] names = ((IMolecularDescriptor) all.get(i)).getDescriptorNames();
+			for (int j = 0; j < names.length; j++) {
+				nameToDescriptor.put(names[j], i);
+				nameToValue.put(names[j], j);
+			}
+		}
+		DescriptorsPlan result = new DescriptorsPlan();
+		result.descriptorNames = descriptorNames;
+		result.descriptorIndex = new int[descriptorNames.length];
+		result.valueIndex = new int[descriptorNames.length];
+		boolean[] needed = new boolean[all.size()];
+		for (String name : descriptorNames) {
+			Integer d = nameToDescriptor.get(name);
+			if (d != null) {
+				needed[d] = true;
+			}
+		}
+		// the same order as in descriptors list
+		int[] requiredIndex = new int[all.size()];
+		ArrayList<IMolecularDescriptor> required = new ArrayList<IMolecularDescriptor>();
+		for (int i = 0; i < all.size(); i++) {
+			if (needed[i]) {
+				requiredIndex[i] = required.size();
+				required.add((IMolecularDescriptor) all.get(i));
+			}
+		}
+		for (int k = 0; k < descriptorNames.length; k++) {
+			Integer d = nameToDescriptor.get(descriptorNames[k]);
+			if (d == null) {
+				result.descriptorIndex[k] = -1;
+			} else {
+				result.descriptorIndex[k] = requiredIndex[d];
+				result.valueIndex[k] = nameToValue.get(descriptorNames[k]);
+			}
+		}
+		result.required = required.toArray(new IMolecularDescriptor[required.size()]);
+		return result;
+	}
+
+	/**
+	 *
+	 * @return CDK descriptors names
+	 */
+	public String[] getDescriptorNames() {
+		return descriptorNames.clone();
+	}
+
+	/**
+	 *
+	 * @return number of CDK descriptors (IMolecularDescriptor instances) which are
+	 *         computed by this plan
+	 */
+	public int requiredDescriptorsCount() {
+		return required.length;
+	}
+
+	private static float value(IDescriptorResult r, int j, String[] values) {
+		if (r instanceof DoubleResult) {
+			return j == 0 ? (float) ((DoubleResult) r).doubleValue() : Float.NaN;
+		}
+		if (r instanceof IntegerResult) {
+			return j == 0 ? (float) ((IntegerResult) r).intValue() : Float.NaN;
+		}
+		if (r instanceof DoubleArrayResult) {
+			DoubleArrayResult a = (DoubleArrayResult) r;
+			return j < a.length() ? (float) a.get(j) : Float.NaN;
+		}
+		if (r instanceof IntegerArrayResult) {
+			IntegerArrayResult a = (IntegerArrayResult) r;
+			return j < a.length() ? (float) a.get(j) : Float.NaN;
+		}
+		return j < values.length ? Float.parseFloat(values[j]) : Float.NaN;
+	}
+
+	/**
+	 * Compute descriptors for a molecule (see
+	 * Chemoinformatics.smilesToAtomContainer). Descriptors which can't be computed
+	 * (errors, timeouts, see DescriptorsCalculator), unknown names and infinite
+	 * values are NaN.
+	 *
+	 * @param mol molecule
+	 * @return float[descriptorNames.length] array with molecular descriptors
+	 * @throws CDKException CDK internal errors
+	 */
+	float[] compute(IAtomContainer mol) throws CDKException {
+		DescriptorValue[] dvs = DescriptorsCalculator.getDefault().calculate(mol, required);
+		IDescriptorResult[] results = new IDescriptorResult[dvs.length];
+		String[][] values = new String[dvs.length][];
+		for (int i = 0; i < dvs.length; i++) {
+			if (dvs[i] != null) {
+				results[i] = dvs[i].getValue();
+				if (!((results[i] instanceof DoubleResult) || (results[i] instanceof IntegerResult)
+						|| (results[i] instanceof DoubleArrayResult) || (results[i] instanceof IntegerArrayResult))) {
+					values[i] = results[i].toString().split(",");
+				}
+			}
+		}
+		float[] result = new float[descriptorNames.length];
+		for (int k = 0; k < result.length; k++) {
+			int d = descriptorIndex[k];
+			if ((d < 0) || (results[d] == null)) {
+				result[k] = Float.NaN;
+			} else {
+				float v = value(results[d], valueIndex[k], values[d]);
+				result[k] = Float.isInfinite(v) ? Float.NaN : v;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Compute descriptors for a molecule.
+	 *
+	 * @param smiles SMILES string
+	 * @return float[descriptorNames.length] array with molecular descriptors
+	 * @throws CDKException CDK internal errors, incorrect SMILES etc.
+	 */
+	public float[] compute(String smiles) throws CDKException {
+		return compute(Chemoinformatics.smilesToAtomContainer(smiles));
+	}
+}
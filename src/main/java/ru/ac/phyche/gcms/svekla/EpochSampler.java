@@ -0,0 +1,78 @@
+package ru.ac.phyche.gcms.svekla;
+
+import java.util.Random;
+
+/**
+ * Sampler of training batches. Each epoch is a random permutation of all
+ * entries of the training set, so each entry is used exactly once per epoch.
+ * The permutation is reshuffled at the beginning of each epoch. A batch which
+ * crosses the end of an epoch is completed with entries of the next epoch.
+ *
+ */
+public class EpochSampler {
+	private int[] permutation;
+	private int position = 0;
+	private int epoch = 0;
+	private Random rnd;
+
+	/**
+	 *
+	 * @param n    number of entries in the training set
+	 * @param seed random seed
+	 * @return new instance
+	 */
+	public static EpochSampler instance(int n, long seed) {
+		if (n <= 0) {
+			throw new RuntimeException("Empty training set");
+		}
+		EpochSampler result = new EpochSampler();
+		result.rnd = new Random(seed);
+		result.permutation = Model.range(n);
+		result.shuffle();
+		return result;
+	}
+
+	private void shuffle() {
+		for (int i = permutation.length - 1; i > 0; i--) {
+			int j = rnd.nextInt(i + 1);
+			int t = permutation[i];
+			permutation[i] = permutation[j];
+			permutation[j] = t;
+		}
+	}
+
+	/**
+	 *
+	 * @param batchSize batch size
+	 * @return numbers of the entries of the training set for the next batch
+	 */
+	public synchronized int[] nextBatch(int batchSize) {
+		int[] result = new int[batchSize];
+		for (int i = 0; i < batchSize; i++) {
+			if (position == permutation.length) {
+				position = 0;
+				epoch++;
+				shuffle();
+			}
+			result[i] = permutation[position];
+			position++;
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 * @return number of completed epochs
+	 */
+	public synchronized int getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 *
+	 * @return number of entries in the training set
+	 */
+	public int size() {
+		return permutation.length;
+	}
+}
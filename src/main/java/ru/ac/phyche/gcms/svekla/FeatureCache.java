@@ -0,0 +1,319 @@
+package ru.ac.phyche.gcms.svekla;
+
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+/**
+ * Memory-bounded cache of feature blocks (fingerprints of each type, functional
+ * groups, tokenized SMILES, 2D representation and depiction) with LRU (least
+ * recently used) eviction. Keys are SMILES strings as they are stored in data
+ * set, so data sets should be canonicalized (see
+ * RetentionsDataset.makeCanoncalAll) to avoid duplicates. One instance can be
+ * shared by multiple data sets (see RetentionsDataset.setFeatureCache) and
+ * threads. Memory usage is estimated from sizes of the stored arrays. Returned
+ * arrays are shared, don't modify them!
+ *
+ */
+public class FeatureCache {
+
+	/**
+	 * Cached feature blocks
+	 *
+	 */
+	public static enum Block {
+		FINGERPRINTS, FUNC_GROUPS, TOKENS, REPRESENTATION_2D, DEPICTION
+	};
+
+	private static class Key {
+		private final Block block;
+		private final Chemoinformatics.FingerprintsType type;
+		private final String smiles;
+
+		private Key(Block block, Chemoinformatics.FingerprintsType type, String smiles) {
+			this.block = block;
+			this.type = type;
+			this.smiles = smiles;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (31 * block.hashCode() + (type == null ? 0 : type.hashCode())) + smiles.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) o;
+			return (block == k.block) && (type == k.type) && smiles.equals(k.smiles);
+		}
+	}
+
+	private static class Value {
+		private final Object features;
+		private final long bytes;
+
+		private Value(Object features, long bytes) {
+			this.features = features;
+			this.bytes = bytes;
+		}
+	}
+
+	private final LinkedHashMap<Key, Value> map = new LinkedHashMap<Key, Value>(16, 0.75f, true);
+	private final EnumMap<Block, long[]> counters = new EnumMap<Block, long[]>(Block.class);
+	private long maxBytes;
+	private long bytes = 0;
+
+	/**
+	 *
+	 * @param maxBytes approximate upper bound of memory used by cached features
+	 *                 (bytes)
+	 * @return new empty cache
+	 */
+	public static FeatureCache instance(long maxBytes) {
+		FeatureCache result = new FeatureCache();
+		result.maxBytes = maxBytes;
+		for (Block b : Block.values()) {
+			result.counters.put(b, new long[2]);
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 * @param maxMegabytes approximate upper bound of memory used by cached
+	 *                     features (megabytes)
+	 * @return new empty cache
+	 */
+	public static FeatureCache instanceMegabytes(int maxMegabytes) {
+		return instance(((long) maxMegabytes) * 1024L * 1024L);
+	}
+
+	/**
+	 *
+	 * @param fraction approximate upper bound of memory used by cached features
+	 *                 as a fraction of the maximum heap size (see
+	 *                 Runtime.maxMemory())
+	 * @return new empty cache
+	 */
+	public static FeatureCache instanceHeapFraction(float fraction) {
+		return instance((long) (fraction * Runtime.getRuntime().maxMemory()));
+	}
+
+	private synchronized Object get(Block block, Chemoinformatics.FingerprintsType type, String smiles) {
+		Value v = map.get(new Key(block, type, smiles));
+		counters.get(block)[v == null ? 1 : 0]++;
+		return v == null ? null : v.features;
+	}
+
+	private synchronized void put(Block block, Chemoinformatics.FingerprintsType type, String smiles,
+			Object features, long size) {
+		long entryBytes = size + 2L * smiles.length() + 96L;
+		if (entryBytes > maxBytes) {
+			return;
+		}
+		Value old = map.put(new Key(block, type, smiles), new Value(features, entryBytes));
+		if (old != null) {
+			bytes -= old.bytes;
+		}
+		bytes += entryBytes;
+		Iterator<Entry<Key, Value>> it = map.entrySet().iterator();
+		while ((bytes > maxBytes) && it.hasNext()) {
+			bytes -= it.next().getValue().bytes;
+			it.remove();
+		}
+	}
+
+	private static long size(float[] a) {
+		return 16L + 4L * a.length;
+	}
+
+	private static long size(float[][] a) {
+		long result = 16L + 8L * a.length;
+		for (float[] x : a) {
+			result += size(x);
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 * @param t      fingerprints type
+	 * @param smiles SMILES string
+	 * @return cached fingerprints or null
+	 */
+	public float[] getFingerprints(Chemoinformatics.FingerprintsType t, String smiles) {
+		return (float[]) get(Block.FINGERPRINTS, t, smiles);
+	}
+
+	/**
+	 *
+	 * @param t            fingerprints type
+	 * @param smiles       SMILES string
+	 * @param fingerprints fingerprints (see Chemoinformatics.fingerprints)
+	 */
+	public void putFingerprints(Chemoinformatics.FingerprintsType t, String smiles, float[] fingerprints) {
+		put(Block.FINGERPRINTS, t, smiles, fingerprints, size(fingerprints));
+	}
+
+	/**
+	 *
+	 * @param smiles SMILES string
+	 * @return cached functional groups or null
+	 */
+	public float[] getFuncGroups(String smiles) {
+		return (float[]) get(Block.FUNC_GROUPS, null, smiles);
+	}
+
+	/**
+	 *
+	 * @param smiles     SMILES string
+	 * @param funcGroups functional groups (see Chemoinformatics.funcGroups)
+	 */
+	public void putFuncGroups(String smiles, float[] funcGroups) {
+		put(Block.FUNC_GROUPS, null, smiles, funcGroups, size(funcGroups));
+	}
+
+	/**
+	 *
+	 * @param smiles SMILES string
+	 * @return cached tokenized SMILES or null
+	 */
+	public int[] getTokens(String smiles) {
+		return (int[]) get(Block.TOKENS, null, smiles);
+	}
+
+	/**
+	 *
+	 * @param smiles SMILES string
+	 * @param tokens tokenized SMILES (see Chemoinformatics.tokenize)
+	 */
+	public void putTokens(String smiles, int[] tokens) {
+		put(Block.TOKENS, null, smiles, tokens, 16L + 4L * tokens.length);
+	}
+
+	/**
+	 *
+	 * @param smiles SMILES string
+	 * @return cached compact 2D representation or null
+	 */
+	public Representation2d getRepresentation2d(String smiles) {
+		return (Representation2d) get(Block.REPRESENTATION_2D, null, smiles);
+	}
+
+	/**
+	 *
+	 * @param smiles           SMILES string
+	 * @param representation2d compact 2D representation (see
+	 *                         Chemoinformatics.representation2dCompact)
+	 */
+	public void putRepresentation2d(String smiles, Representation2d representation2d) {
+		put(Block.REPRESENTATION_2D, null, smiles, representation2d, representation2d.bytes());
+	}
+
+	/**
+	 *
+	 * @param smiles SMILES string
+	 * @return cached depiction or null
+	 */
+	public float[][] getDepiction(String smiles) {
+		return (float[][]) get(Block.DEPICTION, null, smiles);
+	}
+
+	/**
+	 *
+	 * @param smiles    SMILES string
+	 * @param depiction depiction (see Chemoinformatics.depiction)
+	 */
+	public void putDepiction(String smiles, float[][] depiction) {
+		put(Block.DEPICTION, null, smiles, depiction, size(depiction));
+	}
+
+	/**
+	 *
+	 * @param b feature block
+	 * @return number of lookups of this block which found cached value
+	 */
+	public synchronized long getHits(Block b) {
+		return counters.get(b)[0];
+	}
+
+	/**
+	 *
+	 * @param b feature block
+	 * @return number of lookups of this block which didn't find cached value
+	 */
+	public synchronized long getMisses(Block b) {
+		return counters.get(b)[1];
+	}
+
+	/**
+	 *
+	 * @return number of cached feature blocks
+	 */
+	public synchronized int size() {
+		return map.size();
+	}
+
+	/**
+	 *
+	 * @return estimated memory used by cached features (bytes)
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 *
+	 * @return approximate upper bound of memory used by cached features (bytes)
+	 */
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Change memory bound. Least recently used features are evicted if required.
+	 *
+	 * @param maxBytes approximate upper bound of memory used by cached features
+	 *                 (bytes)
+	 */
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		Iterator<Entry<Key, Value>> it = map.entrySet().iterator();
+		while ((bytes > maxBytes) && it.hasNext()) {
+			bytes -= it.next().getValue().bytes;
+			it.remove();
+		}
+	}
+
+	/**
+	 * Remove all cached features and reset counters.
+	 */
+	public synchronized void clear() {
+		map.clear();
+		bytes = 0;
+		for (long[] c : counters.values()) {
+			c[0] = 0;
+			c[1] = 0;
+		}
+	}
+
+	/**
+	 *
+	 * @return string with cache size and hits/misses for each feature block
+	 */
+	public synchronized String statistics() {
+		String result = "Cached: " + map.size() + " Memory (MB): " + (bytes / (1024 * 1024)) + " of "
+				+ (maxBytes / (1024 * 1024));
+		for (Block b : Block.values()) {
+			long[] c = counters.get(b);
+			if (c[0] + c[1] > 0) {
+				result = result + " " + b + " hits: " + c[0] + " misses: " + c[1];
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,272 @@
+package ru.ac.phyche.gcms.svekla;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.interfaces.IAtomContainer;
+
+/**
+ * Featurization stage. It describes which feature blocks are required by a
+ * model (or by a group of models, see merge method) and computes them. Each
+ * SMILES string is parsed only once, all fingerprints, functional groups and 2D
+ * representation are computed from the same parsed molecule. Multiple molecules
+ * are processed in parallel using a bounded thread pool, which is shared by all
+ * instances and by other per-molecule computations (see setThreads). Molecular descriptors are computed with the
+ * descriptors generator (they are computed for SMILES with stereochemistry, so
+ * the parsed molecule can't be reused for them).
+ *
+ */
+public class Featurizer {
+
+	/**
+	 * Feature blocks (except fingerprints and descriptors, which are described by
+	 * fingerprints types and descriptors generators)
+	 *
+	 */
+	public static enum FeatureBlock {
+		TOKENS, FUNC_GROUPS, REPRESENTATION_2D
+	};
+
+	private EnumSet<FeatureBlock> blocks = EnumSet.noneOf(FeatureBlock.class);
+	private EnumSet<Chemoinformatics.FingerprintsType> fingerprints = EnumSet
+			.noneOf(Chemoinformatics.FingerprintsType.class);
+	private HashSet<Descriptors> descriptorsGenerators = new HashSet<Descriptors>();
+
+	/**
+	 * Set number of threads which are used for featurization. Featurization uses
+	 * the pool which is shared with other per-molecule computations
+	 * (canonicalization, InChI, see Parallel class). Default - number of available
+	 * processors.
+	 *
+	 * @param threads number of threads
+	 */
+	public static void setThreads(int threads) {
+		Parallel.setThreads(threads);
+	}
+
+	/**
+	 *
+	 * @return featurizer that computes nothing (use require... methods)
+	 */
+	public static Featurizer instance() {
+		return new Featurizer();
+	}
+
+	/**
+	 *
+	 * @param blocks_ required feature blocks
+	 * @return this instance
+	 */
+	public Featurizer require(FeatureBlock... blocks_) {
+		for (FeatureBlock b : blocks_) {
+			blocks.add(b);
+		}
+		return this;
+	}
+
+	/**
+	 *
+	 * @param types required fingerprints types
+	 * @return this instance
+	 */
+	public Featurizer requireFingerprints(Chemoinformatics.FingerprintsType... types) {
+		for (Chemoinformatics.FingerprintsType t : types) {
+			if (t != Chemoinformatics.FingerprintsType.NONE) {
+				fingerprints.add(t);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 *
+	 * @param descriptorsGenerator descriptors generator. Descriptors
+	 *                             (descriptorsGenerator.getNoNaNs) will be computed.
+	 *                             Can be null (nothing will be required).
+	 * @return this instance
+	 */
+	public Featurizer requireDescriptors(Descriptors descriptorsGenerator) {
+		if (descriptorsGenerator != null) {
+			descriptorsGenerators.add(descriptorsGenerator);
+		}
+		return this;
+	}
+
+	/**
+	 * Union of requirements of two featurizers (e.g. for multiple models).
+	 *
+	 * @param other other featurizer
+	 * @return this instance
+	 */
+	public Featurizer merge(Featurizer other) {
+		blocks.addAll(other.blocks);
+		fingerprints.addAll(other.fingerprints);
+		descriptorsGenerators.addAll(other.descriptorsGenerators);
+		return this;
+	}
+
+	/**
+	 *
+	 * @return true if nothing is required
+	 */
+	public boolean isEmpty() {
+		return blocks.isEmpty() && fingerprints.isEmpty() && descriptorsGenerators.isEmpty();
+	}
+
+	/**
+	 *
+	 * @param f precomputed features
+	 * @return true if f contains all feature blocks required by this featurizer.
+	 */
+	public boolean isComputed(MoleculeFeatures f) {
+		if (blocks.contains(FeatureBlock.TOKENS) && (f.getTokens() == null)) {
+			return false;
+		}
+		if (blocks.contains(FeatureBlock.FUNC_GROUPS) && (f.getFuncGroups() == null)) {
+			return false;
+		}
+		if (blocks.contains(FeatureBlock.REPRESENTATION_2D) && (f.getRepresentation2d() == null)) {
+			return false;
+		}
+		for (Chemoinformatics.FingerprintsType t : fingerprints) {
+			if (f.getFingerprints(t) == null) {
+				return false;
+			}
+		}
+		for (Descriptors d : descriptorsGenerators) {
+			if (f.getDescriptorsNoNaNs(d) == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Compute all required feature blocks for one molecule. SMILES string is
+	 * parsed once. Each feature block which alters the molecule gets its own copy
+	 * of the parsed molecule.
+	 *
+	 * @param smiles SMILES string
+	 * @return features
+	 * @throws CDKException CDK errors, incorrect SMILES, oversized molecules etc.
+	 */
+	public MoleculeFeatures compute(String smiles) throws CDKException {
+		return compute(smiles, null);
+	}
+
+	/**
+	 * Compute all required feature blocks for one molecule. Feature blocks which
+	 * are found in cache are not computed, computed ones are added to cache.
+	 * SMILES string is parsed once (if any of not cached blocks requires it).
+	 *
+	 * @param smiles SMILES string
+	 * @param cache  feature cache, can be null (no caching)
+	 * @return features
+	 * @throws CDKException CDK errors, incorrect SMILES, oversized molecules etc.
+	 */
+	public MoleculeFeatures compute(String smiles, FeatureCache cache) throws CDKException {
+		MoleculeFeatures result = new MoleculeFeatures();
+		if (cache != null) {
+			if (blocks.contains(FeatureBlock.TOKENS)) {
+				result.setTokens(cache.getTokens(smiles));
+			}
+			if (blocks.contains(FeatureBlock.FUNC_GROUPS)) {
+				result.setFuncGroups(cache.getFuncGroups(smiles));
+			}
+			if (blocks.contains(FeatureBlock.REPRESENTATION_2D)) {
+				result.setRepresentation2d(cache.getRepresentation2d(smiles));
+			}
+			for (Chemoinformatics.FingerprintsType t : fingerprints) {
+				float[] fp = cache.getFingerprints(t, smiles);
+				if (fp != null) {
+					result.setFingerprints(t, fp);
+				}
+			}
+		}
+		if (blocks.contains(FeatureBlock.TOKENS) && (result.getTokens() == null)) {
+			result.setTokens(Chemoinformatics.tokenize(smiles));
+			if (cache != null) {
+				cache.putTokens(smiles, result.getTokens());
+			}
+		}
+		boolean computeFuncGroups = blocks.contains(FeatureBlock.FUNC_GROUPS) && (result.getFuncGroups() == null);
+		boolean computeRepresentation2d = blocks.contains(FeatureBlock.REPRESENTATION_2D)
+				&& (result.getRepresentation2d() == null);
+		ArrayList<Chemoinformatics.FingerprintsType> computeFingerprints = new ArrayList<Chemoinformatics.FingerprintsType>();
+		for (Chemoinformatics.FingerprintsType t : fingerprints) {
+			if (result.getFingerprints(t) == null) {
+				computeFingerprints.add(t);
+			}
+		}
+		int molecules = computeFingerprints.size() + (computeFuncGroups ? 1 : 0) + (computeRepresentation2d ? 1 : 0);
+		if (molecules > 0) {
+			IAtomContainer mol = Chemoinformatics.smilesToAtomContainer(smiles);
+			for (Chemoinformatics.FingerprintsType t : computeFingerprints) {
+				molecules--;
+				result.setFingerprints(t, Chemoinformatics.fingerprints(molecules == 0 ? mol : copy(mol), t));
+				if (cache != null) {
+					cache.putFingerprints(t, smiles, result.getFingerprints(t));
+				}
+			}
+			if (computeRepresentation2d) {
+				molecules--;
+				result.setRepresentation2d(Chemoinformatics.representation2dCompact(molecules == 0 ? mol : copy(mol), smiles));
+				if (cache != null) {
+					cache.putRepresentation2d(smiles, result.getRepresentation2d());
+				}
+			}
+			if (computeFuncGroups) {
+				result.setFuncGroups(Chemoinformatics.funcGroups(mol));
+				if (cache != null) {
+					cache.putFuncGroups(smiles, result.getFuncGroups());
+				}
+			}
+		}
+		for (Descriptors d : descriptorsGenerators) {
+			result.setDescriptorsNoNaNs(d, d.getNoNaNs(smiles));
+		}
+		return result;
+	}
+
+	/**
+	 * Compute all required feature blocks for multiple molecules in parallel.
+	 *
+	 * @param smiles SMILES strings
+	 * @return SMILES string - features
+	 * @throws CDKException CDK errors, incorrect SMILES, oversized molecules etc.
+	 *                      (for any of molecules)
+	 */
+	public HashMap<String, MoleculeFeatures> computeAll(Collection<String> smiles) throws CDKException {
+		return computeAll(smiles, null);
+	}
+
+	/**
+	 * Compute all required feature blocks for multiple molecules in parallel. See
+	 * compute(smiles, cache).
+	 *
+	 * @param smiles SMILES strings
+	 * @param cache  feature cache, can be null (no caching)
+	 * @return SMILES string - features
+	 * @throws CDKException CDK errors, incorrect SMILES, oversized molecules etc.
+	 *                      (for any of molecules)
+	 */
+	public HashMap<String, MoleculeFeatures> computeAll(Collection<String> smiles, FeatureCache cache)
+			throws CDKException {
+		if (isEmpty() || smiles.isEmpty()) {
+			return new HashMap<String, MoleculeFeatures>();
+		}
+		return Parallel.computeAll(smiles, s -> compute(s, cache));
+	}
+
+	private static IAtomContainer copy(IAtomContainer mol) throws CDKException {
+		try {
+			return mol.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new CDKException(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,190 @@
+package ru.ac.phyche.gcms.svekla;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openscience.cdk.exception.CDKException;
+
+/**
+ * Identity index: SMILES string - InChI and InChI-key. These values are used by
+ * InChI-based overlap and filter operations of RetentionsDataset
+ * (countIdenticalByInchi, countIdenticalByInchikeys, filterIdenticalByInchi,
+ * inchiIds, inchiKeys). Canonical SMILES strings are not stored here, see
+ * Canonicalizer. Each value is computed once per SMILES string, missing values
+ * are computed in parallel (see compute).
+ * RetentionsDataset creates an index on first use, data sets created from it
+ * (copy, subset, splits) share the index. The index can be shared by multiple
+ * data sets (see RetentionsDataset.setIdentityIndex) and stored in a file (see
+ * open and save).
+ *
+ * File format (big-endian): 8 bytes of MAGIC; int number of entries; entries:
+ * SMILES, InChI, InChI-key (UTF).
+ *
+ */
+public class IdentityIndex {
+	static final byte[] MAGIC = "SVKIDX02".getBytes(StandardCharsets.US_ASCII);
+
+	private static final int INCHI = 0;
+	private static final int INCHI_KEY = 1;
+
+	private String filename = null;
+	private ConcurrentHashMap<String, String[]> map = new ConcurrentHashMap<String, String[]>();
+	private volatile boolean modified = false;
+
+	private IdentityIndex() {
+	}
+
+	/**
+	 *
+	 * @return new empty index (not stored in a file)
+	 */
+	public static IdentityIndex instance() {
+		return new IdentityIndex();
+	}
+
+	/**
+	 * Open index file. If the file doesn't exist, the index is empty. The file is
+	 * written by save().
+	 *
+	 * @param filename file name
+	 * @return new instance
+	 * @throws IOException IO, wrong format
+	 */
+	public static IdentityIndex open(String filename) throws IOException {
+		IdentityIndex result = new IdentityIndex();
+		result.filename = filename;
+		if (!(new File(filename)).exists()) {
+			return result;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
+		try {
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			if (!Arrays.equals(magic, MAGIC)) {
+				if (new String(magic, StandardCharsets.US_ASCII).startsWith("SVKIDX")) {
+					System.out.println("Identity index " + filename + " has other version. Ignored.");
+					return result;
+				}
+				throw new IOException("Not an identity index file: " + filename);
+			}
+			int n = in.readInt();
+			for (int i = 0; i < n; i++) {
+				String smiles = in.readUTF();
+				result.map.put(smiles, new String[] { in.readUTF(), in.readUTF() });
+			}
+		} finally {
+			in.close();
+		}
+		return result;
+	}
+
+	private static String[] identifiers(String smiles) throws CDKException {
+		return new String[] { Chemoinformatics.smilesToInchi(smiles).trim(),
+				Chemoinformatics.smilesToInchiKey(smiles).trim() };
+	}
+
+	/**
+	 * Compute (in parallel, see Parallel class) identifiers for all SMILES strings
+	 * which are not in the index yet.
+	 *
+	 * @param smiles SMILES strings
+	 * @throws CDKException CDK errors for any of compounds
+	 */
+	public void compute(Collection<String> smiles) throws CDKException {
+		ArrayList<String> missing = new ArrayList<String>();
+		for (String s : new HashSet<String>(smiles)) {
+			if (!map.containsKey(s)) {
+				missing.add(s);
+			}
+		}
+		if (missing.isEmpty()) {
+			return;
+		}
+		map.putAll(Parallel.computeAll(missing, IdentityIndex::identifiers));
+		modified = true;
+	}
+
+	private String get(String smiles, int i) throws CDKException {
+		String[] result = map.get(smiles);
+		if (result == null) {
+			result = identifiers(smiles);
+			map.put(smiles, result);
+			modified = true;
+		}
+		return result[i];
+	}
+
+	/**
+	 *
+	 * @param smiles SMILES string
+	 * @return InChI string
+	 * @throws CDKException CDK error
+	 */
+	public String getInchi(String smiles) throws CDKException {
+		return get(smiles, INCHI);
+	}
+
+	/**
+	 *
+	 * @param smiles SMILES string
+	 * @return InChI-key
+	 * @throws CDKException CDK error
+	 */
+	public String getInchiKey(String smiles) throws CDKException {
+		return get(smiles, INCHI_KEY);
+	}
+
+	/**
+	 *
+	 * @return number of SMILES strings in the index
+	 */
+	public int size() {
+		return map.size();
+	}
+
+	/**
+	 * Write the index to the file (if the index was opened from a file and
+	 * something was added since opening or the previous save). A temporary file
+	 * is written first and then renamed.
+	 *
+	 * @throws IOException IO
+	 */
+	public synchronized void save() throws IOException {
+		if ((filename == null) || (!modified)) {
+			return;
+		}
+		modified = false;
+		File tmp = new File(filename + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.write(MAGIC);
+			ArrayList<Map.Entry<String, String[]>> entries = new ArrayList<Map.Entry<String, String[]>>(
+					map.entrySet());
+			out.writeInt(entries.size());
+			for (Map.Entry<String, String[]> e : entries) {
+				out.writeUTF(e.getKey());
+				for (String s : e.getValue()) {
+					out.writeUTF(s);
+				}
+			}
+		} finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), new File(filename).toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+}
@@ -102,4 +102,11 @@ public class MLPFromDescriptorsAndFingerprints extends NeuralNetModel {
 		INDArray fingerprintsINDArray = Nd4j.create(fingerprints);
 		return new INDArray[] { descriptorsINDArray, fingerprintsINDArray };
 	}
+
+	@Override
+	public Featurizer featurizer() {
+		return Featurizer.instance().require(Featurizer.FeatureBlock.FUNC_GROUPS)
+				.requireFingerprints(Chemoinformatics.FingerprintsType.ADDITIVE_CIRCULAR_4_1024_NO_SCALE)
+				.requireDescriptors(getDescriptorsGenerator());
+	}
 }
@@ -1,6 +1,5 @@
 package ru.ac.phyche.gcms.svekla;
 
-import java.io.FileWriter;
 import java.io.IOException;
 
 import org.openscience.cdk.exception.CDKException;
@@ -35,6 +34,126 @@ public abstract class Model {
 	 */
 	public abstract float predictRI(RetentionsDataset dataSet, int entry) throws CDKException;
 
+	/**
+	 * Default number of entries which are predicted together (in one batch) by
+	 * predictRI(dataSet, indices) and predictAll(dataSet) methods.
+	 */
+	public static final int PREDICTION_BATCH_SIZE = 256;
+
+	/**
+	 * Number of entries which are predicted together (in one batch) by
+	 * predictRI(dataSet, indices) and predictAll(dataSet) methods. Models with
+	 * large input features (e.g. 2D CNN) use smaller batches.
+	 * 
+	 * @return batch size for prediction
+	 */
+	public int getPredictionBatchSize() {
+		return PREDICTION_BATCH_SIZE;
+	}
+
+	/**
+	 * Feature blocks which are required by this model (see Featurizer class). They
+	 * are computed in parallel for each batch before predictBatch(...) call. The
+	 * default implementation requires nothing.
+	 * 
+	 * @return featurizer
+	 */
+	public Featurizer featurizer() {
+		return Featurizer.instance();
+	}
+
+	/**
+	 * 
+	 * @param n length
+	 * @return array {0, 1, ..., n-1}
+	 */
+	protected static int[] range(int n) {
+		int[] result = new int[n];
+		for (int i = 0; i < n; i++) {
+			result[i] = i;
+		}
+		return result;
+	}
+
+	/**
+	 * Subset of data set with precomputed features (see featurizer() method and
+	 * RetentionsDataset.precomputeFeatures). i-th entry of the result is
+	 * indices[i]-th entry of the data set.
+	 * 
+	 * @param dataSet data set
+	 * @param indices numbers of the entries in the data set
+	 * @return new data set with precomputed features
+	 * @throws CDKException CDK errors during featurization
+	 */
+	protected RetentionsDataset featurizedSubset(RetentionsDataset dataSet, int[] indices) throws CDKException {
+		RetentionsDataset result = dataSet.subset(indices);
+		result.precomputeFeatures(featurizer());
+		return result;
+	}
+
+	/**
+	 * Predict retention index values for one batch of entries from a data set. The
+	 * default implementation calls predictRI(dataSet, entry) for each entry.
+	 * Models that can predict multiple entries at once (neural networks, XGBoost,
+	 * etc.) override this method. The length of indices array never exceeds
+	 * getPredictionBatchSize().
+	 * 
+	 * @param dataSet data set that contains the entries for which retention index
+	 *                should be predicted.
+	 * @param indices numbers of the entries in the data set
+	 * @return predicted retention index values, result[i] corresponds to
+	 *         indices[i]
+	 * @throws CDKException CDK
+	 */
+	protected float[] predictBatch(RetentionsDataset dataSet, int[] indices) throws CDKException {
+		float[] result = new float[indices.length];
+		for (int i = 0; i < indices.length; i++) {
+			result[i] = predictRI(dataSet, indices[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Predict retention index values for multiple entries from a data set. Entries
+	 * are split into batches of getPredictionBatchSize() entries, features for each
+	 * batch are computed in parallel (see featurizer() method), then each batch is
+	 * predicted at once.
+	 * 
+	 * @param dataSet data set that contains the entries for which retention index
+	 *                should be predicted.
+	 * @param indices numbers of the entries in the data set
+	 * @return predicted retention index values, result[i] corresponds to
+	 *         indices[i]
+	 * @throws CDKException CDK
+	 */
+	public float[] predictRI(RetentionsDataset dataSet, int[] indices) throws CDKException {
+		float[] result = new float[indices.length];
+		int batchSize = Math.max(1, getPredictionBatchSize());
+		boolean featurize = !featurizer().isEmpty();
+		for (int start = 0; start < indices.length; start += batchSize) {
+			int end = Math.min(indices.length, start + batchSize);
+			int[] batch = new int[end - start];
+			System.arraycopy(indices, start, batch, 0, batch.length);
+			float[] predicted = featurize ? predictBatch(featurizedSubset(dataSet, batch), range(batch.length))
+					: predictBatch(dataSet, batch);
+			System.arraycopy(predicted, 0, result, start, predicted.length);
+		}
+		return result;
+	}
+
+	/**
+	 * Predict retention index values for all entries of a data set. See
+	 * predictRI(dataSet, indices).
+	 * 
+	 * @param dataSet data set
+	 * @return predicted retention index values, result[i] corresponds to i-th
+	 *         entry of the data set
+	 * @throws CDKException CDK
+	 */
+	public float[] predictAll(RetentionsDataset dataSet) throws CDKException {
+		return predictRI(dataSet, range(dataSet.size()));
+	}
+
 	/**
 	 * Save the trained model to file. It saves only parameters of model (in
 	 * Deeplearning4j or XGBoost file format). It doesn't save any metadata,
@@ -209,53 +328,58 @@ public abstract class Model {
 	}
 
 	/**
-	 * Make prediction using this model for all entries from test data set.
-	 * Calculate model accuracy (MAE, RMSE, MPE, MdAE, MdPE) for this model.
+	 * Make prediction using this model for all entries from test data set. All
+	 * accuracy measures (see ValidationReport) are computed from these
+	 * predictions, so the test set is predicted only once.
 	 * 
 	 * @param test            test data set
 	 * @param predictionsFile name of file to which predictions will be saved. Can
 	 *                        be null!
-	 * @return A string with accuracy measures. E.g. "RMSE: 192.06718 MAE: 34.59384
-	 *         MPE: 2.159631 MdAE: 17.081543 MdPE: 1.1565123"
+	 * @return validation report
 	 * @throws CDKException Chemoinformatics exception
 	 * @throws IOException  IO
 	 */
-	public String validate(RetentionsDataset test, String predictionsFile) throws CDKException, IOException {
-		boolean makePred = false;
-		FileWriter pred = null;
+	public ValidationReport validationReport(RetentionsDataset test, String predictionsFile)
+			throws CDKException, IOException {
+		ValidationReport result = ValidationReport.instance(test, predictAll(test));
 		if (predictionsFile != null) {
 			if (!predictionsFile.trim().equals("")) {
-				makePred = true;
-				pred = new FileWriter(predictionsFile);
+				result.writePredictions(predictionsFile);
 			}
 		}
+		return result;
+	}
 
-		int j = 0;
-		float[] deviations = new float[test.size()];
-		float[] percentageErrors = new float[test.size()];
-		while (j < test.size()) {
-			float testretention = test.getRetention(j);
-			float retentionOut = predictRI(test, j);
-			deviations[j] = Math.abs(testretention - retentionOut);
-			percentageErrors[j] = Math.abs(100 * (testretention - retentionOut) / testretention);
-			if (makePred) {
-				pred.write(test.getSmiles(j) + " " + testretention + " " + retentionOut + "\n");
-			}
-			j++;
-		}
-		if (makePred) {
-			pred.close();
-		}
-		float rmse = 0.0F;
-		for (int qj = 0; qj < test.size(); qj++) {
-			rmse += deviations[qj] * deviations[qj];
-		}
-		rmse = (float) Math.sqrt(rmse / test.size());
+	/**
+	 * Make prediction using this model for all entries from test data set.
+	 * Calculate model accuracy (MAE, RMSE, MPE, MdAE, MdPE) for this model.
+	 * 
+	 * @param test            test data set
+	 * @param predictionsFile name of file to which predictions will be saved. Can
+	 *                        be null!
+	 * @return accuracy measures
+	 * @throws CDKException Chemoinformatics exception
+	 * @throws IOException  IO
+	 */
+	public ValidationMetrics validationMetrics(RetentionsDataset test, String predictionsFile)
+			throws CDKException, IOException {
+		return validationReport(test, predictionsFile).getMetrics();
+	}
 
-		String metrics = "RMSE: " + rmse + " MAE: " + RetentionsDataset.mean(deviations) + " MPE: "
-				+ RetentionsDataset.mean(percentageErrors) + " MdAE: " + RetentionsDataset.median(deviations)
-				+ " MdPE: " + RetentionsDataset.median(percentageErrors);
-		return (metrics);
+	/**
+	 * Make prediction using this model for all entries from test data set.
+	 * Calculate model accuracy (MAE, RMSE, MPE, MdAE, MdPE) for this model.
+	 * 
+	 * @param test            test data set
+	 * @param predictionsFile name of file to which predictions will be saved. Can
+	 *                        be null!
+	 * @return A string with accuracy measures. E.g. "RMSE: 192.06718 MAE: 34.59384
+	 *         MPE: 2.159631 MdAE: 17.081543 MdPE: 1.1565123"
+	 * @throws CDKException Chemoinformatics exception
+	 * @throws IOException  IO
+	 */
+	public String validate(RetentionsDataset test, String predictionsFile) throws CDKException, IOException {
+		return validationReport(test, predictionsFile).toString();
 	}
 
 	/**
@@ -266,7 +390,7 @@ public abstract class Model {
 	 * @throws IOException  IO
 	 */
 	public float mae(RetentionsDataset test) throws CDKException, IOException {
-		return Float.parseFloat(validate(test, null).split("\\s+")[3]);
+		return validationMetrics(test, null).getMae();
 	}
 
 	/**
@@ -277,7 +401,7 @@ public abstract class Model {
 	 * @throws IOException  IO
 	 */
 	public float mdae(RetentionsDataset test) throws CDKException, IOException {
-		return Float.parseFloat(validate(test, null).split("\\s+")[7]);
+		return validationMetrics(test, null).getMdae();
 	}
 
 	/**
@@ -288,7 +412,7 @@ public abstract class Model {
 	 * @throws IOException  IO
 	 */
 	public float rmse(RetentionsDataset test) throws CDKException, IOException {
-		return Float.parseFloat(validate(test, null).split("\\s+")[1]);
+		return validationMetrics(test, null).getRmse();
 	}
 
 	/**
@@ -299,7 +423,7 @@ public abstract class Model {
 	 * @throws IOException  IO
 	 */
 	public float mpe(RetentionsDataset test) throws CDKException, IOException {
-		return Float.parseFloat(validate(test, null).split("\\s+")[5]);
+		return validationMetrics(test, null).getMpe();
 	}
 
 	/**
@@ -310,7 +434,7 @@ public abstract class Model {
 	 * @throws IOException  IO
 	 */
 	public float mdpe(RetentionsDataset test) throws CDKException, IOException {
-		return Float.parseFloat(validate(test, null).split("\\s+")[9]);
+		return validationMetrics(test, null).getMdpe();
 	}
 
 	/**
@@ -0,0 +1,102 @@
+package ru.ac.phyche.gcms.svekla;
+
+import java.util.HashMap;
+
+/**
+ * Precomputed input features (feature blocks) for one molecule: tokenized
+ * SMILES, fingerprints, functional groups, 2D representation and molecular
+ * descriptors. Instances are created by Featurizer class. Any of the blocks can
+ * be absent (null). Returned arrays are shared, don't modify them!
+ *
+ */
+public class MoleculeFeatures {
+	private int[] tokens = null;
+	private HashMap<Chemoinformatics.FingerprintsType, float[]> fingerprints = new HashMap<Chemoinformatics.FingerprintsType, float[]>();
+	private float[] funcGroups = null;
+	private Representation2d representation2d = null;
+	private HashMap<Descriptors, float[]> descriptorsNoNaNs = new HashMap<Descriptors, float[]>();
+
+	/**
+	 *
+	 * @return tokenized SMILES (see Chemoinformatics.tokenize) or null
+	 */
+	public int[] getTokens() {
+		return tokens;
+	}
+
+	/**
+	 *
+	 * @param t fingerprints type
+	 * @return fingerprints (see Chemoinformatics.fingerprints) or null
+	 */
+	public float[] getFingerprints(Chemoinformatics.FingerprintsType t) {
+		return fingerprints.get(t);
+	}
+
+	/**
+	 *
+	 * @return functional groups (see Chemoinformatics.funcGroups) or null
+	 */
+	public float[] getFuncGroups() {
+		return funcGroups;
+	}
+
+	/**
+	 *
+	 * @return compact 2D representation (see
+	 *         Chemoinformatics.representation2dCompact) or null
+	 */
+	public Representation2d getRepresentation2d() {
+		return representation2d;
+	}
+
+	/**
+	 *
+	 * @param descriptorsGenerator descriptors generator
+	 * @return descriptorsGenerator.getNoNaNs(smiles) or null if descriptors were
+	 *         not computed with this generator.
+	 */
+	public float[] getDescriptorsNoNaNs(Descriptors descriptorsGenerator) {
+		return descriptorsNoNaNs.get(descriptorsGenerator);
+	}
+
+	void setTokens(int[] tokens) {
+		this.tokens = tokens;
+	}
+
+	void setFingerprints(Chemoinformatics.FingerprintsType t, float[] fingerprints) {
+		this.fingerprints.put(t, fingerprints);
+	}
+
+	void setFuncGroups(float[] funcGroups) {
+		this.funcGroups = funcGroups;
+	}
+
+	void setRepresentation2d(Representation2d representation2d) {
+		this.representation2d = representation2d;
+	}
+
+	void setDescriptorsNoNaNs(Descriptors descriptorsGenerator, float[] descriptors) {
+		this.descriptorsNoNaNs.put(descriptorsGenerator, descriptors);
+	}
+
+	/**
+	 * Add all feature blocks from other instance (for the same molecule) to this
+	 * instance.
+	 *
+	 * @param other other instance
+	 */
+	void merge(MoleculeFeatures other) {
+		if (other.tokens != null) {
+			this.tokens = other.tokens;
+		}
+		if (other.funcGroups != null) {
+			this.funcGroups = other.funcGroups;
+		}
+		if (other.representation2d != null) {
+			this.representation2d = other.representation2d;
+		}
+		this.fingerprints.putAll(other.fingerprints);
+		this.descriptorsNoNaNs.putAll(other.descriptorsNoNaNs);
+	}
+}
@@ -3,6 +3,10 @@ package ru.ac.phyche.gcms.svekla;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.nd4j.linalg.api.ndarray.INDArray;
@@ -17,18 +21,51 @@ import org.openscience.cdk.exception.CDKException;
  */
 public abstract class NeuralNetModel extends Model {
 
-	private int exampleNow = 0;
 	private ComputationGraph nn = null;
+	private EpochSampler sampler = null;
+	private RetentionsDataset sampledTrainSet = null;
+	private BatchPrefetcher prefetcher = null;
+	private int prefetchQueueDepth = 2;
+	private int prefetchWorkers = 2;
+	private boolean asyncValidation = true;
+	private static final Random rnd = new Random();
 
 	/**
 	 * Initializes neural network (create ComputationGraph)
 	 */
 	public abstract void initNN();
 
+	/**
+	 * Input features for some data set entries grouped to the batch. The same as
+	 * nextBatchInput(...), but the arrays may be taken from a pool of the model:
+	 * they are returned to the model with releaseBatchInput(...) after use
+	 * (training on the batch, see BatchPrefetcher, or prediction). The returned
+	 * arrays are not reused until they are released, so batches can be prepared
+	 * by multiple threads. The default implementation calls nextBatchInput(...),
+	 * which creates new arrays for each call.
+	 * 
+	 * @param dataSet a data set
+	 * @param indices indices of entries in the data set
+	 * @return batch input for ComputationGraph with multiple inputs
+	 * @throws CDKException CDK
+	 */
+	protected INDArray[] prefetchBatchInput(RetentionsDataset dataSet, int[] indices) throws CDKException {
+		return nextBatchInput(dataSet, indices);
+	}
+
+	/**
+	 * Input arrays created by prefetchBatchInput(...) are not used anymore and can
+	 * be reused. The default implementation does nothing.
+	 * 
+	 * @param input batch input
+	 */
+	protected void releaseBatchInput(INDArray[] input) {
+	}
+
 	/**
 	 * Input features for some data set entries grouped to the batch. If indices[]
 	 * is {3,4,5} - input batch for 3-th, 4-th and 5-th entry from array will be
-	 * created.
+	 * created. The returned arrays are new, they are owned by the caller.
 	 * 
 	 * @param dataSet a data set
 	 * @param indices indices of entries in the data set for which the batch should
@@ -56,10 +93,30 @@ public abstract class NeuralNetModel extends Model {
 		this.nn = nn;
 	}
 
+	/**
+	 * If true, feature blocks required by this model (see featurizer()) are
+	 * computed once for all compounds of training and validation sets during
+	 * initialization (see RetentionsDataset.precomputeFeatures), batches reuse
+	 * them. It is reasonable for compact features only. Default - false.
+	 * 
+	 * @return true if features should be precomputed
+	 */
+	protected boolean precomputeTrainingFeatures() {
+		return false;
+	}
+
+	private void precomputeIfRequired() throws CDKException {
+		if (precomputeTrainingFeatures()) {
+			getTrainSet().precomputeFeatures(featurizer());
+			getValidationSet().precomputeFeatures(featurizer());
+		}
+	}
+
 	@Override
 	public void init(RetentionsDataset trainSet_, float validationFraction) throws CDKException {
 		super.init(trainSet_, validationFraction);
 		this.initNN();
+		precomputeIfRequired();
 	}
 
 	@Override
@@ -67,6 +124,7 @@ public abstract class NeuralNetModel extends Model {
 			throws CDKException {
 		super.init(trainSet_, validationFraction, descriptorsGenerator_);
 		this.initNN();
+		precomputeIfRequired();
 	}
 
 	@Override
@@ -74,29 +132,99 @@ public abstract class NeuralNetModel extends Model {
 			throws CDKException {
 		super.init(trainSet_, validationSet_, descriptorsGenerator_);
 		this.initNN();
+		precomputeIfRequired();
 	}
 
 	@Override
 	public float predictRI(RetentionsDataset dataSet, int entry) throws CDKException {
-		return 1000F * nn.output(this.nextBatchInput(dataSet, new int[] { entry }))[0].toFloatVector()[0];
+		return predictBatch(dataSet, new int[] { entry })[0];
 	}
 
-	private int nextTrainSample() {
-		if (this.exampleNow < this.getTrainSet().size() - 1) {
-			this.exampleNow = this.exampleNow + 1;
-			return this.exampleNow - 1;
-		} else {
-			this.exampleNow = 0;
-			return (getTrainSet().size() - 1);
+	@Override
+	protected float[] predictBatch(RetentionsDataset dataSet, int[] indices) throws CDKException {
+		if (indices.length == 0) {
+			return new float[0];
+		}
+		INDArray[] input = this.prefetchBatchInput(dataSet, indices);
+		float[] result;
+		try {
+			result = nn.output(input)[0].reshape(indices.length).toFloatVector();
+		} finally {
+			releaseBatchInput(input);
 		}
+		for (int i = 0; i < result.length; i++) {
+			result[i] = 1000F * result[i];
+		}
+		return result;
 	}
 
-	private int[] nextTrainBatch(int batchSize) {
-		int[] result = new int[batchSize];
-		for (int i = 0; i < batchSize; i++) {
-			result[i] = nextTrainSample();
+	/**
+	 * Training batches are prepared by background threads while the network is
+	 * trained on the current batch (see BatchPrefetcher). Default: queue depth 2,
+	 * 2 worker threads.
+	 * 
+	 * @param queueDepth number of batches prepared in advance. 0 - no prefetching
+	 *                   (batches are prepared in the training thread).
+	 * @param workers    number of worker threads
+	 */
+	public void setPrefetch(int queueDepth, int workers) {
+		stopPrefetching();
+		this.prefetchQueueDepth = queueDepth;
+		this.prefetchWorkers = workers;
+	}
+
+	/**
+	 * If true (default), periodic validation during training
+	 * (trainMultipleIterations) is performed by a background thread using a
+	 * snapshot of the network parameters, so training doesn't wait for it (see
+	 * ValidationEvaluator).
+	 * 
+	 * @param asyncValidation asynchronous validation
+	 */
+	public void setAsyncValidation(boolean asyncValidation) {
+		this.asyncValidation = asyncValidation;
+	}
+
+	/**
+	 * Stop background preparation of training batches. It is restarted by the
+	 * next training iteration.
+	 */
+	public void stopPrefetching() {
+		if (prefetcher != null) {
+			prefetcher.close();
+			prefetcher = null;
 		}
-		return result;
+	}
+
+	/**
+	 * Sampler for the current training set. Each epoch is a new random permutation
+	 * of the training set (see EpochSampler).
+	 */
+	private EpochSampler sampler() {
+		if ((sampler == null) || (sampler.size() != getTrainSet().size()) || (sampledTrainSet != getTrainSet())) {
+			stopPrefetching();
+			sampler = EpochSampler.instance(getTrainSet().size(), rnd.nextLong());
+			sampledTrainSet = getTrainSet();
+		}
+		return sampler;
+	}
+
+	private int[] nextTrainBatch(int batchSize) {
+		return sampler().nextBatch(batchSize);
+	}
+
+	/**
+	 * Featurization of a training batch and creation of input arrays (see
+	 * prefetchBatchInput) and labels.
+	 * 
+	 * @param batch numbers of entries of the training set
+	 * @return batch for training
+	 * @throws CDKException CDK (while feature creation)
+	 */
+	MultiDataSet prepareTrainBatch(int[] batch) throws CDKException {
+		INDArray[] input = this.prefetchBatchInput(featurizedSubset(getTrainSet(), batch), range(batch.length));
+		INDArray[] retentions = new INDArray[] { Nd4j.create(retentions(batch)) };
+		return new MultiDataSet(input, retentions);
 	}
 
 	private float[][] retentions(int[] indices) {
@@ -116,15 +244,22 @@ public abstract class NeuralNetModel extends Model {
 	 * @throws CDKException e
 	 */
 	public void trainOneIteration(boolean printScore, int batchSize) throws CDKException {
-		int[] batch = nextTrainBatch(batchSize);
-		INDArray[] input = this.nextBatchInput(getTrainSet(), batch);
-		INDArray[] retentions = new INDArray[] { Nd4j.create(retentions(batch)) };
-
-		MultiDataSet batch0 = new MultiDataSet(input, retentions);
+		MultiDataSet batch0 = null;
+		if (prefetchQueueDepth > 0) {
+			EpochSampler s = sampler();
+			if ((prefetcher == null) || (prefetcher.getBatchSize() != batchSize) || (prefetcher.getSampler() != s)) {
+				stopPrefetching();
+				prefetcher = BatchPrefetcher.instance(this, s, batchSize, prefetchQueueDepth, prefetchWorkers);
+			}
+			batch0 = prefetcher.next();
+		} else {
+			batch0 = prepareTrainBatch(nextTrainBatch(batchSize));
+		}
 		nn.fit(batch0);
 		if (printScore) {
 			System.out.println("Score: " + nn.score(batch0));
 		}
+		releaseBatchInput(batch0.getFeatures());
 	}
 
 	/**
@@ -162,24 +297,40 @@ public abstract class NeuralNetModel extends Model {
 		if (trainingLogFile != null) {
 			log = new FileWriter(trainingLogFile);
 		}
-		for (int i = 0; i < n; i++) {
-			trainOneIteration(i % k == 0, batchSize);
-			if (i % m == 0) {
-				System.gc();
-				String validationString = this.validate(getValidationSet(), null);
-				float mae = this.mae(validationString);
-				if (mae < bestResult) {
-					bestResult = mae;
-					bestI = i;
-					if (bestModelFileName != null) {
-						nn.save(new File(bestModelFileName), false);
+		ValidationEvaluator evaluator = ValidationEvaluator.instance(this, getValidationSet());
+		ArrayDeque<PendingValidation> pending = new ArrayDeque<PendingValidation>();
+		try {
+			for (int i = 0; i < n; i++) {
+				trainOneIteration(i % k == 0, batchSize);
+				if (i % m == 0) {
+					if (asyncValidation) {
+						ComputationGraph snapshot = nn.clone();
+						pending.add(new PendingValidation(i, snapshot, evaluator.submit(snapshot)));
+					} else {
+						pending.add(new PendingValidation(i, nn, null));
 					}
 				}
-				System.out.println("Training iteration " + i + " ; Accuracy: " + validationString);
-				if (log != null) {
-					log.write("Training iteration " + i + " ; Accuracy: " + validationString + "\n");
+				// at most one evaluation runs while training continues, all of them are
+				// completed after the last iteration
+				while ((!pending.isEmpty()) && ((pending.size() > 1) || (i == n - 1) || pending.peek().isDone())) {
+					PendingValidation p = pending.poll();
+					ValidationMetrics metrics = p.metrics(evaluator);
+					if (metrics.getMae() < bestResult) {
+						bestResult = metrics.getMae();
+						bestI = p.iteration;
+						if (bestModelFileName != null) {
+							p.nn.save(new File(bestModelFileName), false);
+						}
+					}
+					System.out.println("Training iteration " + p.iteration + " ; Accuracy: " + metrics);
+					if (log != null) {
+						log.write("Training iteration " + p.iteration + " ; Accuracy: " + metrics + "\n");
+					}
 				}
 			}
+		} finally {
+			stopPrefetching();
+			evaluator.close();
 		}
 		if (bestModelFileName != null) {
 			if (loadBest) {
@@ -192,6 +343,42 @@ public abstract class NeuralNetModel extends Model {
 		return bestI;
 	}
 
+	/**
+	 * Validation requested at some training iteration. If future is null, the
+	 * network is evaluated synchronously.
+	 */
+	private static class PendingValidation {
+		private final int iteration;
+		private final ComputationGraph nn;
+		private final Future<ValidationMetrics> future;
+
+		private PendingValidation(int iteration, ComputationGraph nn, Future<ValidationMetrics> future) {
+			this.iteration = iteration;
+			this.nn = nn;
+			this.future = future;
+		}
+
+		private boolean isDone() {
+			return (future == null) || future.isDone();
+		}
+
+		private ValidationMetrics metrics(ValidationEvaluator evaluator) throws CDKException {
+			if (future == null) {
+				return evaluator.evaluate(nn);
+			}
+			try {
+				return future.get();
+			} catch (InterruptedException e) {
+				throw new CDKException(e.getMessage());
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof CDKException) {
+					throw (CDKException) e.getCause();
+				}
+				throw new CDKException(e.getCause().getMessage());
+			}
+		}
+	}
+
 	@Override
 	public void save(String filename) throws IOException {
 		nn.save(new File(filename), false);
@@ -0,0 +1,144 @@
+package ru.ac.phyche.gcms.svekla;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.openscience.cdk.exception.CDKException;
+
+/**
+ * Thread pools. daemonPool creates a bounded pool of daemon threads (threads
+ * are stopped after 60 s of idleness), it is used for pools with a specific
+ * purpose (cross-validation folds, tuning, prefetching etc.). Short
+ * per-molecule tasks (featurization, canonicalization, InChI, parsing of data
+ * set files) are executed by one shared pool (see computeAll and submit), so
+ * they don't oversubscribe processors when they run together. Tasks executed
+ * by the shared pool which themselves call computeAll are computed in the
+ * calling thread (no deadlock of the bounded pool).
+ *
+ */
+final class Parallel {
+	/**
+	 * Task which computes a value for a key
+	 *
+	 * @param <K> key type
+	 * @param <V> value type
+	 */
+	static interface Task<K, V> {
+		V compute(K key) throws Exception;
+	}
+
+	private static final ThreadLocal<Boolean> sharedWorker = new ThreadLocal<Boolean>();
+	private static final ThreadPoolExecutor shared = daemonPool(Runtime.getRuntime().availableProcessors(),
+			"svekla-worker", true);
+
+	private Parallel() {
+	}
+
+	private static ThreadPoolExecutor daemonPool(int threads, String name, boolean markShared) {
+		int n = Math.max(1, threads);
+		ThreadPoolExecutor result = new ThreadPoolExecutor(n, n, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), r -> {
+					Thread t = new Thread(markShared ? () -> {
+						sharedWorker.set(Boolean.TRUE);
+						r.run();
+					} : r, name);
+					t.setDaemon(true);
+					return t;
+				});
+		result.allowCoreThreadTimeOut(true);
+		return result;
+	}
+
+	/**
+	 * Bounded pool of daemon threads. Threads are stopped after 60 s of idleness.
+	 *
+	 * @param threads number of threads (at least 1)
+	 * @param name    name of threads
+	 * @return new pool
+	 */
+	static ThreadPoolExecutor daemonPool(int threads, String name) {
+		return daemonPool(threads, name, false);
+	}
+
+	/**
+	 * Set number of threads of the shared pool. Default - number of available
+	 * processors.
+	 *
+	 * @param threads number of threads
+	 */
+	static void setThreads(int threads) {
+		if (threads > shared.getMaximumPoolSize()) {
+			shared.setMaximumPoolSize(threads);
+			shared.setCorePoolSize(threads);
+		} else {
+			shared.setCorePoolSize(threads);
+			shared.setMaximumPoolSize(threads);
+		}
+	}
+
+	/**
+	 * Submit task to the shared pool.
+	 *
+	 * @param <V>  result type
+	 * @param task task
+	 * @return future
+	 */
+	static <V> Future<V> submit(Callable<V> task) {
+		return shared.submit(task);
+	}
+
+	/**
+	 * Compute values for all distinct keys in parallel using the shared pool.
+	 *
+	 * @param <K>  key type
+	 * @param <V>  value type
+	 * @param keys keys (duplicates are computed once)
+	 * @param task computation of a value
+	 * @return key - value
+	 * @throws CDKException error for any of keys (other exceptions are wrapped)
+	 */
+	static <K, V> HashMap<K, V> computeAll(Collection<K> keys, Task<K, V> task) throws CDKException {
+		HashMap<K, V> result = new HashMap<K, V>();
+		ArrayList<K> distinct = new ArrayList<K>(new LinkedHashSet<K>(keys));
+		if ((distinct.size() == 1) || Boolean.TRUE.equals(sharedWorker.get())) {
+			for (K k : distinct) {
+				try {
+					result.put(k, task.compute(k));
+				} catch (CDKException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new CDKException(e.getMessage());
+				}
+			}
+			return result;
+		}
+		ArrayList<Future<V>> futures = new ArrayList<Future<V>>();
+		for (K k : distinct) {
+			futures.add(shared.submit(() -> task.compute(k)));
+		}
+		try {
+			for (int i = 0; i < distinct.size(); i++) {
+				result.put(distinct.get(i), futures.get(i).get());
+			}
+		} catch (InterruptedException e) {
+			throw new CDKException(e.getMessage());
+		} catch (ExecutionException e) {
+			for (Future<V> f : futures) {
+				f.cancel(false);
+			}
+			if (e.getCause() instanceof CDKException) {
+				throw (CDKException) e.getCause();
+			}
+			throw new CDKException(e.getCause().getMessage());
+		}
+		return result;
+	}
+}
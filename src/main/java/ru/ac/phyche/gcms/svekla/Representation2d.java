@@ -0,0 +1,180 @@
+package ru.ac.phyche.gcms.svekla;
+
+import java.util.Arrays;
+
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.openscience.cdk.exception.CDKException;
+
+/**
+ * Compact (sparse) form of 2D representation of molecule for 2D-CNN (see
+ * Chemoinformatics.representation2d). Only non-zero cells of [29][130][130]
+ * array are stored: flat indices (channel*130*130 + x*130 + y, sorted) and
+ * values (numbers of atoms or bonds in the cell). A typical molecule gives tens
+ * or hundreds of non-zero cells instead of 490k floats. Instances are
+ * immutable.
+ *
+ */
+public class Representation2d {
+	/**
+	 * Number of channels (26 types of atoms and 3 types of bonds)
+	 */
+	public static final int CHANNELS = 29;
+	/**
+	 * Spatial dimensions: SIZE*SIZE cells
+	 */
+	public static final int SIZE = 130;
+	/**
+	 * Number of cells in dense representation: CHANNELS*SIZE*SIZE
+	 */
+	public static final int LENGTH = CHANNELS * SIZE * SIZE;
+
+	private int[] indices;
+	private float[] values;
+
+	/**
+	 * Each atom or bond gives 1 to the cell [channels[i]][x[i]][y[i]].
+	 *
+	 * @param channels channels (types of atoms and bonds)
+	 * @param x        first spatial coordinates
+	 * @param y        second spatial coordinates
+	 * @param smiles   SMILES string of the molecule (used for error messages)
+	 * @return new instance
+	 * @throws CDKException oversized molecules (coordinates out of the square)
+	 */
+	static Representation2d create(int[] channels, int[] x, int[] y, String smiles) throws CDKException {
+		int[] flat = new int[channels.length];
+		for (int i = 0; i < flat.length; i++) {
+			if ((channels[i] < 0) || (channels[i] >= CHANNELS) || (x[i] < 0) || (x[i] >= SIZE) || (y[i] < 0)
+					|| (y[i] >= SIZE)) {
+				throw new CDKException("Oversized 2D-representation of molecule " + smiles + " " + channels[i] + " "
+						+ x[i] + " " + y[i]);
+			}
+			flat[i] = (channels[i] * SIZE + x[i]) * SIZE + y[i];
+		}
+		Arrays.sort(flat);
+		int n = 0;
+		for (int i = 0; i < flat.length; i++) {
+			if ((i == 0) || (flat[i] != flat[i - 1])) {
+				n++;
+			}
+		}
+		Representation2d result = new Representation2d();
+		result.indices = new int[n];
+		result.values = new float[n];
+		int j = -1;
+		for (int i = 0; i < flat.length; i++) {
+			if ((i == 0) || (flat[i] != flat[i - 1])) {
+				j++;
+				result.indices[j] = flat[i];
+			}
+			result.values[j] += 1;
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 * @param dense [29][130][130] array (see Chemoinformatics.representation2d)
+	 * @return compact form
+	 */
+	public static Representation2d fromDense(float[][][] dense) {
+		int n = 0;
+		for (int c = 0; c < CHANNELS; c++) {
+			for (int x = 0; x < SIZE; x++) {
+				for (int y = 0; y < SIZE; y++) {
+					if (dense[c][x][y] != 0) {
+						n++;
+					}
+				}
+			}
+		}
+		Representation2d result = new Representation2d();
+		result.indices = new int[n];
+		result.values = new float[n];
+		int j = 0;
+		for (int c = 0; c < CHANNELS; c++) {
+			for (int x = 0; x < SIZE; x++) {
+				for (int y = 0; y < SIZE; y++) {
+					if (dense[c][x][y] != 0) {
+						result.indices[j] = (c * SIZE + x) * SIZE + y;
+						result.values[j] = dense[c][x][y];
+						j++;
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 * @return [29][130][130] array (see Chemoinformatics.representation2d)
+	 */
+	public float[][][] toDense() {
+		float[][][] result = new float[CHANNELS][SIZE][SIZE];
+		for (int i = 0; i < indices.length; i++) {
+			int c = indices[i] / (SIZE * SIZE);
+			int x = (indices[i] / SIZE) % SIZE;
+			int y = indices[i] % SIZE;
+			result[c][x][y] = values[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Write non-zero cells to a buffer which contains zeros (for example, buffer
+	 * of zero-filled c-ordered INDArray with shape [n][29][130][130]).
+	 *
+	 * @param buffer buffer
+	 * @param offset position of the first cell in the buffer (for example,
+	 *               i*LENGTH for i-th entry of a batch)
+	 */
+	public void scatter(DataBuffer buffer, long offset) {
+		for (int i = 0; i < indices.length; i++) {
+			buffer.put(offset + indices[i], values[i]);
+		}
+	}
+
+	/**
+	 * Write zeros to the non-zero cells of this representation, i.e. undo
+	 * scatter(buffer, offset).
+	 *
+	 * @param buffer buffer
+	 * @param offset position of the first cell in the buffer
+	 */
+	public void clear(DataBuffer buffer, long offset) {
+		for (int i = 0; i < indices.length; i++) {
+			buffer.put(offset + indices[i], 0.0F);
+		}
+	}
+
+	/**
+	 *
+	 * @return number of non-zero cells
+	 */
+	public int nonZeros() {
+		return indices.length;
+	}
+
+	/**
+	 *
+	 * @return estimated memory used by this instance (bytes)
+	 */
+	public long bytes() {
+		return 48L + 8L * indices.length;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof Representation2d)) {
+			return false;
+		}
+		Representation2d other = (Representation2d) o;
+		return Arrays.equals(indices, other.indices) && Arrays.equals(values, other.values);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Arrays.hashCode(indices) + Arrays.hashCode(values);
+	}
+}
@@ -1,17 +1,23 @@
 package ru.ac.phyche.gcms.svekla;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map.Entry;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
 
 import org.openscience.cdk.exception.CDKException;
 
@@ -23,7 +29,14 @@ import org.openscience.cdk.exception.CDKException;
  */
 public class RetentionsDataset {
 
+	private static final byte[] GZIP_MAGIC = new byte[] { (byte) 0x1f, (byte) 0x8b };
+	private static final int PARSE_CHUNK = 1 << 14;
+
 	private RetentionsEntry[] data;
+	private HashMap<String, MoleculeFeatures> precomputedFeatures = null;
+	private FeatureCache featureCache = null;
+	private IdentityIndex identityIndex = null;
+	private Canonicalizer canonicalizer = null;
 
 	/**
 	 * 
@@ -122,6 +135,180 @@ public class RetentionsDataset {
 		return result;
 	}
 
+	/**
+	 * New data set with some entries of this data set. Entries are not copied (the
+	 * same RetentionsEntry instances are used). Precomputed features (see
+	 * precomputeFeatures method) for these entries and feature cache are available
+	 * in the new data set too.
+	 * 
+	 * @param indices numbers of entries
+	 * @return new instance
+	 */
+	public RetentionsDataset subset(int[] indices) {
+		RetentionsDataset result = new RetentionsDataset();
+		result.data = new RetentionsEntry[indices.length];
+		for (int i = 0; i < indices.length; i++) {
+			result.data[i] = this.data[indices[i]];
+		}
+		result.featureCache = this.featureCache;
+		result.identityIndex = this.identityIndex;
+		result.canonicalizer = this.canonicalizer;
+		if (this.precomputedFeatures != null) {
+			result.precomputedFeatures = new HashMap<String, MoleculeFeatures>();
+			for (RetentionsEntry e : result.data) {
+				MoleculeFeatures f = this.precomputedFeatures.get(e.getSmiles());
+				if (f != null) {
+					result.precomputedFeatures.put(e.getSmiles(), f);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Compute (in parallel) and store in this instance all feature blocks required
+	 * by featurizer for all compounds of this data set. After it fingerprints(...),
+	 * funcGroups(...), representation2d(...), tokens(...), descriptors(...)
+	 * methods return precomputed values. Features which are already precomputed are
+	 * not computed again. Feature cache (see setFeatureCache) is used if it is set.
+	 * See Featurizer class and Model.featurizer() method.
+	 * 
+	 * @param featurizer featurizer
+	 * @throws CDKException CDK errors for any of compounds
+	 */
+	public void precomputeFeatures(Featurizer featurizer) throws CDKException {
+		if (featurizer.isEmpty()) {
+			return;
+		}
+		if (precomputedFeatures == null) {
+			precomputedFeatures = new HashMap<String, MoleculeFeatures>();
+		}
+		HashSet<String> missing = new HashSet<String>();
+		for (RetentionsEntry e : data) {
+			MoleculeFeatures f = precomputedFeatures.get(e.getSmiles());
+			if ((f == null) || (!featurizer.isComputed(f))) {
+				missing.add(e.getSmiles());
+			}
+		}
+		HashMap<String, MoleculeFeatures> computed = featurizer.computeAll(missing, featureCache);
+		for (Entry<String, MoleculeFeatures> e : computed.entrySet()) {
+			MoleculeFeatures f = precomputedFeatures.get(e.getKey());
+			if (f == null) {
+				precomputedFeatures.put(e.getKey(), e.getValue());
+			} else {
+				f.merge(e.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Remove all precomputed features (see precomputeFeatures method) from this
+	 * instance.
+	 */
+	public void clearPrecomputedFeatures() {
+		precomputedFeatures = null;
+	}
+
+	/**
+	 * Set feature cache. Fingerprints, functional groups, tokenized SMILES, 2D
+	 * representation and depiction are taken from cache if they are cached and are
+	 * added to cache after computation. Data sets created from this data set
+	 * (copy, subset, splits) share the same cache. Many models repeatedly compute
+	 * features of the same training set compounds, so the cache makes training
+	 * iterations after the first epoch much cheaper.
+	 * 
+	 * @param featureCache feature cache, null - no caching (default)
+	 */
+	public void setFeatureCache(FeatureCache featureCache) {
+		this.featureCache = featureCache;
+	}
+
+	/**
+	 * 
+	 * @return feature cache or null (see setFeatureCache)
+	 */
+	public FeatureCache getFeatureCache() {
+		return featureCache;
+	}
+
+	/**
+	 * Set identity index (InChI and InChI-key of compounds, see IdentityIndex
+	 * class). It is used by InChI-based overlap and filter operations
+	 * (countIdenticalByInchi, countIdenticalByInchikeys, filterIdenticalByInchi,
+	 * inchiIds, inchiKeys). If it is not set, a new index is created on first use.
+	 * Data sets created from this data set (copy, subset, splits) share the same
+	 * index.
+	 * 
+	 * @param identityIndex identity index, null - create on first use (default)
+	 */
+	public void setIdentityIndex(IdentityIndex identityIndex) {
+		this.identityIndex = identityIndex;
+	}
+
+	/**
+	 * 
+	 * @return identity index or null (see setIdentityIndex)
+	 */
+	public IdentityIndex getIdentityIndex() {
+		return identityIndex;
+	}
+
+	/**
+	 * 
+	 * @return identity index that contains all compounds of this data set
+	 * @throws CDKException CDK errors for any of compounds
+	 */
+	private IdentityIndex identityIndex() throws CDKException {
+		if (identityIndex == null) {
+			identityIndex = IdentityIndex.instance();
+		}
+		identityIndex.compute(compounds());
+		return identityIndex;
+	}
+
+	/**
+	 * Set memo of canonical SMILES strings (see Canonicalizer class). It is used by
+	 * makeCanoncalAll, compoundsCanonical, filterIdentical, groupByCompounds,
+	 * meanByCompounds and medianByCompounds. If it is not set, a new memo is
+	 * created on first use. Data sets created from this data set (copy, subset,
+	 * splits) share the same memo.
+	 * 
+	 * @param canonicalizer memo, null - create on first use (default)
+	 */
+	public void setCanonicalizer(Canonicalizer canonicalizer) {
+		this.canonicalizer = canonicalizer;
+	}
+
+	/**
+	 * 
+	 * @return memo of canonical SMILES strings or null (see setCanonicalizer)
+	 */
+	public Canonicalizer getCanonicalizer() {
+		return canonicalizer;
+	}
+
+	/**
+	 * 
+	 * @param stereochemistry with or without stereochemistry
+	 * @return memo that contains canonical SMILES strings for all compounds of
+	 *         this data set
+	 * @throws CDKException CDK errors for any of compounds
+	 */
+	private Canonicalizer canonicalizer(boolean stereochemistry) throws CDKException {
+		if (canonicalizer == null) {
+			canonicalizer = Canonicalizer.instance();
+		}
+		canonicalizer.compute(compounds(), stereochemistry);
+		return canonicalizer;
+	}
+
+	private MoleculeFeatures precomputed(int i) {
+		if (precomputedFeatures == null) {
+			return null;
+		}
+		return precomputedFeatures.get(data[i].getSmiles());
+	}
+
 	/**
 	 * 
 	 * @param t molecular fingerprints type
@@ -130,7 +317,42 @@ public class RetentionsDataset {
 	 * @throws CDKException Chemoinformatics error
 	 */
 	public float[] fingerprints(Chemoinformatics.FingerprintsType t, int i) throws CDKException {
-		return data[i].fingerprints(t);
+		MoleculeFeatures f = precomputed(i);
+		if ((f != null) && (f.getFingerprints(t) != null)) {
+			return f.getFingerprints(t);
+		}
+		if (featureCache == null) {
+			return data[i].fingerprints(t);
+		}
+		float[] result = featureCache.getFingerprints(t, data[i].getSmiles());
+		if (result == null) {
+			result = data[i].fingerprints(t);
+			featureCache.putFingerprints(t, data[i].getSmiles(), result);
+		}
+		return result;
+	}
+
+	/**
+	 * See Chemoinformatics.tokenize
+	 * 
+	 * @param i number of the entry
+	 * @return tokenized SMILES string of i-th entry
+	 * @throws CDKException too long SMILES or unsupported symbols
+	 */
+	public int[] tokens(int i) throws CDKException {
+		MoleculeFeatures f = precomputed(i);
+		if ((f != null) && (f.getTokens() != null)) {
+			return f.getTokens();
+		}
+		if (featureCache == null) {
+			return Chemoinformatics.tokenize(data[i].getSmiles());
+		}
+		int[] result = featureCache.getTokens(data[i].getSmiles());
+		if (result == null) {
+			result = Chemoinformatics.tokenize(data[i].getSmiles());
+			featureCache.putTokens(data[i].getSmiles(), result);
+		}
+		return result;
 	}
 
 	/**
@@ -158,6 +380,10 @@ public class RetentionsDataset {
 	 *                      descriptorsGenerator instance.CDK error, absence of pre
 	 */
 	public float[] descriptorsNoNaNs(int i, Descriptors descriptorsGenerator) throws CDKException {
+		MoleculeFeatures f = precomputed(i);
+		if ((f != null) && (f.getDescriptorsNoNaNs(descriptorsGenerator) != null)) {
+			return f.getDescriptorsNoNaNs(descriptorsGenerator);
+		}
 		return data[i].descriptorsNoNaNs(descriptorsGenerator);
 	}
 
@@ -170,7 +396,19 @@ public class RetentionsDataset {
 	 * @throws CDKException CDK internal error
 	 */
 	public float[] funcGroups(int i) throws CDKException {
-		return data[i].funcGroups();
+		MoleculeFeatures f = precomputed(i);
+		if ((f != null) && (f.getFuncGroups() != null)) {
+			return f.getFuncGroups();
+		}
+		if (featureCache == null) {
+			return data[i].funcGroups();
+		}
+		float[] result = featureCache.getFuncGroups(data[i].getSmiles());
+		if (result == null) {
+			result = data[i].funcGroups();
+			featureCache.putFuncGroups(data[i].getSmiles(), result);
+		}
+		return result;
 	}
 
 	/**
@@ -181,7 +419,15 @@ public class RetentionsDataset {
 	 * @throws CDKException CDK internal error
 	 */
 	public float[][] depiction(int i) throws CDKException {
-		return data[i].depitction();
+		if (featureCache == null) {
+			return data[i].depitction();
+		}
+		float[][] result = featureCache.getDepiction(data[i].getSmiles());
+		if (result == null) {
+			result = data[i].depitction();
+			featureCache.putDepiction(data[i].getSmiles(), result);
+		}
+		return result;
 	}
 
 	/**
@@ -193,7 +439,31 @@ public class RetentionsDataset {
 	 *                      than C50)
 	 */
 	public float[][][] representation2d(int i) throws CDKException {
-		return data[i].representation2d();
+		return representation2dCompact(i).toDense();
+	}
+
+	/**
+	 * See Chemoinformatics class and Representation2d class.
+	 * 
+	 * @param i number of the entry
+	 * @return compact 2D - representation of molecule for 2D-CNN
+	 * @throws CDKException CDK internal error, oversized molecule (typically more
+	 *                      than C50)
+	 */
+	public Representation2d representation2dCompact(int i) throws CDKException {
+		MoleculeFeatures f = precomputed(i);
+		if ((f != null) && (f.getRepresentation2d() != null)) {
+			return f.getRepresentation2d();
+		}
+		if (featureCache == null) {
+			return data[i].representation2dCompact();
+		}
+		Representation2d result = featureCache.getRepresentation2d(data[i].getSmiles());
+		if (result == null) {
+			result = data[i].representation2dCompact();
+			featureCache.putRepresentation2d(data[i].getSmiles(), result);
+		}
+		return result;
 	}
 
 	/**
@@ -220,7 +490,8 @@ public class RetentionsDataset {
 	}
 
 	/**
-	 * Deep copy of the data set (with copying in memory of all records)
+	 * Deep copy of the data set (with copying in memory of all records). Feature
+	 * cache is shared with the copy.
 	 * 
 	 * @return deep copy
 	 */
@@ -230,6 +501,9 @@ public class RetentionsDataset {
 		for (int i = 0; i < this.data.length; i++) {
 			result.data[i] = this.data[i].deepclone();
 		}
+		result.featureCache = this.featureCache;
+		result.identityIndex = this.identityIndex;
+		result.canonicalizer = this.canonicalizer;
 		return result;
 	}
 
@@ -261,8 +535,9 @@ public class RetentionsDataset {
 	 */
 	public HashSet<String> compoundsCanonical(boolean stereochemistry) throws CDKException {
 		HashSet<String> result = new HashSet<String>();
-		for (int i = 0; i < this.data.length; i++) {
-			result.add(Chemoinformatics.canonical(data[i].getSmiles(), stereochemistry).trim());
+		Canonicalizer c = canonicalizer(stereochemistry);
+		for (String smiles : compounds()) {
+			result.add(c.canonical(smiles, stereochemistry));
 		}
 		return result;
 	}
@@ -291,8 +566,9 @@ public class RetentionsDataset {
 	 */
 	public HashSet<String> inchiIds() throws CDKException {
 		HashSet<String> result = new HashSet<String>();
+		IdentityIndex index = identityIndex();
 		for (int i = 0; i < this.data.length; i++) {
-			result.add(Chemoinformatics.smilesToInchi(data[i].getSmiles()).trim());
+			result.add(index.getInchi(data[i].getSmiles()));
 		}
 		return result;
 	}
@@ -307,8 +583,9 @@ public class RetentionsDataset {
 	 */
 	public HashSet<String> inchiKeys() throws CDKException {
 		HashSet<String> result = new HashSet<String>();
+		IdentityIndex index = identityIndex();
 		for (int i = 0; i < this.data.length; i++) {
-			result.add(Chemoinformatics.smilesToInchiKey(data[i].getSmiles()).trim());
+			result.add(index.getInchiKey(data[i].getSmiles()));
 		}
 		return result;
 	}
@@ -375,9 +652,16 @@ public class RetentionsDataset {
 	 */
 	public static int[][] countIdenticalByInchi(RetentionsDataset[] d1, RetentionsDataset[] d2) throws CDKException {
 		int[][] result = new int[d1.length][d2.length];
+		ArrayList<HashSet<String>> inchi2 = new ArrayList<HashSet<String>>();
+		for (int j = 0; j < d2.length; j++) {
+			inchi2.add(d2[j].inchiIds());
+		}
 		for (int i = 0; i < d1.length; i++) {
+			HashSet<String> inchi1 = d1[i].inchiIds();
 			for (int j = 0; j < d2.length; j++) {
-				result[i][j] = d1[i].countIdenticalByInchi(d2[j]);
+				HashSet<String> a = new HashSet<String>(inchi1);
+				a.retainAll(inchi2.get(j));
+				result[i][j] = a.size();
 			}
 		}
 		return result;
@@ -428,6 +712,9 @@ public class RetentionsDataset {
 		}
 		RetentionsDataset result = new RetentionsDataset();
 		result.data = splitData.toArray(new RetentionsEntry[splitData.size()]);
+		result.featureCache = this.featureCache;
+		result.identityIndex = this.identityIndex;
+		result.canonicalizer = this.canonicalizer;
 		this.data = retainData.toArray(new RetentionsEntry[retainData.size()]);
 		result.shuffle();
 		this.shuffle();
@@ -473,6 +760,9 @@ public class RetentionsDataset {
 		}
 		RetentionsDataset result = new RetentionsDataset();
 		result.data = splitData.toArray(new RetentionsEntry[splitData.size()]);
+		result.featureCache = this.featureCache;
+		result.identityIndex = this.identityIndex;
+		result.canonicalizer = this.canonicalizer;
 		this.data = retainData.toArray(new RetentionsEntry[retainData.size()]);
 		return result;
 	}
@@ -528,8 +818,9 @@ public class RetentionsDataset {
 	public void filterIdentical(RetentionsDataset second) throws CDKException {
 		ArrayList<RetentionsEntry> retainData = new ArrayList<RetentionsEntry>();
 		HashSet<String> b = second.compoundsCanonical(true);
+		Canonicalizer c = canonicalizer(true);
 		for (int i = 0; i < this.data.length; i++) {
-			if (!b.contains(Chemoinformatics.canonical(data[i].getSmiles(), true).trim())) {
+			if (!b.contains(c.canonical(data[i].getSmiles(), true))) {
 				retainData.add(this.getEntry(i));
 			}
 		}
@@ -548,8 +839,9 @@ public class RetentionsDataset {
 	public void filterIdenticalByInchi(RetentionsDataset second) throws CDKException {
 		ArrayList<RetentionsEntry> retainData = new ArrayList<RetentionsEntry>();
 		HashSet<String> b = second.inchiIds();
+		IdentityIndex index = identityIndex();
 		for (int i = 0; i < this.data.length; i++) {
-			if (!b.contains(Chemoinformatics.smilesToInchi(data[i].getSmiles()).trim())) {
+			if (!b.contains(index.getInchi(data[i].getSmiles()))) {
 				retainData.add(this.getEntry(i));
 			}
 		}
@@ -566,11 +858,93 @@ public class RetentionsDataset {
 	 * @throws IOException IO
 	 */
 	public void saveToFile(String filename) throws IOException {
-		FileWriter fw = new FileWriter(filename);
-		for (int i = 0; i < this.data.length; i++) {
-			fw.write(this.getSmiles(i) + " " + this.getRetention(i) + " " + this.getColumn(i) + "\n");
+		BufferedWriter fw = new BufferedWriter(new FileWriter(filename), 1 << 20);
+		StringBuilder line = new StringBuilder();
+		try {
+			for (int i = 0; i < this.data.length; i++) {
+				line.setLength(0);
+				line.append(this.getSmiles(i)).append(' ').append(this.getRetention(i)).append(' ')
+						.append(this.getColumn(i)).append('\n');
+				fw.append(line);
+			}
+		} finally {
+			fw.close();
 		}
-		fw.close();
+	}
+
+	/**
+	 * Save whole data set to binary file (see CompactRetentionsDataset). Binary
+	 * files are loaded by loadFromFile much faster than text ones, it's useful for
+	 * large data sets which are loaded repeatedly.
+	 * 
+	 * @param filename name of file (or path) for saving
+	 * @throws IOException IO
+	 */
+	public void saveToBinaryFile(String filename) throws IOException {
+		CompactRetentionsDataset.instance(this).saveToBinaryFile(filename);
+	}
+
+	/**
+	 * Reader for text data set file. Gzip-compressed files are detected by magic
+	 * number and decompressed.
+	 * 
+	 * @param filename file name
+	 * @return reader
+	 * @throws IOException IO
+	 */
+	static BufferedReader textReader(String filename) throws IOException {
+		InputStream in = new FileInputStream(new File(filename));
+		if (CompactRetentionsDataset.startsWith(filename, GZIP_MAGIC)) {
+			in = new GZIPInputStream(in, 1 << 16);
+		}
+		return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 20);
+	}
+
+	/**
+	 * Split line of text data set file: SMILES string, retention index and column
+	 * type separated by whitespaces. Other fields are ignored.
+	 * 
+	 * @param line line
+	 * @return three fields
+	 * @throws IOException less than three fields
+	 */
+	static String[] fields(String line) throws IOException {
+		String[] result = new String[3];
+		int n = 0;
+		int i = 0;
+		int length = line.length();
+		while ((n < 3) && (i < length)) {
+			while ((i < length) && Character.isWhitespace(line.charAt(i))) {
+				i++;
+			}
+			int start = i;
+			while ((i < length) && !Character.isWhitespace(line.charAt(i))) {
+				i++;
+			}
+			if (i > start) {
+				result[n++] = line.substring(start, i);
+			}
+		}
+		if (n < 3) {
+			throw new IOException("Wrong line in data set file: " + line);
+		}
+		return result;
+	}
+
+	private static RetentionsEntry[] parse(ArrayList<String> lines) throws IOException {
+		RetentionsEntry[] result = new RetentionsEntry[lines.size()];
+		for (int i = 0; i < result.length; i++) {
+			String[] f = fields(lines.get(i));
+			try {
+				result[i] = new RetentionsEntry();
+				result[i].setSmiles(f[0]);
+				result[i].setRetention(Float.parseFloat(f[1]));
+				result[i].setColumnType(Integer.parseInt(f[2]));
+			} catch (NumberFormatException e) {
+				throw new IOException("Wrong line in data set file: " + lines.get(i));
+			}
+		}
+		return result;
 	}
 
 	/**
@@ -578,23 +952,65 @@ public class RetentionsDataset {
 	 * comments. Each line contains SMILES string, retention index (float) and
 	 * column type (integer). SMILES, retention index and type of column are
 	 * separated by spaces. Example of line: "CCCC 400 0". SMILES strings loaded "as
-	 * is", without checking or converting to a canonical form.
+	 * is", without checking or converting to a canonical form. Reading stops at
+	 * the first empty line. The file can be gzip-compressed. Lines are parsed in
+	 * parallel by chunks while the file is read. Binary files (see
+	 * saveToBinaryFile) are detected and loaded too.
 	 * 
 	 * @param filename file name
 	 * @return loaded data set
-	 * @throws IOException IO
+	 * @throws IOException IO, wrong format
 	 */
 	public static RetentionsDataset loadFromFile(String filename) throws IOException {
-		BufferedReader inp = new BufferedReader(new InputStreamReader(new FileInputStream(new File(filename))));
-		ArrayList<RetentionsEntry> data = new ArrayList<RetentionsEntry>();
-		String s = inp.readLine();
-		while ((s != null) && (!s.trim().equals(""))) {
-			String[] spl = s.split("\\s+");
-			data.add(RetentionsEntry.instance(spl[0], Float.parseFloat(spl[1]), Integer.parseInt(spl[2])));
-			s = inp.readLine();
+		if (CompactRetentionsDataset.isBinaryFile(filename)) {
+			return CompactRetentionsDataset.loadFromBinaryFile(filename).toDataset();
+		}
+		ArrayList<Future<RetentionsEntry[]>> futures = new ArrayList<Future<RetentionsEntry[]>>();
+		BufferedReader inp = textReader(filename);
+		try {
+			ArrayList<String> chunk = new ArrayList<String>();
+			String s = inp.readLine();
+			while ((s != null) && (!s.trim().equals(""))) {
+				chunk.add(s);
+				if (chunk.size() == PARSE_CHUNK) {
+					final ArrayList<String> lines = chunk;
+					futures.add(Parallel.submit(() -> parse(lines)));
+					chunk = new ArrayList<String>();
+				}
+				s = inp.readLine();
+			}
+			if (!chunk.isEmpty()) {
+				final ArrayList<String> lines = chunk;
+				futures.add(Parallel.submit(() -> parse(lines)));
+			}
+		} finally {
+			inp.close();
+		}
+		try {
+			ArrayList<RetentionsEntry[]> chunks = new ArrayList<RetentionsEntry[]>();
+			int n = 0;
+			for (Future<RetentionsEntry[]> f : futures) {
+				chunks.add(f.get());
+				n += chunks.get(chunks.size() - 1).length;
+			}
+			RetentionsEntry[] data = new RetentionsEntry[n];
+			n = 0;
+			for (RetentionsEntry[] c : chunks) {
+				System.arraycopy(c, 0, data, n, c.length);
+				n += c.length;
+			}
+			return RetentionsDataset.create(data);
+		} catch (InterruptedException e) {
+			throw new IOException(e.getMessage());
+		} catch (ExecutionException e) {
+			for (Future<RetentionsEntry[]> f : futures) {
+				f.cancel(false);
+			}
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause().getMessage());
 		}
-		inp.close();
-		return RetentionsDataset.create(data);
 	}
 
 	/**
@@ -621,8 +1037,9 @@ public class RetentionsDataset {
 	 * @throws CDKException CDK error
 	 */
 	public void makeCanoncalAll(boolean stereochemistry) throws CDKException {
+		Canonicalizer c = canonicalizer(stereochemistry);
 		for (int i = 0; i < this.data.length; i++) {
-			this.getEntry(i).setSmiles(Chemoinformatics.canonical(this.getSmiles(i), stereochemistry));
+			this.getEntry(i).setSmiles(c.canonical(this.getSmiles(i), stereochemistry));
 		}
 	}
 
@@ -650,8 +1067,9 @@ public class RetentionsDataset {
 		for (String smi : compounds) {
 			result.put(smi, (new ArrayList<RetentionsEntry>()));
 		}
+		Canonicalizer canonical = canonicalizer(stereochemistry);
 		for (int i = 0; i < this.data.length; i++) {
-			ArrayList<RetentionsEntry> c = result.get(Chemoinformatics.canonical(this.getSmiles(i), stereochemistry));
+			ArrayList<RetentionsEntry> c = result.get(canonical.canonical(this.getSmiles(i), stereochemistry));
 			c.add(this.getEntry(i));
 		}
 		return result;
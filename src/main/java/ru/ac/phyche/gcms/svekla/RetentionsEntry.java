@@ -258,4 +258,15 @@ public class RetentionsEntry {
 	public float[][][] representation2d() throws CDKException {
 		return Chemoinformatics.representation2d(smiles);
 	}
+
+	/**
+	 * See Chemoinformatics class and Representation2d class. Compact form of 2D
+	 * representation of molecule.
+	 * 
+	 * @return compact 2D representation
+	 * @throws CDKException CDK internal errors, oversized molecules.
+	 */
+	public Representation2d representation2dCompact() throws CDKException {
+		return Chemoinformatics.representation2dCompact(smiles);
+	}
 }
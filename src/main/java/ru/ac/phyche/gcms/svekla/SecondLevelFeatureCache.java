@@ -0,0 +1,193 @@
+package ru.ac.phyche.gcms.svekla;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+
+/**
+ * Persistent (file) cache of retention indices predicted by the base neural
+ * networks of the second-level model for all columns (see
+ * SecondLevelModelForPolar.setFeatureCache). These values depend only on the
+ * molecule, so they are stored per SMILES string. The cache is valid only for
+ * the same neural networks and the same descriptors normalization: the file
+ * header contains a key (SHA-256 of network parameters and min/max descriptor
+ * values, see key(...) method). If the key of the file differs, the file is
+ * ignored and overwritten by save().
+ *
+ * File format (big-endian): 8 bytes of MAGIC; key (UTF); int number of
+ * entries; int number of values per entry; entries: SMILES (UTF), values
+ * (floats).
+ *
+ */
+public class SecondLevelFeatureCache {
+	static final byte[] MAGIC = "SVKSLFC1".getBytes(StandardCharsets.US_ASCII);
+
+	private String filename;
+	private String key;
+	private ConcurrentHashMap<String, float[]> map = new ConcurrentHashMap<String, float[]>();
+	private volatile boolean modified = false;
+
+	/**
+	 * Open cache file. If the file doesn't exist or was created for other networks
+	 * (other key), the cache is empty.
+	 *
+	 * @param filename file name
+	 * @param key      key of networks and descriptors (see key(...) method)
+	 * @return new instance
+	 * @throws IOException IO, wrong format
+	 */
+	public static SecondLevelFeatureCache open(String filename, String key) throws IOException {
+		SecondLevelFeatureCache result = new SecondLevelFeatureCache();
+		result.filename = filename;
+		result.key = key;
+		if (!(new File(filename)).exists()) {
+			return result;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
+		try {
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			if (!Arrays.equals(magic, MAGIC)) {
+				throw new IOException("Not a second-level feature cache file: " + filename);
+			}
+			if (!key.equals(in.readUTF())) {
+				System.out.println(
+						"Second-level feature cache " + filename + " was created for other networks. Ignored.");
+				return result;
+			}
+			int n = in.readInt();
+			int length = in.readInt();
+			for (int i = 0; i < n; i++) {
+				String smiles = in.readUTF();
+				float[] values = new float[length];
+				for (int j = 0; j < length; j++) {
+					values[j] = in.readFloat();
+				}
+				result.map.put(smiles, values);
+			}
+		} finally {
+			in.close();
+		}
+		return result;
+	}
+
+	/**
+	 * Key for neural networks and descriptors normalization.
+	 *
+	 * @param networks neural networks (the order matters)
+	 * @param min      min values of descriptors (see Descriptors.getMinMaxArray)
+	 * @param max      max values of descriptors
+	 * @return hex string (SHA-256)
+	 */
+	public static String key(ComputationGraph[] networks, float[] min, float[] max) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (ComputationGraph nn : networks) {
+				update(digest, nn.params().toFloatVector());
+			}
+			update(digest, min);
+			update(digest, max);
+			StringBuilder result = new StringBuilder();
+			for (byte b : digest.digest()) {
+				result.append(String.format("%02x", b));
+			}
+			return result.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e.getMessage());
+		}
+	}
+
+	private static void update(MessageDigest digest, float[] values) {
+		ByteBuffer buffer = ByteBuffer.allocate(4 + 4 * values.length);
+		buffer.putInt(values.length);
+		for (float v : values) {
+			buffer.putFloat(v);
+		}
+		digest.update(buffer.array());
+	}
+
+	/**
+	 *
+	 * @return key of networks and descriptors
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 *
+	 * @param smiles SMILES string
+	 * @return cached values or null. Don't modify the returned array!
+	 */
+	public float[] get(String smiles) {
+		return map.get(smiles);
+	}
+
+	/**
+	 *
+	 * @param smiles SMILES string
+	 * @param values values, all entries must have the same length
+	 */
+	public void put(String smiles, float[] values) {
+		if (map.put(smiles, values) == null) {
+			modified = true;
+		}
+	}
+
+	/**
+	 *
+	 * @return number of cached molecules
+	 */
+	public int size() {
+		return map.size();
+	}
+
+	/**
+	 * Write the cache to the file (if something was added since opening or the
+	 * previous save). A temporary file is written first and then renamed.
+	 *
+	 * @throws IOException IO
+	 */
+	public synchronized void save() throws IOException {
+		if (!modified) {
+			return;
+		}
+		modified = false;
+		File tmp = new File(filename + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.write(MAGIC);
+			out.writeUTF(key);
+			ArrayList<Map.Entry<String, float[]>> entries = new ArrayList<Map.Entry<String, float[]>>(map.entrySet());
+			int length = entries.isEmpty() ? 0 : entries.get(0).getValue().length;
+			out.writeInt(entries.size());
+			out.writeInt(length);
+			for (Map.Entry<String, float[]> e : entries) {
+				out.writeUTF(e.getKey());
+				for (float v : e.getValue()) {
+					out.writeFloat(v);
+				}
+			}
+		} finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), new File(filename).toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+}
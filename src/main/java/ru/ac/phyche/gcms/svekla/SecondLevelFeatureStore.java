@@ -0,0 +1,329 @@
+package ru.ac.phyche.gcms.svekla;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Read-only binary file with input features of the second-level model (rows of
+ * the training matrix, see SecondLevelModelForPolar.setFeatureStore). Input
+ * features depend only on the molecule, so there is one row per SMILES string.
+ * The file header contains a key (e.g. fingerprints of the neural network files
+ * and of the descriptors file, see fileHash(...)); a file with other key is not
+ * used. The header is read when the file is opened, the matrix is
+ * memory-mapped, rows are read directly from the file on request.
+ *
+ * A mapped file can't be replaced or deleted on some platforms (Windows) until
+ * the mapping is garbage-collected, so the store is never rewritten in place:
+ * write(...) creates a new generation file (filename, filename.1, filename.2
+ * etc.), open(...) uses the latest generation. Older generations are deleted
+ * when possible.
+ *
+ * File format (big-endian): 8 bytes of MAGIC; key (int length of UTF-8
+ * bytes, bytes); int number of features (nf); int number of compounds (n); n
+ * SMILES strings (int length of UTF-8 bytes, bytes); zero padding to multiple
+ * of 8 bytes; n*nf floats - features, one row per compound in the same order as
+ * SMILES strings.
+ *
+ */
+public class SecondLevelFeatureStore {
+	static final byte[] MAGIC = "SVKSLFS1".getBytes(StandardCharsets.US_ASCII);
+
+	private String key;
+	private int nFeatures;
+	private ArrayList<String> smiles = new ArrayList<String>();
+	private HashMap<String, Integer> rows = new HashMap<String, Integer>();
+	private MappedByteBuffer[] matrix;
+	private int rowsPerChunk;
+
+	/**
+	 * Open the latest generation of the file and map the matrix.
+	 *
+	 * @param filename file name
+	 * @return new instance or null if the file doesn't exist
+	 * @throws IOException IO, wrong format
+	 */
+	public static SecondLevelFeatureStore open(String filename) throws IOException {
+		File file = latestGeneration(filename);
+		if (file == null) {
+			return null;
+		}
+		SecondLevelFeatureStore result = new SecondLevelFeatureStore();
+		long matrixStart = MAGIC.length;
+		int n;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			if (!Arrays.equals(magic, MAGIC)) {
+				throw new IOException("Not a second-level feature store file: " + file);
+			}
+			result.key = readString(in);
+			result.nFeatures = in.readInt();
+			n = in.readInt();
+			if ((result.nFeatures < 0) || (n < 0)) {
+				throw new IOException("Wrong format of second-level feature store file: " + file);
+			}
+			matrixStart += 12 + result.key.getBytes(StandardCharsets.UTF_8).length;
+			for (int i = 0; i < n; i++) {
+				String s = readString(in);
+				result.rows.put(s, i);
+				result.smiles.add(s);
+				matrixStart += 4 + s.getBytes(StandardCharsets.UTF_8).length;
+			}
+		} catch (EOFException | NegativeArraySizeException e) {
+			throw new IOException("Wrong format of second-level feature store file: " + file);
+		} finally {
+			in.close();
+		}
+		matrixStart = matrixStart + padding(matrixStart);
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			if (matrixStart + 4L * result.nFeatures * n > raf.length()) {
+				throw new IOException("Second-level feature store file is truncated: " + file);
+			}
+			FileChannel channel = raf.getChannel();
+			long rowBytes = 4L * Math.max(1, result.nFeatures);
+			result.rowsPerChunk = (int) Math.max(1, Integer.MAX_VALUE / rowBytes);
+			int chunks = (n + result.rowsPerChunk - 1) / result.rowsPerChunk;
+			result.matrix = new MappedByteBuffer[chunks];
+			for (int c = 0; c < chunks; c++) {
+				long r = Math.min(result.rowsPerChunk, n - ((long) c) * result.rowsPerChunk);
+				result.matrix[c] = channel.map(FileChannel.MapMode.READ_ONLY,
+						matrixStart + ((long) c) * result.rowsPerChunk * rowBytes, r * rowBytes);
+			}
+		} finally {
+			raf.close();
+		}
+		deleteOlderGenerations(filename, file);
+		return result;
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] b = new byte[in.readInt()];
+		in.readFully(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Generation number of the file: 0 for filename itself, g for filename.g, -1
+	 * for other files.
+	 */
+	private static int generation(String name, File f) {
+		String s = f.getName();
+		if (s.equals(name)) {
+			return 0;
+		}
+		if ((!s.startsWith(name + ".")) || (s.length() == name.length() + 1)
+				|| (s.length() > name.length() + 10)) {
+			return -1;
+		}
+		for (int i = name.length() + 1; i < s.length(); i++) {
+			if (!Character.isDigit(s.charAt(i))) {
+				return -1;
+			}
+		}
+		return Integer.parseInt(s.substring(name.length() + 1));
+	}
+
+	private static File[] generations(String filename) {
+		File file = new File(filename).getAbsoluteFile();
+		File[] files = file.getParentFile() == null ? null : file.getParentFile().listFiles();
+		return files == null ? new File[0] : files;
+	}
+
+	private static File latestGeneration(String filename) {
+		String name = new File(filename).getName();
+		File result = null;
+		int latest = -1;
+		for (File f : generations(filename)) {
+			int g = generation(name, f);
+			if ((g > latest) && f.isFile()) {
+				latest = g;
+				result = f;
+			}
+		}
+		return result;
+	}
+
+	private static void deleteOlderGenerations(String filename, File latest) {
+		String name = new File(filename).getName();
+		int g = generation(name, latest);
+		for (File f : generations(filename)) {
+			int h = generation(name, f);
+			if ((h >= 0) && (h < g)) {
+				// fails while the file is mapped (Windows), will be deleted later
+				f.delete();
+			}
+		}
+	}
+
+	private static int padding(long position) {
+		return (int) ((8 - position % 8) % 8);
+	}
+
+	/**
+	 * Fingerprint of files (e.g. files of neural networks and descriptors file)
+	 * for use as a key.
+	 *
+	 * @param filenames file names (the order matters)
+	 * @return hex string (SHA-256 of contents of all files)
+	 * @throws IOException IO
+	 */
+	public static String fileHash(String... filenames) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e.getMessage());
+		}
+		byte[] buffer = new byte[1 << 16];
+		for (String filename : filenames) {
+			InputStream in = new BufferedInputStream(new FileInputStream(filename));
+			try {
+				int n = in.read(buffer);
+				while (n >= 0) {
+					digest.update(buffer, 0, n);
+					n = in.read(buffer);
+				}
+			} finally {
+				in.close();
+			}
+			digest.update((byte) 0);
+		}
+		StringBuilder result = new StringBuilder();
+		for (byte b : digest.digest()) {
+			result.append(String.format("%02x", b));
+		}
+		return result.toString();
+	}
+
+	/**
+	 *
+	 * @return key
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 *
+	 * @return number of features (row length)
+	 */
+	public int getNumberOfFeatures() {
+		return nFeatures;
+	}
+
+	/**
+	 *
+	 * @return number of compounds
+	 */
+	public int size() {
+		return smiles.size();
+	}
+
+	/**
+	 *
+	 * @param i number of compound
+	 * @return SMILES string
+	 */
+	public String getSmiles(int i) {
+		return smiles.get(i);
+	}
+
+	/**
+	 *
+	 * @param i number of compound
+	 * @return features (new array)
+	 */
+	public double[] row(int i) {
+		MappedByteBuffer chunk = matrix[i / rowsPerChunk];
+		int start = (i % rowsPerChunk) * 4 * nFeatures;
+		double[] result = new double[nFeatures];
+		for (int j = 0; j < nFeatures; j++) {
+			result[j] = chunk.getFloat(start + 4 * j);
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 * @param smiles SMILES string
+	 * @return features (new array) or null if the file doesn't contain this
+	 *         SMILES string
+	 */
+	public double[] get(String smiles) {
+		Integer i = rows.get(smiles);
+		return i == null ? null : row(i);
+	}
+
+	/**
+	 * Write binary file as a new generation (see class description), the file
+	 * which is opened (and mapped) now is not replaced. A temporary file is
+	 * written first and then renamed.
+	 *
+	 * @param filename file name
+	 * @param key      key
+	 * @param smiles   SMILES strings (without duplicates)
+	 * @param features features[i] - features for smiles.get(i), all rows must
+	 *                 have the same length
+	 * @throws IOException IO
+	 */
+	public static void write(String filename, String key, ArrayList<String> smiles, ArrayList<double[]> features)
+			throws IOException {
+		int nFeatures = features.isEmpty() ? 0 : features.get(0).length;
+		File latest = latestGeneration(filename);
+		File target = latest == null ? new File(filename)
+				: new File(filename + "." + (generation(new File(filename).getName(), latest) + 1));
+		File tmp = new File(target.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+		try {
+			out.write(MAGIC);
+			writeString(out, key);
+			out.writeInt(nFeatures);
+			out.writeInt(smiles.size());
+			for (String s : smiles) {
+				writeString(out, s);
+			}
+			for (int i = padding(out.size() & 0xffffffffL); i > 0; i--) {
+				out.writeByte(0);
+			}
+			for (int i = 0; i < smiles.size(); i++) {
+				double[] f = features.get(i);
+				if (f.length != nFeatures) {
+					throw new IOException("Wrong number of features for " + smiles.get(i));
+				}
+				for (int j = 0; j < f.length; j++) {
+					out.writeFloat((float) f[j]);
+				}
+			}
+		} finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), target.toPath());
+		deleteOlderGenerations(filename, target);
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+}
@@ -4,12 +4,19 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import org.apache.commons.lang3.tuple.Pair;
 import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.buffer.DataType;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 import org.openscience.cdk.exception.CDKException;
@@ -19,6 +26,7 @@ import com.thoughtworks.xstream.XStream;
 import smile.base.cart.Loss;
 import smile.data.DataFrame;
 import smile.data.formula.Formula;
+import smile.data.vector.DoubleVector;
 import smile.math.kernel.GaussianKernel;
 import smile.math.kernel.LinearKernel;
 import smile.regression.GradientTreeBoost;
@@ -44,8 +52,16 @@ public abstract class SecondLevelModelForPolar extends Model {
 	private ComputationGraph nonpolarcnn = null;
 	private ComputationGraph nonpolarmlp = null;
 	private Pair<double[][], double[]> trainSetDouble;
+	private DataFrame trainSetDataFrame = null;
+	private static String[] featureNames = new String[0];
 	private boolean useOnlyDescriptors = false;
 	private boolean useOnlyRetentionIndices = false;
+	private int crossValidationThreads = Runtime.getRuntime().availableProcessors();
+	private SecondLevelFeatureCache featureCache = null;
+	private String featureStoreFile = null;
+	private String featureStoreKey = null;
+	private SecondLevelFeatureStore featureStore = null;
+	private static final int MAX_SWEEP_ROWS = 1024;
 
 	/**
 	 * Implementation of SecondLevelModelForPolar using random forest as
@@ -88,6 +104,11 @@ public abstract class SecondLevelModelForPolar extends Model {
 			return (float) forest.predict(doubleFeaturesToDataFrame(features))[0];
 		}
 
+		@Override
+		public double[] predict(double[][] features) {
+			return forest.predict(doubleFeaturesToDataFrame(features));
+		}
+
 		@Override
 		public void save(String filename) throws IOException {
 			XStream xstream = new XStream();
@@ -104,14 +125,11 @@ public abstract class SecondLevelModelForPolar extends Model {
 		}
 
 		@Override
-		public String train(HashMap<String, Object> params) throws CDKException, IOException {
+		protected void fit(HashMap<String, Object> params) {
 			System.out.println("Random Forest training started...");
 			forest = RandomForest.fit(Formula.lhs("label"), trainSetAsDataFrame(), (int) params.get("ntrees"),
 					(int) params.get("mtry"), (int) params.get("maxDepth"), (int) params.get("maxNodes"),
 					(int) params.get("nodeSize"), (double) params.get("subsample"));
-			String val = this.validate(getValidationSet(), null);
-			System.out.println(val);
-			return val;
 		}
 
 	}
@@ -159,6 +177,11 @@ public abstract class SecondLevelModelForPolar extends Model {
 			return (float) gbm.predict(doubleFeaturesToDataFrame(features))[0];
 		}
 
+		@Override
+		public double[] predict(double[][] features) {
+			return gbm.predict(doubleFeaturesToDataFrame(features));
+		}
+
 		@Override
 		public void save(String filename) throws IOException {
 			XStream xstream = new XStream();
@@ -175,15 +198,12 @@ public abstract class SecondLevelModelForPolar extends Model {
 		}
 
 		@Override
-		public String train(HashMap<String, Object> params) throws CDKException, IOException {
+		protected void fit(HashMap<String, Object> params) {
 			System.out.println("GBM training started...");
 			gbm = GradientTreeBoost.fit(Formula.lhs("label"), trainSetAsDataFrame(),
 					Loss.huber((double) params.get("p")), (int) params.get("ntrees"), (int) params.get("maxDepth"),
 					(int) params.get("maxNodes"), (int) params.get("nodeSize"), (double) params.get("shrinkage"),
 					(double) params.get("subsample"));
-			String val = this.validate(getValidationSet(), null);
-			System.out.println(val);
-			return val;
 		}
 
 	}
@@ -224,6 +244,11 @@ public abstract class SecondLevelModelForPolar extends Model {
 			return (float) svr.predict(features);
 		}
 
+		@Override
+		public double[] predict(double[][] features) {
+			return svr.predict(features);
+		}
+
 		@Override
 		public void save(String filename) throws IOException {
 			XStream xstream = new XStream();
@@ -241,14 +266,11 @@ public abstract class SecondLevelModelForPolar extends Model {
 		}
 
 		@Override
-		public String train(HashMap<String, Object> params) throws CDKException, IOException {
+		protected void fit(HashMap<String, Object> params) {
 			System.out.println("SVR training started...");
 			svr = SVR.fit(getTrainSetDouble().getLeft(), getTrainSetDouble().getRight(),
 					new GaussianKernel((double) params.get("sigma")), (double) params.get("eps"),
 					(double) params.get("C"), (double) params.get("tol"));
-			String val = this.validate(getValidationSet(), null);
-			System.out.println(val);
-			return val;
 		}
 	}
 
@@ -285,6 +307,11 @@ public abstract class SecondLevelModelForPolar extends Model {
 			return (float) svr.predict(features);
 		}
 
+		@Override
+		public double[] predict(double[][] features) {
+			return svr.predict(features);
+		}
+
 		@Override
 		public void save(String filename) throws IOException {
 			XStream xstream = new XStream();
@@ -302,13 +329,10 @@ public abstract class SecondLevelModelForPolar extends Model {
 		}
 
 		@Override
-		public String train(HashMap<String, Object> params) throws CDKException, IOException {
+		protected void fit(HashMap<String, Object> params) {
 			System.out.println("SVR training started...");
 			svr = SVR.fit(getTrainSetDouble().getLeft(), getTrainSetDouble().getRight(), new LinearKernel(),
 					(double) params.get("eps"), (double) params.get("C"), (double) params.get("tol"));
-			String val = this.validate(getValidationSet(), null);
-			System.out.println(val);
-			return val;
 		}
 	}
 
@@ -342,14 +366,14 @@ public abstract class SecondLevelModelForPolar extends Model {
 	public void init(RetentionsDataset trainSet_, RetentionsDataset validationSet_, Descriptors descriptorsGenerator_)
 			throws CDKException {
 		super.init(trainSet_, validationSet_, descriptorsGenerator_);
-		trainSetDouble = dataSetToDouble(this.getTrainSet());
+		setTrainSetDouble(dataSetToDouble(this.getTrainSet()));
 	}
 
 	@Override
 	public void init(RetentionsDataset trainSet_, float validationFraction_, Descriptors descriptorsGenerator_)
 			throws CDKException {
 		super.init(trainSet_, validationFraction_, descriptorsGenerator_);
-		trainSetDouble = dataSetToDouble(this.getTrainSet());
+		setTrainSetDouble(dataSetToDouble(this.getTrainSet()));
 	}
 
 	/**
@@ -403,51 +427,292 @@ public abstract class SecondLevelModelForPolar extends Model {
 	 * @throws CDKException cdk
 	 * @throws IOException  io
 	 */
-	public abstract String train(HashMap<String, Object> params) throws CDKException, IOException;
-
-	private float[] retentionForAllColumns(float[] fingerprintsArray, float[] descriptorsArray, float[][] smilesArray,
-			int startColumnNum, ComputationGraph mlp, ComputationGraph cnn) {
-		float[][] fingerprints = new float[MAX_COLUMN_NUMBER + 1 - startColumnNum][];
-		float[][] descriptorsColumn = new float[MAX_COLUMN_NUMBER + 1 - startColumnNum][];
-		float[][][] smiles = new float[MAX_COLUMN_NUMBER + 1 - startColumnNum][][];
-		float[][] columns = new float[MAX_COLUMN_NUMBER + 1 - startColumnNum][];
-		for (int i = startColumnNum; i < MAX_COLUMN_NUMBER + 1; i++) {
-			fingerprints[i - startColumnNum] = fingerprintsArray;
-			smiles[i - startColumnNum] = smilesArray;
-			columns[i - startColumnNum] = Columns.columnAndColumnTypeOneHot(i);
-			descriptorsColumn[i - startColumnNum] = RetentionsDataset.mergeArrays(columns[i - startColumnNum],
-					descriptorsArray);
+	public String train(HashMap<String, Object> params) throws CDKException, IOException {
+		fit(params);
+		String val = this.validate(getValidationSet(), null);
+		System.out.println(val);
+		return val;
+	}
+
+	/**
+	 * Fit the second-level model using the training set as double arrays (see
+	 * getTrainSetDouble() and trainSetAsDataFrame()). Validation set is not used.
+	 * 
+	 * @param params hyperparameters
+	 */
+	protected abstract void fit(HashMap<String, Object> params);
+
+	/**
+	 * Predict retention indices for multiple entries using precomputed input
+	 * features (see featuresDouble(...) method).
+	 * 
+	 * @param features features, one row per entry
+	 * @return predicted retention indices, one value per row
+	 */
+	public abstract double[] predict(double[][] features);
+
+	@Override
+	protected float[] predictBatch(RetentionsDataset dataSet, int[] indices) throws CDKException {
+		if (indices.length == 0) {
+			return new float[0];
+		}
+		float[][] f = features(dataSet, indices);
+		double[][] features = new double[indices.length][];
+		for (int i = 0; i < indices.length; i++) {
+			features[i] = new double[f[i].length];
+			for (int j = 0; j < f[i].length; j++) {
+				features[i][j] = f[i][j];
+			}
+		}
+		double[] predicted = predict(features);
+		float[] result = new float[predicted.length];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = (float) predicted[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Write retention indices predicted by one pair of networks for all columns
+	 * from startColumnNum to MAX_COLUMN_NUMBER for molecules from..to-1 to
+	 * result[molecule][offset...]: MLP predictions for all columns, then CNN
+	 * predictions. Rows (molecule x column) of all molecules are stacked to one
+	 * batch per network.
+	 */
+	private void retentionForAllColumns(float[][] descriptors, float[][] fingerprints, int[][] tokens, int from,
+			int to, int startColumnNum, ComputationGraph mlp, ComputationGraph cnn, float[][] result, int offset) {
+		int nColumns = MAX_COLUMN_NUMBER + 1 - startColumnNum;
+		int rows = (to - from) * nColumns;
+		float[][] columnsOneHot = new float[nColumns][];
+		for (int c = 0; c < nColumns; c++) {
+			columnsOneHot[c] = Columns.columnAndColumnTypeOneHot(c + startColumnNum);
+		}
+		float[][] fingerprintsRows = new float[rows][];
+		float[][] descriptorsColumnRows = new float[rows][];
+		float[][] columnsRows = new float[rows][];
+		INDArray smiles = Nd4j.zeros(DataType.FLOAT, rows, Chemoinformatics.SMILES_TOKENS, Chemoinformatics.SMILES_LEN);
+		DataBuffer buffer = smiles.data();
+		long rowLength = ((long) Chemoinformatics.SMILES_TOKENS) * Chemoinformatics.SMILES_LEN;
+		for (int m = from; m < to; m++) {
+			for (int c = 0; c < nColumns; c++) {
+				int r = (m - from) * nColumns + c;
+				fingerprintsRows[r] = fingerprints[m];
+				columnsRows[r] = columnsOneHot[c];
+				descriptorsColumnRows[r] = RetentionsDataset.mergeArrays(columnsOneHot[c], descriptors[m]);
+				for (int j = 0; j < tokens[m].length; j++) {
+					buffer.put(r * rowLength + tokens[m][j] * Chemoinformatics.SMILES_LEN + j, 1.0F);
+				}
+			}
 		}
 		float[] retentionsMLP = mlp
-				.output(new INDArray[] { Nd4j.create(descriptorsColumn), Nd4j.create(fingerprints) })[0]
+				.output(new INDArray[] { Nd4j.create(descriptorsColumnRows), Nd4j.create(fingerprintsRows) })[0]
 						.toFloatVector();
-		float[] retentionsCNN = cnn.output(new INDArray[] { Nd4j.create(smiles), Nd4j.create(columns) })[0]
-				.toFloatVector();
-		return RetentionsDataset.mergeArrays(retentionsMLP, retentionsCNN);
+		float[] retentionsCNN = cnn.output(new INDArray[] { smiles, Nd4j.create(columnsRows) })[0].toFloatVector();
+		for (int m = from; m < to; m++) {
+			System.arraycopy(retentionsMLP, (m - from) * nColumns, result[m], offset, nColumns);
+			System.arraycopy(retentionsCNN, (m - from) * nColumns, result[m], offset + nColumns, nColumns);
+		}
+	}
+
+	/**
+	 * Retention indices predicted by the base neural networks for all polar and
+	 * non-polar columns. Molecules are processed in batches of
+	 * MAX_SWEEP_ROWS/(number of columns) molecules.
+	 */
+	private float[][] retentionsForAllColumns(float[][] descriptors, float[][] fingerprints, int[][] tokens) {
+		int nPolar = MAX_COLUMN_NUMBER + 1 - MIN_POLAR_COLUMN_NUMBER;
+		int nNonpolar = MAX_COLUMN_NUMBER + 1;
+		float[][] result = new float[descriptors.length][2 * nPolar + 2 * nNonpolar];
+		int step = Math.max(1, MAX_SWEEP_ROWS / nNonpolar);
+		for (int from = 0; from < descriptors.length; from += step) {
+			int to = Math.min(descriptors.length, from + step);
+			retentionForAllColumns(descriptors, fingerprints, tokens, from, to, MIN_POLAR_COLUMN_NUMBER, polarmlp,
+					polarcnn, result, 0);
+			retentionForAllColumns(descriptors, fingerprints, tokens, from, to, 0, nonpolarmlp, nonpolarcnn, result,
+					2 * nPolar);
+		}
+		return result;
 	}
 
-	private float[] features(RetentionsDataset dataSet, int entry) throws CDKException {
-		float[] descriptors = RetentionsDataset.mergeArrays(dataSet.descriptorsNoNaNs(entry, getDescriptorsGenerator()),
-				dataSet.funcGroups(entry));
+	private float[][] features(RetentionsDataset dataSet, int[] indices) throws CDKException {
+		return features(dataSet, indices, true);
+	}
 
+	/**
+	 * Input features for multiple entries. Retention indices predicted by the
+	 * base neural networks are taken from the feature cache (see setFeatureCache)
+	 * if possible, the others are computed in large batches. fillCache - add
+	 * computed values to the cache (FALSE if the rows are persisted by the
+	 * feature store).
+	 */
+	private float[][] features(RetentionsDataset dataSet, int[] indices, boolean fillCache) throws CDKException {
+		float[][] descriptors = new float[indices.length][];
+		for (int i = 0; i < indices.length; i++) {
+			descriptors[i] = RetentionsDataset.mergeArrays(
+					dataSet.descriptorsNoNaNs(indices[i], getDescriptorsGenerator()), dataSet.funcGroups(indices[i]));
+		}
 		if (useOnlyDescriptors) {
 			return descriptors;
 		}
-		float[] fingerprints = dataSet.fingerprints(Chemoinformatics.FingerprintsType.ADDITIVE_CIRCULAR_4_1024_NO_SCALE,
-				entry);
-		float[][] smiles = new float[Chemoinformatics.SMILES_TOKENS][Chemoinformatics.SMILES_LEN];
-		int[] tokens = Chemoinformatics.tokenize(dataSet.getSmiles(entry));
-		for (int j = 0; j < tokens.length; j++) {
-			smiles[tokens[j]][j] = 1.0F;
+		float[][] retentions = new float[indices.length][];
+		int nMissing = 0;
+		for (int i = 0; i < indices.length; i++) {
+			if (featureCache != null) {
+				retentions[i] = featureCache.get(dataSet.getSmiles(indices[i]));
+			}
+			if (retentions[i] == null) {
+				nMissing++;
+			}
+		}
+		if (nMissing != 0) {
+			int[] missing = new int[nMissing];
+			float[][] missingDescriptors = new float[nMissing][];
+			float[][] fingerprints = new float[nMissing][];
+			int[][] tokens = new int[nMissing][];
+			int k = 0;
+			for (int i = 0; i < indices.length; i++) {
+				if (retentions[i] == null) {
+					missing[k] = i;
+					missingDescriptors[k] = descriptors[i];
+					fingerprints[k] = dataSet.fingerprints(
+							Chemoinformatics.FingerprintsType.ADDITIVE_CIRCULAR_4_1024_NO_SCALE, indices[i]);
+					tokens[k] = dataSet.tokens(indices[i]);
+					k++;
+				}
+			}
+			float[][] computed = retentionsForAllColumns(missingDescriptors, fingerprints, tokens);
+			for (k = 0; k < nMissing; k++) {
+				retentions[missing[k]] = computed[k];
+				if ((featureCache != null) && fillCache) {
+					featureCache.put(dataSet.getSmiles(indices[missing[k]]), computed[k]);
+				}
+			}
+		}
+		float[][] result = new float[indices.length][];
+		for (int i = 0; i < indices.length; i++) {
+			result[i] = useOnlyRetentionIndices ? retentions[i]
+					: RetentionsDataset.mergeArrays(descriptors[i], retentions[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Persistent cache of retention indices predicted by the base neural networks
+	 * (see SecondLevelFeatureCache). Neural networks (see setNeuralNetworks) and
+	 * descriptors generator must be set before this call. The cache is saved
+	 * after computation of the training set features (see init methods) and by
+	 * saveFeatureCache(). If the feature store is set too (see setFeatureStore),
+	 * the store wins: training set rows are read from the store first, the cache
+	 * is only read for rows missing from the store, and rows which are added to
+	 * the store are not added to the cache. The cache then holds only
+	 * predictions for other compounds (e.g. predictBatch).
+	 * 
+	 * @param filename cache file name. null - no cache.
+	 * @throws IOException IO
+	 */
+	public void setFeatureCache(String filename) throws IOException {
+		if (filename == null) {
+			featureCache = null;
+			return;
+		}
+		String key = SecondLevelFeatureCache.key(
+				new ComputationGraph[] { polarcnn, polarmlp, nonpolarcnn, nonpolarmlp },
+				getDescriptorsGenerator().getMinMaxArray().getLeft(),
+				getDescriptorsGenerator().getMinMaxArray().getRight());
+		featureCache = SecondLevelFeatureCache.open(filename, key);
+		System.out.println("Second-level feature cache: " + featureCache.size() + " molecules");
+	}
+
+	/**
+	 * Save the feature cache (see setFeatureCache), if it is set.
+	 * 
+	 * @throws IOException IO
+	 */
+	public void saveFeatureCache() throws IOException {
+		if (featureCache != null) {
+			featureCache.save();
+		}
+	}
+
+	/**
+	 * Persistent store of input features of the training sets (see
+	 * SecondLevelFeatureStore). Features for compounds of the store are read
+	 * from the memory-mapped file instead of computation (see init methods and
+	 * crossValidation). Features of the other compounds are computed and added
+	 * to the store. The key should identify the neural networks and descriptors,
+	 * e.g. SecondLevelFeatureStore.fileHash(files of neural networks, descriptors
+	 * file). Feature settings (see setUseOnlyDescriptors and
+	 * setUseOnlyRetentionIndices) are added to the key automatically. The store
+	 * takes precedence over the feature cache (see setFeatureCache). If the key
+	 * of the existing file differs, the file is replaced. The store is never
+	 * rewritten in place: each update is a new generation file (see
+	 * SecondLevelFeatureStore.write), so the mapped previous version stays valid
+	 * until it is released.
+	 * 
+	 * @param filename file name. null - no store.
+	 * @param key      key of neural networks and descriptors
+	 * @throws IOException IO
+	 */
+	public void setFeatureStore(String filename, String key) throws IOException {
+		featureStoreFile = filename;
+		featureStoreKey = key;
+		featureStore = filename == null ? null : SecondLevelFeatureStore.open(filename);
+		if (featureStore != null) {
+			System.out.println("Second-level feature store: " + featureStore.size() + " molecules");
+		}
+	}
+
+	private String fullFeatureStoreKey() {
+		return featureStoreKey + " " + useOnlyDescriptors + " " + useOnlyRetentionIndices;
+	}
+
+	/**
+	 * Features from the store or null if the store is not set, doesn't contain
+	 * this compound or was created with other key.
+	 */
+	private double[] storedFeatures(String smiles) {
+		if ((featureStore == null) || (!featureStore.getKey().equals(fullFeatureStoreKey()))) {
+			return null;
+		}
+		return featureStore.get(smiles);
+	}
+
+	/**
+	 * Write the store with the old entries (if the key is the same) and the
+	 * computed rows of the data set.
+	 */
+	private void updateFeatureStore(RetentionsDataset dataset, double[][] features, ArrayList<Integer> computed)
+			throws IOException {
+		String key = fullFeatureStoreKey();
+		ArrayList<String> smiles = new ArrayList<String>();
+		ArrayList<double[]> rows = new ArrayList<double[]>();
+		HashSet<String> added = new HashSet<String>();
+		if ((featureStore != null) && featureStore.getKey().equals(key)) {
+			for (int i = 0; i < featureStore.size(); i++) {
+				smiles.add(featureStore.getSmiles(i));
+				rows.add(featureStore.row(i));
+				added.add(featureStore.getSmiles(i));
+			}
+		}
+		for (int i : computed) {
+			if (added.add(dataset.getSmiles(i))) {
+				smiles.add(dataset.getSmiles(i));
+				rows.add(features[i]);
+			}
 		}
+		SecondLevelFeatureStore.write(featureStoreFile, key, smiles, rows);
+		featureStore = SecondLevelFeatureStore.open(featureStoreFile);
+	}
 
-		float[] polarOut = retentionForAllColumns(fingerprints, descriptors, smiles, MIN_POLAR_COLUMN_NUMBER, polarmlp,
-				polarcnn);
-		float[] nonpolarOut = retentionForAllColumns(fingerprints, descriptors, smiles, 0, nonpolarmlp, nonpolarcnn);
-		if (!useOnlyRetentionIndices) {
-			return RetentionsDataset.mergeArrays(descriptors, RetentionsDataset.mergeArrays(polarOut, nonpolarOut));
+	@Override
+	public Featurizer featurizer() {
+		Featurizer result = Featurizer.instance().require(Featurizer.FeatureBlock.FUNC_GROUPS)
+				.requireDescriptors(getDescriptorsGenerator());
+		if (!useOnlyDescriptors) {
+			result.require(Featurizer.FeatureBlock.TOKENS)
+					.requireFingerprints(Chemoinformatics.FingerprintsType.ADDITIVE_CIRCULAR_4_1024_NO_SCALE);
 		}
-		return RetentionsDataset.mergeArrays(polarOut, nonpolarOut);
+		return result;
 	}
 
 	/**
@@ -458,7 +723,7 @@ public abstract class SecondLevelModelForPolar extends Model {
 	 * @throws CDKException
 	 */
 	public double[] featuresDouble(RetentionsDataset dataSet, int entry) throws CDKException {
-		float[] f = features(dataSet, entry);
+		float[] f = features(dataSet, new int[] { entry })[0];
 		double[] result = new double[f.length];
 		for (int i = 0; i < result.length; i++) {
 			result[i] = f[i];
@@ -466,13 +731,47 @@ public abstract class SecondLevelModelForPolar extends Model {
 		return result;
 	}
 
-	private Pair<double[][], double[]> dataSetToDouble(RetentionsDataset dataset) throws CDKException {
+	Pair<double[][], double[]> dataSetToDouble(RetentionsDataset dataset) throws CDKException {
 		double[][] resultFeatures = new double[dataset.size()][];
 		double[] resultLabels = new double[dataset.size()];
+		ArrayList<Integer> missing = new ArrayList<Integer>();
 		for (int i = 0; i < resultFeatures.length; i++) {
-			resultFeatures[i] = featuresDouble(dataset, i);
+			resultFeatures[i] = storedFeatures(dataset.getSmiles(i));
+			if (resultFeatures[i] == null) {
+				missing.add(i);
+			}
 			resultLabels[i] = dataset.getRetention(i);
 		}
+		int batchSize = getPredictionBatchSize();
+		for (int start = 0; start < missing.size(); start += batchSize) {
+			int end = Math.min(missing.size(), start + batchSize);
+			int[] batch = new int[end - start];
+			for (int i = 0; i < batch.length; i++) {
+				batch[i] = missing.get(start + i);
+			}
+			RetentionsDataset batchSet = featurizedSubset(dataset, batch);
+			float[][] f = features(batchSet, range(batch.length), featureStoreFile == null);
+			for (int i = 0; i < batch.length; i++) {
+				resultFeatures[batch[i]] = new double[f[i].length];
+				for (int j = 0; j < f[i].length; j++) {
+					resultFeatures[batch[i]][j] = f[i][j];
+				}
+			}
+		}
+		if ((featureStoreFile != null) && (!missing.isEmpty())) {
+			try {
+				updateFeatureStore(dataset, resultFeatures, missing);
+			} catch (IOException e) {
+				System.out.println("Second-level feature store was not saved: " + e.getMessage());
+			}
+		}
+		if (featureCache != null) {
+			try {
+				featureCache.save();
+			} catch (IOException e) {
+				System.out.println("Second-level feature cache was not saved: " + e.getMessage());
+			}
+		}
 		return Pair.of(resultFeatures, resultLabels);
 	}
 
@@ -485,20 +784,67 @@ public abstract class SecondLevelModelForPolar extends Model {
 		return trainSetDouble;
 	}
 
-	private DataFrame doubleDatasetToDataFrame(Pair<double[][], double[]> data) {
-		double[][] features = data.getLeft();
-		double[] retentionsFlat = data.getRight();
-		double[][] retentions = new double[features.length][1];
+	private void setTrainSetDouble(Pair<double[][], double[]> trainSetDouble_) {
+		trainSetDouble = trainSetDouble_;
+		trainSetDataFrame = null;
+	}
 
-		String[] names = new String[features[0].length];
-		for (int i = 0; i < names.length; i++) {
-			names[i] = "" + i;
+	/**
+	 * Use the training set of other instance (read-only, see SecondLevelTuning).
+	 */
+	void shareTrainSet(Pair<double[][], double[]> trainSetDouble_, DataFrame trainSetDataFrame_) {
+		trainSetDouble = trainSetDouble_;
+		trainSetDataFrame = trainSetDataFrame_;
+	}
+
+	/**
+	 * Column names "0", "1", ... Names are created once and shared by all data
+	 * frames.
+	 */
+	private static synchronized String[] featureNames(int n) {
+		if (featureNames.length < n) {
+			String[] names = Arrays.copyOf(featureNames, n);
+			for (int i = featureNames.length; i < n; i++) {
+				names[i] = "" + i;
+			}
+			featureNames = names;
 		}
+		return featureNames;
+	}
+
+	/**
+	 * DataFrame with columns "label" (if labels != null), "0", "1", ... Column
+	 * arrays are wrapped by the data frame without copying.
+	 */
+	private static DataFrame columnsToDataFrame(double[] labels, double[][] columns) {
+		String[] names = featureNames(columns.length);
+		int offset = labels == null ? 0 : 1;
+		DoubleVector[] vectors = new DoubleVector[columns.length + offset];
+		if (labels != null) {
+			vectors[0] = DoubleVector.of("label", labels);
+		}
+		for (int j = 0; j < columns.length; j++) {
+			vectors[j + offset] = DoubleVector.of(names[j], columns[j]);
+		}
+		return DataFrame.of(vectors);
+	}
+
+	/**
+	 * Transpose rows of features to column-major matrix.
+	 */
+	private static double[][] columns(double[][] features) {
+		double[][] columns = new double[features[0].length][features.length];
 		for (int i = 0; i < features.length; i++) {
-			retentions[i] = new double[] { retentionsFlat[i] };
+			double[] row = features[i];
+			for (int j = 0; j < row.length; j++) {
+				columns[j][i] = row[j];
+			}
 		}
-		DataFrame dataFrame = DataFrame.of(retentions, "label").merge(DataFrame.of(features, names));
-		return dataFrame;
+		return columns;
+	}
+
+	static DataFrame doubleDatasetToDataFrame(Pair<double[][], double[]> data) {
+		return columnsToDataFrame(data.getRight(), columns(data.getLeft()));
 	}
 
 	private static RetentionsDataset[] cvSplit(int n, RetentionsDataset data) throws CDKException {
@@ -513,11 +859,17 @@ public abstract class SecondLevelModelForPolar extends Model {
 	}
 
 	/**
+	 * The data frame is built once from the column-major copy of the training
+	 * set and reused by subsequent calls until the training set changes (e.g.
+	 * during hyperparameters tuning). Don't modify it!
 	 * 
 	 * @return train set as DataFrame for Smile framework
 	 */
 	public DataFrame trainSetAsDataFrame() {
-		return doubleDatasetToDataFrame(trainSetDouble);
+		if (trainSetDataFrame == null) {
+			trainSetDataFrame = doubleDatasetToDataFrame(trainSetDouble);
+		}
+		return trainSetDataFrame;
 	}
 
 	/**
@@ -527,65 +879,80 @@ public abstract class SecondLevelModelForPolar extends Model {
 	 *         framework
 	 */
 	public static DataFrame doubleFeaturesToDataFrame(double[] features) {
-		String[] names = new String[features.length];
-		for (int i = 0; i < names.length; i++) {
-			names[i] = "" + i;
-		}
-		DataFrame dataFrame = DataFrame.of(new double[][] { features }, names);
-		return dataFrame;
+		return doubleFeaturesToDataFrame(new double[][] { features });
+	}
+
+	/**
+	 * 
+	 * @param features double arrays, one row per entry
+	 * @return features double arrays converted to DataFrame object for Smile
+	 *         framework
+	 */
+	public static DataFrame doubleFeaturesToDataFrame(double[][] features) {
+		return columnsToDataFrame(null, columns(features));
 	}
 
 	/**
-	 * Random hyperparameters tuning
+	 * Random hyperparameters tuning (SecondLevelTuning with RANDOM strategy):
+	 * configurations are trained concurrently, only the best model is saved. See
+	 * SecondLevelTuning for other settings and successive halving.
 	 * @param nAttempts number of tries
 	 * @param bestModelFileName save best model to this file
-	 * @param paramTuningLogFile log file name
+	 * @param paramTuningLogFile log file name (see SecondLevelTuning.RESULTS_HEADER)
 	 * @return best hyperparameters
 	 * @throws IOException io
 	 * @throws CDKException cdk
 	 */
 	public HashMap<String, Object> hyperParametersTuning(int nAttempts, String bestModelFileName,
 			String paramTuningLogFile) throws IOException, CDKException {
-		float bestResult = Float.POSITIVE_INFINITY;
-		HashMap<String, Object> bestParameters = null;
-		FileWriter log = null;
-		if (paramTuningLogFile != null) {
-			log = new FileWriter(paramTuningLogFile);
-		}
-		for (int i = 0; i < nAttempts; i++) {
-			HashMap<String, Object> parameters = randomParameters();
-			String validationString = this.train(parameters);
-			float mae = this.mae(validationString);
-			if (mae < bestResult) {
-				bestResult = mae;
-				bestParameters = parameters;
-				if (bestModelFileName != null) {
-					this.save(bestModelFileName);
-				}
-			}
-			if (log != null) {
-				log.write(paramsToString(parameters) + " " + validationString + "\n");
-				log.flush();
-			}
-		}
-		if (bestModelFileName != null) {
-			this.load(bestModelFileName);
-		}
-		if (log != null) {
-			log.close();
+		return SecondLevelTuning.instance(this).setStrategy(SecondLevelTuning.Strategy.RANDOM)
+				.setConfigurations(nAttempts).tune(bestModelFileName, paramTuningLogFile);
+	}
+
+	/**
+	 * Number of folds of cross-validation which are trained concurrently (see
+	 * crossValidation). Default - number of available processors.
+	 * 
+	 * @param crossValidationThreads number of threads
+	 */
+	public void setCrossValidationThreads(int crossValidationThreads) {
+		this.crossValidationThreads = Math.max(1, crossValidationThreads);
+	}
+
+	/**
+	 * New untrained instance of the same class with the same neural networks,
+	 * descriptors generator and feature settings.
+	 */
+	SecondLevelModelForPolar newInstanceWithSameSettings() {
+		SecondLevelModelForPolar result;
+		try {
+			result = this.getClass().getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new RuntimeException(e.getMessage());
 		}
-		return bestParameters;
+		result.setPretrainedModelsFrom(this);
+		result.setDescriptorsGenerator(this.getDescriptorsGenerator());
+		result.useOnlyDescriptors = this.useOnlyDescriptors;
+		result.useOnlyRetentionIndices = this.useOnlyRetentionIndices;
+		return result;
 	}
 
 	/**
-	 * Cross-validation
-	 * @param params hyperparameters
-	 * @param n number of folds
-	 * @param data data set for cross-validation
+	 * Cross-validation. Input features (including retention indices predicted by
+	 * neural networks) are computed once for the whole data set, then each fold
+	 * model is trained on the rows of the other folds (compounds of the test fold
+	 * are excluded using canonical SMILES and InChI, see
+	 * RetentionsDataset.filterIdentical and filterIdenticalByInchi). Fold models
+	 * are independent instances of this class trained concurrently (see
+	 * setCrossValidationThreads). This model is not changed.
+	 * 
+	 * @param params          hyperparameters
+	 * @param n               number of folds
+	 * @param data            data set for cross-validation
 	 * @param predictionsFile output file (for creation of plot)
 	 * @return overall accuracy
 	 * @throws CDKException cdk
-	 * @throws IOException io
+	 * @throws IOException  io
 	 */
 	public String crossValidation(HashMap<String, Object> params, int n, RetentionsDataset data, String predictionsFile)
 			throws CDKException, IOException {
@@ -598,61 +965,68 @@ public abstract class SecondLevelModelForPolar extends Model {
 			}
 		}
 
-		ArrayList<Float> deviations = new ArrayList<Float>();
-		ArrayList<Float> percentageErrors = new ArrayList<Float>();
 		RetentionsDataset testSets[] = cvSplit(n, data);
-		String[] metrics = new String[n];
-		RetentionsDataset oldTrain = this.getTrainSet();
-		RetentionsDataset oldVal = this.getValidationSet();
+		HashMap<String, Integer> foldOfCompound = new HashMap<String, Integer>();
+		for (int i = 0; i < n; i++) {
+			for (String smiles : testSets[i].compounds()) {
+				foldOfCompound.put(smiles, i);
+			}
+		}
+		HashMap<String, String> canonical = new HashMap<String, String>();
+		HashMap<String, String> inchi = new HashMap<String, String>();
+		for (String smiles : data.compounds()) {
+			canonical.put(smiles, Chemoinformatics.canonical(smiles, true).trim());
+			inchi.put(smiles, Chemoinformatics.smilesToInchi(smiles).trim());
+		}
+		Pair<double[][], double[]> all = dataSetToDouble(data);
 
+		ThreadPoolExecutor pool = Parallel.daemonPool(Math.min(n, crossValidationThreads), "cross-validation");
+		ArrayList<Future<ValidationReport>> futures = new ArrayList<Future<ValidationReport>>();
 		for (int i = 0; i < n; i++) {
-			RetentionsDataset train = data.copy();
-			RetentionsDataset test = testSets[i];
-			train.filterIdentical(test);
-			train.filterIdenticalByInchi(test);
-			// validation set - one compound. zero is not allowed while really we DO NOT
-			// NEED a validation set
-			this.init(train, train.compoundsBasedSplitAndShuffle(1), this.getDescriptorsGenerator());
-			this.train(params);
-			int j = 0;
-			float[] deviationsSubset = new float[test.size()];
-			float[] percentageErrorsSubset = new float[test.size()];
-			while (j < test.size()) {
-				float testretention = test.getRetention(j);
-				float retentionOut = predictRI(test, j);
-				deviationsSubset[j] = Math.abs(testretention - retentionOut);
-				percentageErrorsSubset[j] = Math.abs(100 * (testretention - retentionOut) / testretention);
-				if (makePred) {
-					pred.write(test.getSmiles(j) + " " + testretention + " " + retentionOut + "\n");
+			HashSet<String> testCanonical = new HashSet<String>();
+			HashSet<String> testInchi = new HashSet<String>();
+			ArrayList<Integer> test = new ArrayList<Integer>();
+			ArrayList<Integer> train = new ArrayList<Integer>();
+			for (int j = 0; j < data.size(); j++) {
+				String smiles = data.getSmiles(j).trim();
+				if (foldOfCompound.get(smiles) == i) {
+					test.add(j);
+					testCanonical.add(canonical.get(smiles));
+					testInchi.add(inchi.get(smiles));
 				}
-				j++;
 			}
-			float rmse = 0.0F;
-			for (int qj = 0; qj < test.size(); qj++) {
-				rmse += deviationsSubset[qj] * deviationsSubset[qj];
-				deviations.add(deviationsSubset[qj]);
-				percentageErrors.add(percentageErrorsSubset[qj]);
+			for (int j = 0; j < data.size(); j++) {
+				String smiles = data.getSmiles(j).trim();
+				if ((!testCanonical.contains(canonical.get(smiles))) && (!testInchi.contains(inchi.get(smiles)))) {
+					train.add(j);
+				}
 			}
-			rmse = (float) Math.sqrt(rmse / test.size());
-
-			metrics[i] = "RMSE: " + rmse + " MAE: " + RetentionsDataset.mean(deviationsSubset) + " MPE: "
-					+ RetentionsDataset.mean(percentageErrorsSubset) + " MdAE: "
-					+ RetentionsDataset.median(deviationsSubset) + " MdPE: "
-					+ RetentionsDataset.median(percentageErrorsSubset);
-		}
-
-		float[] deviationsFloat = new float[deviations.size()];
-		float[] percentageErrorsFloat = new float[percentageErrors.size()];
-		float rmse = 0.0F;
-		for (int i = 0; i < deviations.size(); i++) {
-			deviationsFloat[i] = deviations.get(i);
-			percentageErrorsFloat[i] = percentageErrors.get(i);
-			rmse += deviationsFloat[i] * deviationsFloat[i];
-		}
-		rmse = (float) Math.sqrt(rmse / deviations.size());
-		String result = "RMSE: " + rmse + " MAE: " + RetentionsDataset.mean(deviationsFloat) + " MPE: "
-				+ RetentionsDataset.mean(percentageErrorsFloat) + " MdAE: " + RetentionsDataset.median(deviationsFloat)
-				+ " MdPE: " + RetentionsDataset.median(percentageErrorsFloat);
+			SecondLevelModelForPolar foldModel = newInstanceWithSameSettings();
+			futures.add(pool.submit(() -> foldModel.crossValidationFold(params, all, data, train, test)));
+		}
+		ValidationReport[] reports = new ValidationReport[n];
+		String[] metrics = new String[n];
+		try {
+			for (int i = 0; i < n; i++) {
+				reports[i] = futures.get(i).get();
+				if (makePred) {
+					for (int j = 0; j < reports[i].size(); j++) {
+						pred.write(reports[i].getSmiles(j) + " " + reports[i].getActual(j) + " "
+								+ reports[i].getPredicted(j) + "\n");
+					}
+				}
+				metrics[i] = reports[i].toString();
+			}
+		} catch (InterruptedException e) {
+			throw new CDKException(e.getMessage());
+		} catch (ExecutionException e) {
+			throw new CDKException(e.getCause().getMessage());
+		} finally {
+			pool.shutdownNow();
+		}
+
+		ValidationReport cv = ValidationReport.merge(reports);
+		String result = cv.toString();
 		if (makePred) {
 			for (int i = 0; i < n; i++) {
 				pred.write("Subset" + i + " " + metrics[i] + "\n");
@@ -663,13 +1037,39 @@ public abstract class SecondLevelModelForPolar extends Model {
 		for (int i = 0; i < n; i++) {
 			System.out.print("Subset" + i + " " + metrics[i] + "\n");
 		}
-		System.out.println("\nCV " + result);
-		this.setTrainSet(oldTrain);
-		this.setValidationSet(oldVal);
+		System.out.println("\nCV " + cv.summary());
 		return (result);
 	}
 
-	private String paramsToString(HashMap<String, Object> params) {
+	/**
+	 * Train this (fold) model on some rows of precomputed features and predict
+	 * the others.
+	 */
+	private ValidationReport crossValidationFold(HashMap<String, Object> params, Pair<double[][], double[]> all,
+			RetentionsDataset data, ArrayList<Integer> train, ArrayList<Integer> test) {
+		double[][] trainFeatures = new double[train.size()][];
+		double[] trainLabels = new double[train.size()];
+		for (int j = 0; j < trainFeatures.length; j++) {
+			trainFeatures[j] = all.getLeft()[train.get(j)];
+			trainLabels[j] = all.getRight()[train.get(j)];
+		}
+		setTrainSetDouble(Pair.of(trainFeatures, trainLabels));
+		fit(params);
+		int[] testIndices = new int[test.size()];
+		double[][] testFeatures = new double[test.size()][];
+		for (int j = 0; j < testIndices.length; j++) {
+			testIndices[j] = test.get(j);
+			testFeatures[j] = all.getLeft()[test.get(j)];
+		}
+		double[] predicted = testFeatures.length == 0 ? new double[0] : predict(testFeatures);
+		float[] predictions = new float[predicted.length];
+		for (int j = 0; j < predictions.length; j++) {
+			predictions[j] = (float) predicted[j];
+		}
+		return ValidationReport.instance(data.subset(testIndices), predictions);
+	}
+
+	static String paramsToString(HashMap<String, Object> params) {
 		String result = "";
 		for (Map.Entry<String, Object> e : params.entrySet()) {
 			result += e.getKey() + " " + e.getValue() + " ";
@@ -0,0 +1,404 @@
+package ru.ac.phyche.gcms.svekla;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.openscience.cdk.exception.CDKException;
+
+import smile.data.DataFrame;
+
+/**
+ * Concurrent random hyperparameters search for second-level models (see
+ * SecondLevelModelForPolar). Random configurations (see randomParameters() of
+ * the model) are trained concurrently by independent instances of the model
+ * class. All instances share the training set of the model as read-only double
+ * arrays and Smile DataFrame (see SecondLevelModelForPolar.init). Input features
+ * of the validation set are computed once.
+ *
+ * Search strategies: RANDOM - all configurations are trained using the whole
+ * training set; SUCCESSIVE_HALVING - configurations are trained using a random
+ * part of the training set, after each rung the best 1/reduction of
+ * configurations pass to the next rung with reduction times larger part of the
+ * training set. The last rung uses the whole training set.
+ *
+ * Finally the best model is saved and loaded to the model. Results of all
+ * configurations (see getResults) are written to the log file as tab separated
+ * values, one line per configuration per rung.
+ *
+ */
+public class SecondLevelTuning {
+
+	/**
+	 * Search strategy
+	 *
+	 */
+	public static enum Strategy {
+		RANDOM, SUCCESSIVE_HALVING
+	};
+
+	private SecondLevelModelForPolar model;
+	private Strategy strategy = Strategy.RANDOM;
+	private int configurations = 27;
+	private int reduction = 3;
+	private float minTrainSetFraction = 0.1F;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private ArrayList<Result> results = new ArrayList<Result>();
+	private Result best = null;
+
+	/**
+	 * Validation results of one configuration in one rung
+	 *
+	 */
+	public static class Result {
+		private final int rung;
+		private final int configuration;
+		private final int trainSetSize;
+		private final HashMap<String, Object> parameters;
+		private final ValidationMetrics metrics;
+		private final long time;
+		private SecondLevelModelForPolar trained;
+
+		private Result(int rung, int configuration, int trainSetSize, HashMap<String, Object> parameters,
+				ValidationMetrics metrics, long time, SecondLevelModelForPolar trained) {
+			this.rung = rung;
+			this.configuration = configuration;
+			this.trainSetSize = trainSetSize;
+			this.parameters = parameters;
+			this.metrics = metrics;
+			this.time = time;
+			this.trained = trained;
+		}
+
+		/**
+		 *
+		 * @return number of rung (0 for RANDOM strategy)
+		 */
+		public int getRung() {
+			return rung;
+		}
+
+		/**
+		 *
+		 * @return number of configuration
+		 */
+		public int getConfiguration() {
+			return configuration;
+		}
+
+		/**
+		 *
+		 * @return number of training set entries used for training
+		 */
+		public int getTrainSetSize() {
+			return trainSetSize;
+		}
+
+		/**
+		 *
+		 * @return hyperparameters
+		 */
+		public HashMap<String, Object> getParameters() {
+			return parameters;
+		}
+
+		/**
+		 *
+		 * @return accuracy measures for the validation set
+		 */
+		public ValidationMetrics getMetrics() {
+			return metrics;
+		}
+
+		/**
+		 *
+		 * @return training and validation time, ms
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		@Override
+		public String toString() {
+			return rung + "\t" + configuration + "\t" + trainSetSize + "\t" + metrics.getMae() + "\t"
+					+ metrics.getRmse() + "\t" + metrics.getMdae() + "\t" + time + "\t"
+					+ SecondLevelModelForPolar.paramsToString(parameters).trim();
+		}
+	}
+
+	/**
+	 * Header of the results table (see Result.toString())
+	 */
+	public static final String RESULTS_HEADER = "rung\tconfiguration\ttrain_set_size\tvalidation_MAE\tvalidation_RMSE"
+			+ "\tvalidation_MdAE\ttime_ms\tparameters";
+
+	/**
+	 *
+	 * @param model second-level model. It must be initialized (see
+	 *              SecondLevelModelForPolar.init)
+	 * @return new instance
+	 */
+	public static SecondLevelTuning instance(SecondLevelModelForPolar model) {
+		SecondLevelTuning result = new SecondLevelTuning();
+		result.model = model;
+		return result;
+	}
+
+	/**
+	 *
+	 * @param strategy search strategy
+	 * @return this instance
+	 */
+	public SecondLevelTuning setStrategy(Strategy strategy) {
+		this.strategy = strategy;
+		return this;
+	}
+
+	/**
+	 *
+	 * @param configurations number of random configurations (in the first rung)
+	 * @return this instance
+	 */
+	public SecondLevelTuning setConfigurations(int configurations) {
+		this.configurations = Math.max(1, configurations);
+		return this;
+	}
+
+	/**
+	 *
+	 * @param reduction only 1/reduction of configurations pass to the next rung,
+	 *                  part of the training set is multiplied by reduction
+	 *                  (SUCCESSIVE_HALVING strategy)
+	 * @return this instance
+	 */
+	public SecondLevelTuning setReduction(int reduction) {
+		this.reduction = Math.max(2, reduction);
+		return this;
+	}
+
+	/**
+	 *
+	 * @param minTrainSetFraction the smallest part of the training set used in the
+	 *                            first rung (SUCCESSIVE_HALVING strategy)
+	 * @return this instance
+	 */
+	public SecondLevelTuning setMinTrainSetFraction(float minTrainSetFraction) {
+		this.minTrainSetFraction = Math.max(0, Math.min(1, minTrainSetFraction));
+		return this;
+	}
+
+	/**
+	 *
+	 * @param threads number of configurations which are trained concurrently
+	 * @return this instance
+	 */
+	public SecondLevelTuning setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+		return this;
+	}
+
+	/**
+	 *
+	 * @return results of all configurations in all rungs (after tune method
+	 *         call), sorted by rung and validation MAE
+	 */
+	public ArrayList<Result> getResults() {
+		return results;
+	}
+
+	/**
+	 *
+	 * @return results table: RESULTS_HEADER and one line per result (after tune
+	 *         method call)
+	 */
+	public String resultsTable() {
+		String result = RESULTS_HEADER + "\n";
+		for (Result r : results) {
+			result += r + "\n";
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 * @return the best configuration (after tune method call)
+	 */
+	public HashMap<String, Object> getBestParameters() {
+		return best == null ? null : best.parameters;
+	}
+
+	/**
+	 *
+	 * @return validation accuracy for the best configuration (after tune method
+	 *         call)
+	 */
+	public ValidationMetrics getBestMetrics() {
+		return best == null ? null : best.metrics;
+	}
+
+	/**
+	 * Part of the training set used in the first rung.
+	 */
+	private float firstRungFraction() {
+		if (strategy == Strategy.RANDOM) {
+			return 1.0F;
+		}
+		float fraction = 1.0F;
+		for (int n = configurations; n >= reduction; n = n / reduction) {
+			fraction = fraction / reduction;
+		}
+		return Math.max(minTrainSetFraction, fraction);
+	}
+
+	private Result train(int rung, int configuration, HashMap<String, Object> parameters,
+			Pair<double[][], double[]> trainSet, DataFrame trainSetFrame, double[][] validationFeatures)
+			throws CDKException {
+		long time = System.currentTimeMillis();
+		SecondLevelModelForPolar m = model.newInstanceWithSameSettings();
+		m.shareTrainSet(trainSet, trainSetFrame);
+		m.fit(parameters);
+		double[] predicted = m.predict(validationFeatures);
+		float[] predictions = new float[predicted.length];
+		for (int i = 0; i < predictions.length; i++) {
+			predictions[i] = (float) predicted[i];
+		}
+		ValidationMetrics metrics = ValidationReport.instance(model.getValidationSet(), predictions).getMetrics();
+		return new Result(rung, configuration, trainSet.getLeft().length, parameters, metrics,
+				System.currentTimeMillis() - time, m);
+	}
+
+	/**
+	 * Search hyperparameters. The best trained instance is saved to
+	 * bestModelFileName (or to a temporary file) and loaded to the model.
+	 *
+	 * @param bestModelFileName file name to which the best model will be saved.
+	 *                          Can be null.
+	 * @param logFile           log file name. Can be null.
+	 * @return the best set of hyperparameters
+	 * @throws IOException  IO
+	 * @throws CDKException CDK, exceptions during training
+	 */
+	public HashMap<String, Object> tune(String bestModelFileName, String logFile) throws IOException, CDKException {
+		Pair<double[][], double[]> trainSet = model.getTrainSetDouble();
+		if ((trainSet == null) || (model.getValidationSet() == null) || (model.getValidationSet().size() == 0)) {
+			throw new CDKException("Second-level model is not initialized");
+		}
+		FileWriter log = null;
+		if (logFile != null) {
+			log = new FileWriter(logFile);
+			log.write(RESULTS_HEADER + "\n");
+			log.flush();
+		}
+		double[][] validationFeatures = model.dataSetToDouble(model.getValidationSet()).getLeft();
+		ArrayList<HashMap<String, Object>> parameters = new ArrayList<HashMap<String, Object>>();
+		ArrayList<Integer> rung = new ArrayList<Integer>();
+		for (int i = 0; i < configurations; i++) {
+			parameters.add(model.randomParameters());
+			rung.add(i);
+		}
+		ArrayList<Integer> order = new ArrayList<Integer>();
+		for (int i = 0; i < trainSet.getLeft().length; i++) {
+			order.add(i);
+		}
+		Collections.shuffle(order, new Random());
+
+		ThreadPoolExecutor pool = Parallel.daemonPool(threads, "second-level-tuning");
+		results.clear();
+		best = null;
+		try {
+			float fraction = firstRungFraction();
+			int rungNumber = 0;
+			while (true) {
+				Pair<double[][], double[]> subset = trainSet;
+				DataFrame subsetFrame = model.trainSetAsDataFrame();
+				if (fraction < 1) {
+					int n = Math.max(1, Math.round(fraction * order.size()));
+					double[][] features = new double[n][];
+					double[] labels = new double[n];
+					for (int i = 0; i < n; i++) {
+						features[i] = trainSet.getLeft()[order.get(i)];
+						labels[i] = trainSet.getRight()[order.get(i)];
+					}
+					subset = Pair.of(features, labels);
+					subsetFrame = SecondLevelModelForPolar.doubleDatasetToDataFrame(subset);
+				}
+				ArrayList<Future<Result>> futures = new ArrayList<Future<Result>>();
+				for (int c : rung) {
+					int r = rungNumber;
+					Pair<double[][], double[]> s = subset;
+					DataFrame f = subsetFrame;
+					futures.add(pool.submit(() -> train(r, c, parameters.get(c), s, f, validationFeatures)));
+				}
+				ArrayList<Result> rungResults = new ArrayList<Result>();
+				for (Future<Result> future : futures) {
+					Result r = future.get();
+					if ((best == null) || (r.metrics.getMae() < best.metrics.getMae())) {
+						if (best != null) {
+							best.trained = null;
+						}
+						best = r;
+					} else {
+						r.trained = null;
+					}
+					rungResults.add(r);
+				}
+				Collections.sort(rungResults, (a, b) -> Float.compare(a.metrics.getMae(), b.metrics.getMae()));
+				for (Result r : rungResults) {
+					System.out.println("Rung " + r.rung + " configuration " + r.configuration + " train set size "
+							+ r.trainSetSize + " " + r.metrics);
+					if (log != null) {
+						log.write(r + "\n");
+					}
+				}
+				if (log != null) {
+					log.flush();
+				}
+				results.addAll(rungResults);
+				if (fraction >= 1) {
+					break;
+				}
+				int survivors = Math.max(1, rungResults.size() / reduction);
+				rung = new ArrayList<Integer>();
+				for (int i = 0; i < survivors; i++) {
+					rung.add(rungResults.get(i).configuration);
+				}
+				fraction = Math.min(1.0F, fraction * reduction);
+				best.trained = null;
+				best = null;
+				rungNumber++;
+			}
+		} catch (InterruptedException e) {
+			throw new CDKException(e.getMessage());
+		} catch (ExecutionException e) {
+			throw new CDKException(e.getCause().getMessage());
+		} finally {
+			pool.shutdownNow();
+			if (log != null) {
+				log.close();
+			}
+		}
+		String filename = bestModelFileName;
+		if (filename == null) {
+			File tmp = File.createTempFile("secondLevelTuning", ".xml");
+			tmp.deleteOnExit();
+			filename = tmp.getAbsolutePath();
+		}
+		best.trained.save(filename);
+		best.trained = null;
+		model.load(filename);
+		if (bestModelFileName == null) {
+			(new File(filename)).delete();
+		}
+		System.out.println("Best configuration " + best.configuration + " "
+				+ SecondLevelModelForPolar.paramsToString(best.parameters) + best.metrics);
+		return best.parameters;
+	}
+}
@@ -115,10 +115,11 @@ public class StackingLinearMetaLearnerModel extends Model {
 		this.models = models_;
 		float[][] inputFeatures = new float[getTrainSet().size()][models.length];
 		float[][] retentions = new float[getTrainSet().size()][];
+		float[][] predicted = firstLevelPredictions(getTrainSet(), range(getTrainSet().size()));
 		for (int i = 0; i < getTrainSet().size(); i++) {
 			retentions[i] = new float[] { getTrainSet().getRetention(i) / 1000F };
 			for (int j = 0; j < models.length; j++) {
-				inputFeatures[i][j] = models[j].predictRI(getTrainSet(), i) / 1000F;
+				inputFeatures[i][j] = predicted[i][j] / 1000F;
 			}
 		}
 		this.trainFeaturesINDArray = Nd4j.create(inputFeatures);
@@ -203,6 +204,86 @@ public class StackingLinearMetaLearnerModel extends Model {
 		return 1000F * nn.output(Nd4j.create(input))[0].toFloatVector()[0];
 	}
 
+	/**
+	 * Union of feature blocks required by all 1-st level models. They are computed
+	 * once for all models.
+	 */
+	@Override
+	public Featurizer featurizer() {
+		Featurizer result = Featurizer.instance();
+		for (Model m : models) {
+			result.merge(m.featurizer());
+		}
+		return result;
+	}
+
+	@Override
+	public int getPredictionBatchSize() {
+		int result = super.getPredictionBatchSize();
+		for (Model m : models) {
+			result = Math.min(result, m.getPredictionBatchSize());
+		}
+		return result;
+	}
+
+	/**
+	 * Predictions of all 1-st level models for multiple entries of a data set.
+	 * Entries are split into batches, features required by all models are computed
+	 * for each batch once, then each 1-st level model predicts the batch.
+	 * 
+	 * @param dataSet data set
+	 * @param indices numbers of the entries in the data set
+	 * @return retention index values predicted with 1-st level models.
+	 *         result[i][j] - prediction of j-th model for indices[i]
+	 * @throws CDKException CDK
+	 */
+	public float[][] firstLevelPredictions(RetentionsDataset dataSet, int[] indices) throws CDKException {
+		float[][] result = new float[indices.length][models.length];
+		int batchSize = getPredictionBatchSize();
+		for (int start = 0; start < indices.length; start += batchSize) {
+			int end = Math.min(indices.length, start + batchSize);
+			int[] batch = new int[end - start];
+			System.arraycopy(indices, start, batch, 0, batch.length);
+			RetentionsDataset batchSet = featurizedSubset(dataSet, batch);
+			for (int j = 0; j < models.length; j++) {
+				float[] predicted = models[j].predictAll(batchSet);
+				for (int i = 0; i < batch.length; i++) {
+					result[start + i][j] = predicted[i];
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Combine predictions of 1-st level models using this linear model.
+	 * 
+	 * @param firstLevelPredictions see firstLevelPredictions(dataSet, indices)
+	 *                              method
+	 * @return retention index values predicted with this (stacking) model
+	 */
+	public float[] combineFirstLevelPredictions(float[][] firstLevelPredictions) {
+		if (firstLevelPredictions.length == 0) {
+			return new float[0];
+		}
+		float[][] input = new float[firstLevelPredictions.length][models.length];
+		for (int i = 0; i < input.length; i++) {
+			for (int j = 0; j < models.length; j++) {
+				input[i][j] = firstLevelPredictions[i][j] / 1000F;
+			}
+		}
+		float[] result = nn.output(Nd4j.create(input))[0].reshape(input.length).toFloatVector();
+		for (int i = 0; i < result.length; i++) {
+			result[i] = 1000F * result[i];
+		}
+		return result;
+	}
+
+	@Override
+	public float[] predictRI(RetentionsDataset dataSet, int[] indices) throws CDKException {
+		return combineFirstLevelPredictions(firstLevelPredictions(dataSet, indices));
+	}
+
 	@Override
 	public void save(String filename) throws IOException {
 		nn.save(new File(filename), false);
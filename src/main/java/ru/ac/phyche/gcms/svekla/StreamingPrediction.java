@@ -0,0 +1,236 @@
+package ru.ac.phyche.gcms.svekla;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Supplier;
+
+import org.openscience.cdk.exception.CDKException;
+
+/**
+ * Streaming prediction of retention indices for large files with SMILES
+ * strings. Input is read in chunks, chunks are processed by multiple worker
+ * threads, each worker thread uses its own replica of the model. Number of
+ * chunks in memory is bounded, so files of arbitrary size can be processed.
+ * Output lines are written in the same order as input lines. Errors for one
+ * line (incorrect SMILES, unsupported compounds) don't stop processing, "ERROR"
+ * is written for such lines. Throughput is printed periodically.
+ *
+ * Input format: one SMILES per line and optional number which denotes column.
+ * Empty lines are skipped. Output format is the same as for App -file mode.
+ *
+ */
+public class StreamingPrediction {
+	/**
+	 * Default column (if column is not given in the input line)
+	 */
+	public static final int DEFAULT_COLUMN = 15;
+
+	private Supplier<StackingLinearMetaLearnerModel> modelFactory;
+	private int threads;
+	private boolean allModels;
+	private int chunkSize = 4 * Model.PREDICTION_BATCH_SIZE;
+	private long reportInterval = 10000;
+
+	/**
+	 *
+	 * @param modelFactory creates a replica of the model for each worker thread
+	 * @param threads      number of worker threads
+	 * @param allModels    write predictions of all 1-st level models too
+	 * @return new instance
+	 */
+	public static StreamingPrediction instance(Supplier<StackingLinearMetaLearnerModel> modelFactory, int threads,
+			boolean allModels) {
+		StreamingPrediction result = new StreamingPrediction();
+		result.modelFactory = modelFactory;
+		result.threads = threads;
+		result.allModels = allModels;
+		return result;
+	}
+
+	/**
+	 *
+	 * @param chunkSize number of input lines processed by a worker at once
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 *
+	 * @param reportInterval interval between throughput reports, milliseconds
+	 */
+	public void setReportInterval(long reportInterval) {
+		this.reportInterval = reportInterval;
+	}
+
+	/**
+	 *
+	 * @param allModels predictions of all 1-st level models are included
+	 * @return header (first line) of the output file
+	 */
+	public static String header(boolean allModels) {
+		return allModels ? "SMILES SMILES_(canonical_form) Column Linear_stacking_meta-model 1DCNN 2DCNN MLP XGBoost"
+				: "SMILES SMILES_(canonical_form) Retention_index";
+	}
+
+	/**
+	 * Predict retention indices for all lines of input file.
+	 *
+	 * @param inputFile  input file name
+	 * @param outputFile output file name
+	 * @return number of processed (non-empty) lines
+	 * @throws IOException IO
+	 */
+	public long predict(String inputFile, String outputFile) throws IOException {
+		BufferedReader inp = new BufferedReader(
+				new InputStreamReader(new FileInputStream(new File(inputFile)), StandardCharsets.UTF_8), 1 << 16);
+		BufferedWriter out = new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(outputFile), StandardCharsets.UTF_8), 1 << 16);
+		try {
+			return predict(inp, out);
+		} finally {
+			out.close();
+			inp.close();
+		}
+	}
+
+	/**
+	 * Predict retention indices for all lines of input.
+	 *
+	 * @param inp input
+	 * @param out output (header is written too)
+	 * @return number of processed (non-empty) lines
+	 * @throws IOException IO
+	 */
+	public long predict(BufferedReader inp, Writer out) throws IOException {
+		ThreadLocal<StackingLinearMetaLearnerModel> replicas = ThreadLocal.withInitial(modelFactory);
+		ThreadPoolExecutor workers = Parallel.daemonPool(threads, "prediction");
+		ArrayDeque<Future<String>> pending = new ArrayDeque<Future<String>>();
+		long processed = 0;
+		long reported = 0;
+		long start = System.currentTimeMillis();
+		long lastReport = start;
+		try {
+			out.write(header(allModels) + "\n");
+			ArrayList<String> chunk = new ArrayList<String>();
+			String s = inp.readLine();
+			while ((s != null) || (!chunk.isEmpty()) || (!pending.isEmpty())) {
+				if (s != null) {
+					if (!s.trim().equals("")) {
+						chunk.add(s);
+						processed++;
+					}
+					s = inp.readLine();
+				}
+				if ((chunk.size() >= chunkSize) || ((s == null) && (!chunk.isEmpty()))) {
+					ArrayList<String> lines = chunk;
+					pending.add(workers.submit(() -> predictChunk(replicas.get(), lines)));
+					chunk = new ArrayList<String>();
+				}
+				if ((pending.size() >= 2 * threads) || ((s == null) && chunk.isEmpty() && (!pending.isEmpty()))) {
+					String predicted = pending.poll().get();
+					out.write(predicted);
+					reported += predicted.isEmpty() ? 0 : predicted.split("\n", -1).length - 1;
+					long now = System.currentTimeMillis();
+					if (now - lastReport >= reportInterval) {
+						System.out.println("Predicted: " + reported + " molecules; "
+								+ Math.round(1000.0 * reported / Math.max(1, now - start)) + " molecules/s");
+						lastReport = now;
+					}
+				}
+			}
+			long time = Math.max(1, System.currentTimeMillis() - start);
+			System.out.println("Finished. Predicted: " + processed + " molecules in " + (time / 1000.0) + " s; "
+					+ Math.round(1000.0 * processed / time) + " molecules/s");
+		} catch (InterruptedException e) {
+			throw new IOException(e.getMessage());
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause().getMessage(), e.getCause());
+		} finally {
+			for (Future<String> f : pending) {
+				f.cancel(true);
+			}
+			workers.shutdownNow();
+		}
+		return processed;
+	}
+
+	private String predictChunk(StackingLinearMetaLearnerModel model, ArrayList<String> lines) {
+		String[] output = new String[lines.size()];
+		ArrayList<String> smilesList = new ArrayList<String>();
+		ArrayList<RetentionsEntry> entries = new ArrayList<RetentionsEntry>();
+		ArrayList<Integer> lineNumbers = new ArrayList<Integer>();
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i).trim();
+			int space = 0;
+			while ((space < line.length()) && (!Character.isWhitespace(line.charAt(space)))) {
+				space++;
+			}
+			String smiles = line.substring(0, space);
+			try {
+				String columnString = line.substring(space).trim();
+				int column = columnString.isEmpty() ? DEFAULT_COLUMN
+						: Integer.parseInt(columnString.split("\\s+", 2)[0]);
+				String canonical = Chemoinformatics.canonical(smiles, false);
+				entries.add(RetentionsEntry.instance(canonical, 0, column));
+				smilesList.add(smiles);
+				lineNumbers.add(i);
+			} catch (Exception e) {
+				output[i] = smiles + " ERROR";
+			}
+		}
+		float[][] firstLevel = null;
+		float[] predicted = null;
+		RetentionsDataset data = RetentionsDataset.create(entries);
+		try {
+			firstLevel = model.firstLevelPredictions(data, Model.range(data.size()));
+			predicted = model.combineFirstLevelPredictions(firstLevel);
+		} catch (Exception e) {
+			// errors for some molecules; predict one by one
+			firstLevel = new float[data.size()][];
+			predicted = new float[data.size()];
+			for (int i = 0; i < data.size(); i++) {
+				try {
+					firstLevel[i] = model.firstLevelPredictions(data, new int[] { i })[0];
+					predicted[i] = model.combineFirstLevelPredictions(new float[][] { firstLevel[i] })[0];
+				} catch (CDKException | RuntimeException e1) {
+					firstLevel[i] = null;
+				}
+			}
+		}
+		for (int i = 0; i < data.size(); i++) {
+			int line = lineNumbers.get(i);
+			if (firstLevel[i] == null) {
+				output[line] = smilesList.get(i) + " ERROR";
+			} else {
+				StringBuilder sb = new StringBuilder();
+				sb.append(smilesList.get(i)).append(' ').append(data.getSmiles(i)).append(' ')
+						.append(Columns.column(data.getColumn(i))).append(' ').append(predicted[i]).append(' ');
+				if (allModels) {
+					for (int j = 0; j < firstLevel[i].length; j++) {
+						sb.append(firstLevel[i][j]).append(' ');
+					}
+				}
+				output[line] = sb.toString();
+			}
+		}
+		StringBuilder result = new StringBuilder();
+		for (String o : output) {
+			result.append(o).append('\n');
+		}
+		return result.toString();
+	}
+}
@@ -24,6 +24,7 @@ public class TrainApp {
 	private static final int boostingTuneHyperparametersSteps = 50;
 	private static final int boostingNEstimators = 800;
 	private static final int batchSize = 16;
+	private static final float featureCacheHeapFraction = 0.25F;
 
 	private static HashMap<String, Object> xgboostParameters() {
 		return XGBoostModel.xgboostDefaultParameters();
@@ -76,9 +77,9 @@ public class TrainApp {
 		int bestIteration = model.trainMultipleIterations(iterations, 500, 2500, batchSize,
 				folder + "/models/" + modelName + ".nn", true, folder + "/logs/" + modelName + ".log");
 		fw.write(modelName + "model succesfully trained. The best performance on iteration " + bestIteration + "\n");
-		fw.write("Accuracy for validation set: "
-				+ model.validate(model.getValidationSet(), folder + "/predictions/" + modelName + "validationSet.txt")
-				+ "\n");
+		fw.write("Accuracy for validation set: " + model
+				.validationReport(model.getValidationSet(), folder + "/predictions/" + modelName + "validationSet.txt")
+				.summary());
 		return model;
 	}
 
@@ -92,18 +93,21 @@ public class TrainApp {
 		validationAndTrainingSetSized(fw, model);
 		fw.flush();
 		if (params == null) {
-			HashMap<String, Object> bestParams = model.hyperParametersTuning(boostingTuneHyperparametersSteps,
-					estimators, folder + "/models/" + modelName + ".xgboost", folder + "/logs/" + modelName + ".log");
+			XGBoostTuning tuning = XGBoostTuning.instance(model).setConfigurations(boostingTuneHyperparametersSteps)
+					.setEstimators(Math.max(1, estimators / 9), estimators * 3);
+			HashMap<String, Object> bestParams = tuning.tune(folder + "/models/" + modelName + ".xgboost",
+					folder + "/logs/" + modelName + ".log");
 			fw.write(modelName + "model succesfully trained. The best performance was achieved for parameters "
-					+ model.paramsToString(bestParams) + "\n");
+					+ model.paramsToString(bestParams) + " Number of estimators: " + tuning.getBestEstimators()
+					+ "\n");
 		} else {
 			model.train(xgboostParameters(), boostingNEstimators);
 			model.save(folder + "/models/" + modelName + ".xgboost");
 			fw.write(modelName + "model succesfully trained. \n");
 		}
-		fw.write("Accuracy for validation set: "
-				+ model.validate(model.getValidationSet(), folder + "/predictions/" + modelName + "validationSet.txt")
-				+ "\n");
+		fw.write("Accuracy for validation set: " + model
+				.validationReport(model.getValidationSet(), folder + "/predictions/" + modelName + "validationSet.txt")
+				.summary());
 		fw.flush();
 		return model;
 	}
@@ -142,9 +146,9 @@ public class TrainApp {
 		model = model.trainMultipleIterations(iterationsLinear, 500, 30002);
 		model.save(folder + "/models/linearMetaModel.nn");
 		fw.write("Linear meta model succesfully trained.\n");
-		fw.write("Accuracy for validation set "
-				+ model.validate(model.getValidationSet(), folder + "/predictions/linearMetaModelValidationSet.txt")
-				+ "\n");
+		fw.write("Accuracy for validation set " + model
+				.validationReport(model.getValidationSet(), folder + "/predictions/linearMetaModelValidationSet.txt")
+				.summary());
 		fw.flush();
 		return model;
 	}
@@ -152,6 +156,7 @@ public class TrainApp {
 	private static void trainAllModels(FileWriter fw, RetentionsDataset trainSet, String folder)
 			throws CDKException, IOException {
 		RetentionsDataset trainSetCopy = trainSet.copy();
+		trainSetCopy.setFeatureCache(FeatureCache.instanceHeapFraction(featureCacheHeapFraction));
 		RetentionsDataset forMetaModel = trainSetCopy.compoundsBasedSplitAndShuffle(forMetaModelFraction);
 		RetentionsDataset validationSet = trainSetCopy.compoundsBasedSplitAndShuffle(validationFraction);
 		calculateOverlapping(fw, trainSetCopy, forMetaModel);
@@ -169,6 +174,7 @@ public class TrainApp {
 		Descriptors d = Descriptors.instance(Descriptors.descriptors2DBut_nAtomLAC_And_MolIP);
 		d.precompute(trainSet.compounds(), true);
 		Model[] models = trainNeuralNetworkAndBoostingModels(fw, trainSetCopy, validationSet, d, folder);
+		fw.write("Feature cache. " + trainSetCopy.getFeatureCache().statistics() + "\n");
 		trainStackingMetamodel(fw, forMetaModel, validationSet, folder, models, d);
 		Descriptors noPrecomputed = Descriptors.instance(Descriptors.descriptors2DBut_nAtomLAC_And_MolIP,
 				d.getMinMaxArray().getLeft(), d.getMinMaxArray().getRight(), true);
@@ -189,12 +195,14 @@ public class TrainApp {
 				fileDescriptors);
 		for (int i = 0; i < twoLevelModelLinear.getModels().length; i++) {
 			fw.write("Model " + i + " . Accuracy for test set: " + twoLevelModelLinear.getModels()[i]
-					.validate(holdOutTestSet, folder + "/predictions/model" + i + "testSet.txt") + "\n");
+					.validationReport(holdOutTestSet, folder + "/predictions/model" + i + "testSet.txt").summary());
 		}
 		fw.write("Linear stacked model. Accuracy for test set: "
-				+ twoLevelModelLinear.validate(holdOutTestSet,
-						folder + "/predictions/predictionForTestSetLinearStackingModel.txt")
-				+ "\n\nLinear model parameters:\n");
+				+ twoLevelModelLinear
+						.validationReport(holdOutTestSet,
+								folder + "/predictions/predictionForTestSetLinearStackingModel.txt")
+						.summary()
+				+ "\nLinear model parameters:\n");
 		float linearParams[] = twoLevelModelLinear.getParams();
 		for (int i = 0; i < linearParams.length; i++) {
 			fw.write(linearParams[i] + " ");
@@ -196,6 +196,39 @@ public class TrainPolar {
 			return sum / models.size();
 		}
 
+		@Override
+		public Featurizer featurizer() {
+			Featurizer result = Featurizer.instance();
+			for (Model m : models) {
+				result.merge(m.featurizer());
+			}
+			return result;
+		}
+
+		@Override
+		public int getPredictionBatchSize() {
+			int result = super.getPredictionBatchSize();
+			for (Model m : models) {
+				result = Math.min(result, m.getPredictionBatchSize());
+			}
+			return result;
+		}
+
+		@Override
+		protected float[] predictBatch(RetentionsDataset dataSet, int[] indices) throws CDKException {
+			float[] sum = new float[indices.length];
+			for (Model m : models) {
+				float[] predicted = m.predictRI(dataSet, indices);
+				for (int i = 0; i < sum.length; i++) {
+					sum[i] += predicted[i];
+				}
+			}
+			for (int i = 0; i < sum.length; i++) {
+				sum[i] = sum[i] / models.size();
+			}
+			return sum;
+		}
+
 		@Override
 		public void save(String filename) throws IOException {
 			throw new UnsupportedOperationException("This model can not be saved");
@@ -226,13 +259,18 @@ public class TrainPolar {
 		fw.write("Non-polar data set (before exclusions): " + trainNonpolar.size() + "  Individual compounds: "
 				+ trainNonpolar.compounds().size() + "\n");
 		fw.flush();
+		IdentityIndex identityIndex = IdentityIndex.open(outputFolder + "/identity.index");
+		trainNonpolar.setIdentityIndex(identityIndex);
+		trainPolar.setIdentityIndex(identityIndex);
 		for (int i = 0; i < excludeFromTrain.length; i++) {
 			excludeFromTrain[i].makeCanoncalAll(false);
+			excludeFromTrain[i].setIdentityIndex(identityIndex);
 			trainNonpolar.filterIdentical(excludeFromTrain[i]);
 			trainNonpolar.filterIdenticalByInchi(excludeFromTrain[i]);
 			trainPolar.filterIdentical(excludeFromTrain[i]);
 			trainPolar.filterIdenticalByInchi(excludeFromTrain[i]);
 		}
+		identityIndex.save();
 		fw.write("Polar data set (after exclusions): " + trainPolar.size() + "  Individual compounds: "
 				+ trainPolar.compounds().size() + "\n");
 		fw.write("Non-polar data set (after exclusions): " + trainNonpolar.size() + "  Individual compounds: "
@@ -255,7 +293,7 @@ public class TrainPolar {
 				false, outputFolder + "/mlpnonpolar.log");
 		fw.write("Best iteration at " + bestiter + "\n");
 		fw.write("Accuracy for validation set: "
-				+ mlp.validate(validationNonpolar, outputFolder + "/mlpnonpolar_val.txt") + "\n\n");
+				+ mlp.validationReport(validationNonpolar, outputFolder + "/mlpnonpolar_val.txt").summary() + "\n");
 		mlp.setTrainSet(trainPolar);
 		mlp.setValidationSet(validationPolar);
 		fw.flush();
@@ -264,8 +302,8 @@ public class TrainPolar {
 		bestiter = mlp.trainMultipleIterations(maxIterationsPolar, 100, 500, batchSize, outMLPFilePolar, false,
 				outputFolder + "/mlppolar.log");
 		fw.write("Best iteration at " + bestiter + "\n");
-		fw.write("Accuracy for validation set: " + mlp.validate(validationPolar, outputFolder + "/mlppolar_val.txt")
-				+ "\n\n");
+		fw.write("Accuracy for validation set: "
+				+ mlp.validationReport(validationPolar, outputFolder + "/mlppolar_val.txt").summary() + "\n");
 		mlp = null;
 
 		CNN cnn = new CNN();
@@ -277,7 +315,7 @@ public class TrainPolar {
 				outputFolder + "/cnnnonpolar.log");
 		fw.write("Best iteration at " + bestiter + "\n");
 		fw.write("Accuracy for validation set: "
-				+ cnn.validate(validationNonpolar, outputFolder + "/cnnnonpolar_val.txt") + "\n\n");
+				+ cnn.validationReport(validationNonpolar, outputFolder + "/cnnnonpolar_val.txt").summary() + "\n");
 		cnn.setTrainSet(trainPolar);
 		cnn.setValidationSet(validationPolar);
 		fw.flush();
@@ -286,8 +324,8 @@ public class TrainPolar {
 		bestiter = cnn.trainMultipleIterations(maxIterationsPolar, 100, 500, batchSize, outCNNFilePolar, false,
 				outputFolder + "/cnnpolar.log");
 		fw.write("Best iteration at " + bestiter + "\n");
-		fw.write("Accuracy for validation set: " + cnn.validate(validationPolar, outputFolder + "/cnnpolar_val.txt")
-				+ "\n\n");
+		fw.write("Accuracy for validation set: "
+				+ cnn.validationReport(validationPolar, outputFolder + "/cnnpolar_val.txt").summary() + "\n");
 		cnn = null;
 		fw.write((new Date()).toString() + "\n");
 		fw.flush();
@@ -303,15 +341,22 @@ public class TrainPolar {
 		MLP mlp = new MLP();
 		mlp.load(mlpFile);
 		mlp.setDescriptorsGenerator(d);
-		String result = "MLP: " + mlp.validate(testSet, mlpPredictions);
+		ValidationReport mlpReport = mlp.validationReport(testSet, mlpPredictions);
+		String result = "MLP: " + mlpReport.summary();
 		CNN cnn = new CNN();
 		cnn.load(cnnFile);
-		result += "\nCNN: " + cnn.validate(testSet, cnnPredictions);
-		SimpleAverageModel a = new SimpleAverageModel();
-		a.models.add(cnn);
-		a.models.add(mlp);
-		a.setDescriptorsGenerator(mlp.getDescriptorsGenerator());
-		result += "\nAverage: " + a.validate(testSet, averagePredictions);
+		ValidationReport cnnReport = cnn.validationReport(testSet, cnnPredictions);
+		result += "\nCNN: " + cnnReport.summary();
+		// the same as SimpleAverageModel of cnn and mlp, predictions are reused
+		float[] average = new float[testSet.size()];
+		for (int i = 0; i < average.length; i++) {
+			average[i] = (cnnReport.getPredicted(i) + mlpReport.getPredicted(i)) / 2;
+		}
+		ValidationReport averageReport = ValidationReport.instance(testSet, average);
+		if ((averagePredictions != null) && (!averagePredictions.trim().equals(""))) {
+			averageReport.writePredictions(averagePredictions);
+		}
+		result += "\nAverage: " + averageReport.summary();
 		return result;
 	}
 
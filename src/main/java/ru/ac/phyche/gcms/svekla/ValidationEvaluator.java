@@ -0,0 +1,179 @@
+package ru.ac.phyche.gcms.svekla;
+
+import java.util.ArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.openscience.cdk.exception.CDKException;
+
+/**
+ * Periodic validation of a neural network during training. Features of the
+ * validation set are computed once (see featurizer() of the model). Input
+ * arrays of all batches are also built once and reused if they are not larger
+ * than maxCachedInputBytes in total (the total size is estimated from the first
+ * batch before caching), otherwise they are built from the featurized
+ * validation set for each evaluation. Evaluation gives numeric accuracy
+ * measures (see ValidationMetrics). Validation batches have the prediction
+ * batch size, so their input arrays are created apart from the training
+ * buffers of the model (see NeuralNetModel.nextBatchInput) and are freed
+ * directly.
+ *
+ * Evaluation can be submitted to a background thread (see submit(...)). In
+ * this case it is performed using a copy of the network parameters (snapshot),
+ * so training continues while the snapshot is evaluated.
+ *
+ */
+public class ValidationEvaluator {
+	/**
+	 * Default limit for cached input arrays: 256 MB
+	 */
+	public static final long DEFAULT_MAX_CACHED_INPUT_BYTES = 256L * 1024L * 1024L;
+
+	private NeuralNetModel model;
+	private RetentionsDataset featurized;
+	private float[] retentions;
+	private ArrayList<int[]> batches = new ArrayList<int[]>();
+	private ArrayList<INDArray[]> cachedInputs = null;
+	private ThreadPoolExecutor worker = null;
+
+	/**
+	 *
+	 * @param model         neural network model
+	 * @param validationSet validation set
+	 * @return new instance
+	 * @throws CDKException CDK (while feature creation)
+	 */
+	public static ValidationEvaluator instance(NeuralNetModel model, RetentionsDataset validationSet)
+			throws CDKException {
+		return instance(model, validationSet, DEFAULT_MAX_CACHED_INPUT_BYTES);
+	}
+
+	/**
+	 *
+	 * @param model               neural network model
+	 * @param validationSet       validation set
+	 * @param maxCachedInputBytes input arrays are cached if their total size
+	 *                            doesn't exceed this value
+	 * @return new instance
+	 * @throws CDKException CDK (while feature creation)
+	 */
+	public static ValidationEvaluator instance(NeuralNetModel model, RetentionsDataset validationSet,
+			long maxCachedInputBytes) throws CDKException {
+		ValidationEvaluator result = new ValidationEvaluator();
+		result.model = model;
+		result.featurized = model.featurizedSubset(validationSet, Model.range(validationSet.size()));
+		result.retentions = new float[validationSet.size()];
+		for (int i = 0; i < result.retentions.length; i++) {
+			result.retentions[i] = validationSet.getRetention(i);
+		}
+		int batchSize = Math.max(1, model.getPredictionBatchSize());
+		for (int start = 0; start < validationSet.size(); start += batchSize) {
+			int end = Math.min(validationSet.size(), start + batchSize);
+			int[] batch = new int[end - start];
+			for (int i = 0; i < batch.length; i++) {
+				batch[i] = start + i;
+			}
+			result.batches.add(batch);
+		}
+		if (result.batches.isEmpty()) {
+			result.cachedInputs = new ArrayList<INDArray[]>();
+			return result;
+		}
+		// the first batch is the largest one
+		INDArray[] first = model.nextBatchInput(result.featurized, result.batches.get(0));
+		long bytes = 0;
+		for (INDArray a : first) {
+			bytes += a.length() * a.dataType().width();
+		}
+		if (bytes * result.batches.size() > maxCachedInputBytes) {
+			free(first);
+			return result;
+		}
+		result.cachedInputs = new ArrayList<INDArray[]>();
+		result.cachedInputs.add(first);
+		for (int b = 1; b < result.batches.size(); b++) {
+			result.cachedInputs.add(model.nextBatchInput(result.featurized, result.batches.get(b)));
+		}
+		return result;
+	}
+
+	private static void free(INDArray[] input) {
+		for (INDArray a : input) {
+			if (a.closeable()) {
+				a.close();
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return true if input arrays of the validation set are cached
+	 */
+	public boolean isInputCached() {
+		return cachedInputs != null;
+	}
+
+	/**
+	 * Evaluate the network in the current thread.
+	 *
+	 * @param nn neural network (the model network or its snapshot)
+	 * @return accuracy measures for the validation set
+	 * @throws CDKException CDK (while feature creation)
+	 */
+	public ValidationMetrics evaluate(ComputationGraph nn) throws CDKException {
+		float[] predictions = new float[retentions.length];
+		for (int b = 0; b < batches.size(); b++) {
+			int[] batch = batches.get(b);
+			INDArray[] input = cachedInputs != null ? cachedInputs.get(b)
+					: model.nextBatchInput(featurized, batch);
+			float[] output = nn.output(input)[0].reshape(batch.length).toFloatVector();
+			if (cachedInputs == null) {
+				free(input);
+			}
+			for (int i = 0; i < batch.length; i++) {
+				predictions[batch[i]] = 1000F * output[i];
+			}
+		}
+		return ValidationMetrics.compute(retentions, predictions);
+	}
+
+	/**
+	 * Evaluate a snapshot of the network in the background thread. Evaluations
+	 * are performed in the order of submission.
+	 *
+	 * @param snapshot copy of the neural network (see ComputationGraph.clone()).
+	 *                 It must not be modified until the evaluation is completed.
+	 * @return future accuracy measures
+	 */
+	public Future<ValidationMetrics> submit(ComputationGraph snapshot) {
+		if (worker == null) {
+			worker = Parallel.daemonPool(1, "validation-evaluator");
+		}
+		return worker.submit(() -> evaluate(snapshot));
+	}
+
+	/**
+	 * Wait for submitted evaluations, stop the background thread and release
+	 * cached input arrays.
+	 */
+	public void close() {
+		if (worker != null) {
+			worker.shutdown();
+			try {
+				worker.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			worker = null;
+		}
+		if (cachedInputs != null) {
+			for (INDArray[] in : cachedInputs) {
+				free(in);
+			}
+			cachedInputs = null;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package ru.ac.phyche.gcms.svekla;
+
+/**
+ * Accuracy measures (RMSE, MAE, MPE, MdAE, MdPE) for a set of predictions.
+ * toString() gives the same string as Model.validate(...), e.g. "RMSE:
+ * 192.06718 MAE: 34.59384 MPE: 2.159631 MdAE: 17.081543 MdPE: 1.1565123".
+ *
+ */
+public class ValidationMetrics {
+	private float rmse;
+	private float mae;
+	private float mpe;
+	private float mdae;
+	private float mdpe;
+
+	/**
+	 *
+	 * @param actual    reference retention index values
+	 * @param predicted predicted retention index values, predicted[i] corresponds
+	 *                  to actual[i]
+	 * @return accuracy measures
+	 */
+	public static ValidationMetrics compute(float[] actual, float[] predicted) {
+		if (actual.length != predicted.length) {
+			throw new RuntimeException("Numbers of reference and predicted values differ");
+		}
+		float[] deviations = new float[actual.length];
+		float[] percentageErrors = new float[actual.length];
+		float rmse = 0.0F;
+		for (int i = 0; i < actual.length; i++) {
+			deviations[i] = Math.abs(actual[i] - predicted[i]);
+			percentageErrors[i] = Math.abs(100 * (actual[i] - predicted[i]) / actual[i]);
+			rmse += deviations[i] * deviations[i];
+		}
+		ValidationMetrics result = new ValidationMetrics();
+		result.rmse = (float) Math.sqrt(rmse / actual.length);
+		result.mae = RetentionsDataset.mean(deviations);
+		result.mpe = RetentionsDataset.mean(percentageErrors);
+		result.mdae = RetentionsDataset.median(deviations);
+		result.mdpe = RetentionsDataset.median(percentageErrors);
+		return result;
+	}
+
+	/**
+	 *
+	 * @return root mean square error
+	 */
+	public float getRmse() {
+		return rmse;
+	}
+
+	/**
+	 *
+	 * @return mean absolute error
+	 */
+	public float getMae() {
+		return mae;
+	}
+
+	/**
+	 *
+	 * @return mean percentage error
+	 */
+	public float getMpe() {
+		return mpe;
+	}
+
+	/**
+	 *
+	 * @return median absolute error
+	 */
+	public float getMdae() {
+		return mdae;
+	}
+
+	/**
+	 *
+	 * @return median percentage error
+	 */
+	public float getMdpe() {
+		return mdpe;
+	}
+
+	@Override
+	public String toString() {
+		return "RMSE: " + rmse + " MAE: " + mae + " MPE: " + mpe + " MdAE: " + mdae + " MdPE: " + mdpe;
+	}
+}
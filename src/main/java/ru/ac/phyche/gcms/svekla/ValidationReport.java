@@ -0,0 +1,258 @@
+package ru.ac.phyche.gcms.svekla;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Results of validation of a model for a test set: reference and predicted
+ * retention index values for each entry and accuracy measures computed from
+ * them. The test set is predicted once (see Model.validationReport), all
+ * accuracy measures, per-column breakdown and percentiles of absolute errors
+ * are computed from the stored predictions. Instances are immutable.
+ *
+ */
+public class ValidationReport {
+	private String[] smiles;
+	private int[] columns;
+	private float[] actual;
+	private float[] predicted;
+	private ValidationMetrics metrics;
+	private float[] sortedAbsoluteErrors;
+
+	/**
+	 *
+	 * @param test        test data set
+	 * @param predictions predicted retention index values, predictions[i]
+	 *                    corresponds to i-th entry of the test set
+	 * @return new instance
+	 */
+	public static ValidationReport instance(RetentionsDataset test, float[] predictions) {
+		if (test.size() != predictions.length) {
+			throw new RuntimeException("Numbers of entries and predictions differ");
+		}
+		String[] smiles = new String[test.size()];
+		int[] columns = new int[test.size()];
+		float[] actual = new float[test.size()];
+		for (int i = 0; i < actual.length; i++) {
+			smiles[i] = test.getSmiles(i);
+			columns[i] = test.getColumn(i);
+			actual[i] = test.getRetention(i);
+		}
+		return instance(smiles, columns, actual, predictions.clone());
+	}
+
+	private static ValidationReport instance(String[] smiles, int[] columns, float[] actual, float[] predicted) {
+		ValidationReport result = new ValidationReport();
+		result.smiles = smiles;
+		result.columns = columns;
+		result.actual = actual;
+		result.predicted = predicted;
+		result.metrics = ValidationMetrics.compute(actual, predicted);
+		result.sortedAbsoluteErrors = new float[actual.length];
+		for (int i = 0; i < actual.length; i++) {
+			result.sortedAbsoluteErrors[i] = Math.abs(actual[i] - predicted[i]);
+		}
+		Arrays.sort(result.sortedAbsoluteErrors);
+		return result;
+	}
+
+	/**
+	 * Concatenation of reports (e.g. for folds of cross-validation). Entries are
+	 * in the order of reports.
+	 *
+	 * @param reports reports
+	 * @return new instance
+	 */
+	public static ValidationReport merge(ValidationReport... reports) {
+		int n = 0;
+		for (ValidationReport r : reports) {
+			n += r.size();
+		}
+		String[] smiles = new String[n];
+		int[] columns = new int[n];
+		float[] actual = new float[n];
+		float[] predicted = new float[n];
+		int position = 0;
+		for (ValidationReport r : reports) {
+			System.arraycopy(r.smiles, 0, smiles, position, r.size());
+			System.arraycopy(r.columns, 0, columns, position, r.size());
+			System.arraycopy(r.actual, 0, actual, position, r.size());
+			System.arraycopy(r.predicted, 0, predicted, position, r.size());
+			position += r.size();
+		}
+		return instance(smiles, columns, actual, predicted);
+	}
+
+	/**
+	 *
+	 * @return number of entries
+	 */
+	public int size() {
+		return actual.length;
+	}
+
+	/**
+	 *
+	 * @param i number of entry
+	 * @return SMILES string
+	 */
+	public String getSmiles(int i) {
+		return smiles[i];
+	}
+
+	/**
+	 *
+	 * @param i number of entry
+	 * @return column type (see Columns)
+	 */
+	public int getColumn(int i) {
+		return columns[i];
+	}
+
+	/**
+	 *
+	 * @param i number of entry
+	 * @return reference retention index
+	 */
+	public float getActual(int i) {
+		return actual[i];
+	}
+
+	/**
+	 *
+	 * @param i number of entry
+	 * @return predicted retention index
+	 */
+	public float getPredicted(int i) {
+		return predicted[i];
+	}
+
+	/**
+	 *
+	 * @param i number of entry
+	 * @return predicted minus reference retention index
+	 */
+	public float getResidual(int i) {
+		return predicted[i] - actual[i];
+	}
+
+	/**
+	 *
+	 * @return residuals (predicted minus reference) for all entries
+	 */
+	public float[] residuals() {
+		float[] result = new float[actual.length];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = getResidual(i);
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 * @return predicted retention index values for all entries
+	 */
+	public float[] predictions() {
+		return predicted.clone();
+	}
+
+	/**
+	 *
+	 * @return accuracy measures for all entries
+	 */
+	public ValidationMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Percentile of absolute errors (linear interpolation between order
+	 * statistics).
+	 *
+	 * @param p percentile (0..100). 50 - median absolute error
+	 * @return p-th percentile of absolute errors
+	 */
+	public float absoluteErrorPercentile(float p) {
+		if (sortedAbsoluteErrors.length == 0) {
+			return Float.NaN;
+		}
+		float position = Math.max(0, Math.min(100, p)) / 100F * (sortedAbsoluteErrors.length - 1);
+		int lower = (int) Math.floor(position);
+		int upper = Math.min(lower + 1, sortedAbsoluteErrors.length - 1);
+		float fraction = position - lower;
+		return sortedAbsoluteErrors[lower] + fraction * (sortedAbsoluteErrors[upper] - sortedAbsoluteErrors[lower]);
+	}
+
+	/**
+	 * Accuracy measures for each column type present in the report.
+	 *
+	 * @return column type (see Columns) - accuracy measures
+	 */
+	public TreeMap<Integer, ValidationMetrics> byColumn() {
+		TreeMap<Integer, ArrayList<Integer>> entries = new TreeMap<Integer, ArrayList<Integer>>();
+		for (int i = 0; i < columns.length; i++) {
+			entries.computeIfAbsent(columns[i], c -> new ArrayList<Integer>()).add(i);
+		}
+		TreeMap<Integer, ValidationMetrics> result = new TreeMap<Integer, ValidationMetrics>();
+		for (Map.Entry<Integer, ArrayList<Integer>> e : entries.entrySet()) {
+			float[] a = new float[e.getValue().size()];
+			float[] p = new float[e.getValue().size()];
+			for (int j = 0; j < a.length; j++) {
+				a[j] = actual[e.getValue().get(j)];
+				p[j] = predicted[e.getValue().get(j)];
+			}
+			result.put(e.getKey(), ValidationMetrics.compute(a, p));
+		}
+		return result;
+	}
+
+	/**
+	 * Save predictions to file. One line per entry: SMILES, reference and
+	 * predicted retention index separated by spaces (the same format as
+	 * Model.validate(...)).
+	 *
+	 * @param predictionsFile file name
+	 * @throws IOException IO
+	 */
+	public void writePredictions(String predictionsFile) throws IOException {
+		FileWriter pred = new FileWriter(predictionsFile);
+		for (int i = 0; i < actual.length; i++) {
+			pred.write(smiles[i] + " " + actual[i] + " " + predicted[i] + "\n");
+		}
+		pred.close();
+	}
+
+	/**
+	 * Multiline summary: accuracy measures, percentiles of absolute errors and
+	 * accuracy measures for each column type.
+	 *
+	 * @return summary
+	 */
+	public String summary() {
+		String result = metrics.toString() + "\n";
+		result += "Absolute error percentiles: 50%: " + absoluteErrorPercentile(50) + " 90%: "
+				+ absoluteErrorPercentile(90) + " 95%: " + absoluteErrorPercentile(95) + " 99%: "
+				+ absoluteErrorPercentile(99) + "\n";
+		TreeMap<Integer, Integer> counts = new TreeMap<Integer, Integer>();
+		for (int i = 0; i < columns.length; i++) {
+			counts.merge(columns[i], 1, Integer::sum);
+		}
+		for (Map.Entry<Integer, ValidationMetrics> e : byColumn().entrySet()) {
+			result += "Column " + e.getKey() + " " + Columns.column(e.getKey()) + " (" + counts.get(e.getKey())
+					+ " entries): " + e.getValue() + "\n";
+		}
+		return result;
+	}
+
+	/**
+	 * The same string as Model.validate(...) returns, e.g. "RMSE: 192.06718 MAE:
+	 * 34.59384 MPE: 2.159631 MdAE: 17.081543 MdPE: 1.1565123"
+	 */
+	@Override
+	public String toString() {
+		return metrics.toString();
+	}
+}
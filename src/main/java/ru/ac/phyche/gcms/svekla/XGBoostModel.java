@@ -1,12 +1,10 @@
 package ru.ac.phyche.gcms.svekla;
 
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
 
-import org.apache.commons.lang3.tuple.Pair;
 import org.openscience.cdk.exception.CDKException;
 
 import ml.dmlc.xgboost4j.java.Booster;
@@ -23,7 +21,6 @@ public class XGBoostModel extends Model {
 	private Booster x;
 	private DMatrix validationSetDMatrix = null;
 	private DMatrix trainSetDMatrix = null;
-	private Pair<String, String> temporaryFileName = Pair.of("./XGBoost.train.ixt", "./XGBoost.val.ixt");
 	private static final Random rnd = new Random();
 
 	/**
@@ -66,13 +63,30 @@ public class XGBoostModel extends Model {
 	}
 
 	/**
-	 * File names for temporary files
+	 * Temporary files are not used anymore: training and validation sets are
+	 * converted to DMatrix in memory. This method does nothing.
 	 * 
-	 * @param train      training set (XGBoost file format)
-	 * @param validation validation set (XGBoost file format)
+	 * @param train      ignored
+	 * @param validation ignored
 	 */
+	@Deprecated
 	public void setTemporaryFileNames(String train, String validation) {
-		this.temporaryFileName = Pair.of(train, validation);
+	}
+
+	/**
+	 * 
+	 * @return training set (see init methods) converted to DMatrix
+	 */
+	DMatrix getTrainSetDMatrix() {
+		return trainSetDMatrix;
+	}
+
+	/**
+	 * 
+	 * @return validation set (see init methods) converted to DMatrix
+	 */
+	DMatrix getValidationSetDMatrix() {
+		return validationSetDMatrix;
 	}
 
 	/**
@@ -93,6 +107,12 @@ public class XGBoostModel extends Model {
 		return RetentionsDataset.mergeArrays(RetentionsDataset.mergeArrays(columns, d), g);
 	}
 
+	@Override
+	public Featurizer featurizer() {
+		return Featurizer.instance().require(Featurizer.FeatureBlock.FUNC_GROUPS)
+				.requireDescriptors(getDescriptorsGenerator());
+	}
+
 	@Override
 	public void init(RetentionsDataset trainSet_, float validationFraction) throws CDKException {
 		throw new UnsupportedOperationException(
@@ -103,16 +123,16 @@ public class XGBoostModel extends Model {
 	public void init(RetentionsDataset trainSet_, float validationFraction, Descriptors descriptorsGenerator_)
 			throws CDKException {
 		super.init(trainSet_, validationFraction, descriptorsGenerator_);
-		trainSetDMatrix = dataSetToDMatrix(this.getTrainSet(), temporaryFileName.getLeft());
-		validationSetDMatrix = dataSetToDMatrix(this.getValidationSet(), temporaryFileName.getRight());
+		trainSetDMatrix = dataSetToDMatrix(this.getTrainSet());
+		validationSetDMatrix = dataSetToDMatrix(this.getValidationSet());
 	}
 
 	@Override
 	public void init(RetentionsDataset trainSet_, RetentionsDataset validationSet_, Descriptors descriptorsGenerator_)
 			throws CDKException {
 		super.init(trainSet_, validationSet_, descriptorsGenerator_);
-		trainSetDMatrix = dataSetToDMatrix(this.getTrainSet(), temporaryFileName.getLeft());
-		validationSetDMatrix = dataSetToDMatrix(this.getValidationSet(), temporaryFileName.getRight());
+		trainSetDMatrix = dataSetToDMatrix(this.getTrainSet());
+		validationSetDMatrix = dataSetToDMatrix(this.getValidationSet());
 	}
 
 	/**
@@ -123,7 +143,7 @@ public class XGBoostModel extends Model {
 	 * @return accuracy string (see Model.validate(...) method) for trained model
 	 *         and validation set.
 	 * @throws CDKException wrapped XGBoost exception
-	 * @throws IOException  IO (temporary files are used)
+	 * @throws IOException  IO
 	 */
 	public String train(HashMap<String, Object> params, int n) throws CDKException, IOException {
 		HashMap<String, DMatrix> watches = new HashMap<String, DMatrix>();
@@ -155,61 +175,63 @@ public class XGBoostModel extends Model {
 
 	/**
 	 * Random hyperparameters tuning! Select the best hyperparameters set using
-	 * validation set.
+	 * validation set. Successive halving with early stopping (XGBoostTuning with
+	 * default settings): configurations are trained concurrently, the number of
+	 * boosting rounds grows from estimators/9 up to estimators, only the best
+	 * model is saved. See XGBoostTuning for other settings.
 	 * 
 	 * @param nAttempts          number of random sets of hyperparameters.
-	 * @param estimators         number of XGBoost trees
+	 * @param estimators         maximal number of XGBoost trees
 	 * @param bestModelFileName  name of file to which parameters of the best
 	 *                           XGBoost model will be saved. Can be null.
 	 * @param paramTuningLogFile log file name
 	 * @return the best set of hyperparameters
-	 * @throws IOException  IO (temporary files are used)
+	 * @throws IOException  IO (best model file and log file)
 	 * @throws CDKException wrapped XGBoost exception
 	 */
 	public HashMap<String, Object> hyperParametersTuning(int nAttempts, int estimators, String bestModelFileName,
 			String paramTuningLogFile) throws IOException, CDKException {
-		float bestResult = Float.POSITIVE_INFINITY;
-		HashMap<String, Object> bestParameters = null;
-		FileWriter log = null;
-		if (paramTuningLogFile != null) {
-			log = new FileWriter(paramTuningLogFile);
-		}
-		for (int i = 0; i < nAttempts; i++) {
-			HashMap<String, Object> parameters = randomParameters();
-			String validationString = this.train(parameters, estimators);
-			float mae = this.mae(validationString);
-			if (mae < bestResult) {
-				bestResult = mae;
-				bestParameters = parameters;
-				if (bestModelFileName != null) {
-					this.save(bestModelFileName);
-				}
-			}
-			if (log != null) {
-				log.write(paramsToString(parameters) + " " + validationString + "\n");
-				log.flush();
-			}
-		}
-		if (bestModelFileName != null) {
-			this.load(bestModelFileName);
-		}
-		if (log != null) {
-			log.close();
-		}
-		return bestParameters;
+		return XGBoostTuning.instance(this).setConfigurations(nAttempts)
+				.setEstimators(Math.max(1, estimators / 9), estimators).tune(bestModelFileName, paramTuningLogFile);
 	}
 
 	@Override
 	public float predictRI(RetentionsDataset dataSet, int entry) throws CDKException {
 		float[] floatF = features(dataSet, entry);
 		try {
-			DMatrix f = new DMatrix(floatF, 1, floatF.length);
+			// zeros are values, as in the training matrix (see dataSetToDMatrix)
+			DMatrix f = new DMatrix(floatF, 1, floatF.length, Float.NaN);
 			return x.predict(f)[0][0];
 		} catch (XGBoostError e) {
 			throw new CDKException(e.getMessage());
 		}
 	}
 
+	@Override
+	protected float[] predictBatch(RetentionsDataset dataSet, int[] indices) throws CDKException {
+		if (indices.length == 0) {
+			return new float[0];
+		}
+		float[] first = features(dataSet, indices[0]);
+		float[] floatF = new float[indices.length * first.length];
+		System.arraycopy(first, 0, floatF, 0, first.length);
+		for (int i = 1; i < indices.length; i++) {
+			float[] f = features(dataSet, indices[i]);
+			System.arraycopy(f, 0, floatF, i * first.length, first.length);
+		}
+		try {
+			DMatrix f = new DMatrix(floatF, indices.length, first.length, Float.NaN);
+			float[][] predicted = x.predict(f);
+			float[] result = new float[indices.length];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = predicted[i][0];
+			}
+			return result;
+		} catch (XGBoostError e) {
+			throw new CDKException(e.getMessage());
+		}
+	}
+
 	@Override
 	public void save(String filename) throws IOException {
 		try {
@@ -228,32 +250,42 @@ public class XGBoostModel extends Model {
 		}
 	}
 
-	private DMatrix dataSetToDMatrix(RetentionsDataset dataset, String tmpFilename) throws CDKException {
-		try {
-			DMatrix result = dataSetToXGBooostDMatrixFile(dataset, tmpFilename);
-			return result;
-		} catch (IOException e) {
-			throw new CDKException(e.getMessage());
+	/**
+	 * Dense matrix of input features (row-major) for all entries of a data set.
+	 * Features are computed in parallel (see featurizer() and featurizedSubset).
+	 * No missing values: descriptors are used without NaNs.
+	 * 
+	 * @param dataset data set
+	 * @return float[dataset.size() * number of features]
+	 * @throws CDKException CDK
+	 */
+	private float[] featuresMatrix(RetentionsDataset dataset) throws CDKException {
+		RetentionsDataset featurized = featurizedSubset(dataset, range(dataset.size()));
+		float[] result = null;
+		for (int i = 0; i < featurized.size(); i++) {
+			float[] f = features(featurized, i);
+			if (result == null) {
+				result = new float[featurized.size() * f.length];
+			}
+			System.arraycopy(f, 0, result, i * f.length, f.length);
 		}
+		return result;
 	}
 
-	private DMatrix dataSetToXGBooostDMatrixFile(RetentionsDataset dataset, String filename)
-			throws IOException, CDKException {
-		FileWriter f = new FileWriter("./XGBoost.tmp");
-		for (int i = 0; i < dataset.size(); i++) {
-			f.write(dataset.getRetention(i) + " ");
-			float[] features = features(dataset, i);
-			for (int j = 0; j < features.length; j++) {
-				f.write(j + ":" + features[j] + " ");
-			}
-			f.write("\n");
+	private DMatrix dataSetToDMatrix(RetentionsDataset dataset) throws CDKException {
+		float[] matrix = dataset.size() == 0 ? new float[0] : featuresMatrix(dataset);
+		float[] labels = new float[dataset.size()];
+		for (int i = 0; i < labels.length; i++) {
+			labels[i] = dataset.getRetention(i);
 		}
-		f.close();
 		try {
-			DMatrix mat = new DMatrix("./XGBoost.tmp");
-			return mat;
+			// zeros are values (as in LibSVM text format), not missing values
+			int columns = labels.length == 0 ? 0 : matrix.length / labels.length;
+			DMatrix result = new DMatrix(matrix, labels.length, columns, Float.NaN);
+			result.setLabel(labels);
+			return result;
 		} catch (XGBoostError e) {
-			throw new IOException(e.getMessage());
+			throw new CDKException(e.getMessage());
 		}
 	}
 
@@ -0,0 +1,313 @@
+package ru.ac.phyche.gcms.svekla;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.openscience.cdk.exception.CDKException;
+
+import ml.dmlc.xgboost4j.java.Booster;
+import ml.dmlc.xgboost4j.java.DMatrix;
+import ml.dmlc.xgboost4j.java.XGBoost;
+import ml.dmlc.xgboost4j.java.XGBoostError;
+
+/**
+ * Random hyperparameters search for XGBoost with successive halving. Random
+ * configurations (see XGBoostModel.randomParameters) are trained concurrently
+ * using training and validation DMatrix of the model (see XGBoostModel.init).
+ * Available threads are split among concurrently trained configurations.
+ * Training of each configuration is stopped early if validation MAE doesn't
+ * improve for a given number of boosting rounds. After each rung the best
+ * 1/reduction of configurations continue training with reduction times larger
+ * budget (number of boosting rounds). Finally the model is trained with the
+ * best configuration and the best number of boosting rounds.
+ *
+ * Log file: tab separated values, one line per configuration per rung.
+ *
+ */
+public class XGBoostTuning {
+	private XGBoostModel model;
+	private int configurations = 27;
+	private int reduction = 3;
+	private int minEstimators = 100;
+	private int maxEstimators = 2700;
+	private int earlyStoppingRounds = 50;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int parallel = Math.min(4, Runtime.getRuntime().availableProcessors());
+	private HashMap<String, Object> bestParameters = null;
+	private int bestEstimators = 0;
+	private float bestMae = Float.POSITIVE_INFINITY;
+
+	/**
+	 *
+	 * @param model XGBoost model. It must be initialized (see XGBoostModel.init)
+	 * @return new instance
+	 */
+	public static XGBoostTuning instance(XGBoostModel model) {
+		XGBoostTuning result = new XGBoostTuning();
+		result.model = model;
+		return result;
+	}
+
+	/**
+	 *
+	 * @param configurations number of random configurations in the first rung (at
+	 *                       least 1)
+	 * @return this instance
+	 */
+	public XGBoostTuning setConfigurations(int configurations) {
+		if (configurations < 1) {
+			throw new IllegalArgumentException("Number of configurations must be at least 1: " + configurations);
+		}
+		this.configurations = configurations;
+		return this;
+	}
+
+	/**
+	 *
+	 * @param reduction only 1/reduction of configurations pass to the next rung,
+	 *                  budget is multiplied by reduction (at least 2)
+	 * @return this instance
+	 */
+	public XGBoostTuning setReduction(int reduction) {
+		if (reduction < 2) {
+			throw new IllegalArgumentException("Reduction must be at least 2: " + reduction);
+		}
+		this.reduction = reduction;
+		return this;
+	}
+
+	/**
+	 *
+	 * @param minEstimators number of boosting rounds in the first rung (at least
+	 *                      1)
+	 * @param maxEstimators maximal number of boosting rounds (at least
+	 *                      minEstimators)
+	 * @return this instance
+	 */
+	public XGBoostTuning setEstimators(int minEstimators, int maxEstimators) {
+		if ((minEstimators < 1) || (maxEstimators < minEstimators)) {
+			throw new IllegalArgumentException(
+					"Wrong numbers of boosting rounds: " + minEstimators + " " + maxEstimators);
+		}
+		this.minEstimators = minEstimators;
+		this.maxEstimators = maxEstimators;
+		return this;
+	}
+
+	/**
+	 *
+	 * @param earlyStoppingRounds training of configuration is stopped if
+	 *                            validation MAE doesn't improve for this number
+	 *                            of rounds
+	 * @return this instance
+	 */
+	public XGBoostTuning setEarlyStoppingRounds(int earlyStoppingRounds) {
+		this.earlyStoppingRounds = earlyStoppingRounds;
+		return this;
+	}
+
+	/**
+	 *
+	 * @param threads  total number of threads
+	 * @param parallel number of configurations which are trained concurrently
+	 * @return this instance
+	 */
+	public XGBoostTuning setThreads(int threads, int parallel) {
+		this.threads = threads;
+		this.parallel = Math.max(1, Math.min(parallel, threads));
+		return this;
+	}
+
+	/**
+	 *
+	 * @return the best configuration (after tune method call)
+	 */
+	public HashMap<String, Object> getBestParameters() {
+		return bestParameters;
+	}
+
+	/**
+	 *
+	 * @return the best number of boosting rounds (after tune method call)
+	 */
+	public int getBestEstimators() {
+		return bestEstimators;
+	}
+
+	/**
+	 *
+	 * @return validation MAE for the best configuration (after tune method call)
+	 */
+	public float getBestMae() {
+		return bestMae;
+	}
+
+	private class Configuration {
+		private final int number;
+		private final HashMap<String, Object> parameters;
+		private Booster booster = null;
+		private int rounds = 0;
+		private int bestIteration = -1;
+		private float bestMae = Float.POSITIVE_INFINITY;
+		private boolean stopped = false;
+
+		private Configuration(int number, HashMap<String, Object> parameters) {
+			this.number = number;
+			this.parameters = parameters;
+		}
+
+		private HashMap<String, Object> trainingParameters() {
+			HashMap<String, Object> result = new HashMap<String, Object>(parameters);
+			result.put("eval_metric", "mae");
+			result.put("nthread", Math.max(1, threads / parallel));
+			return result;
+		}
+
+		/**
+		 * Continue training up to budget rounds (or until early stopping).
+		 */
+		private Configuration train(int budget) throws XGBoostError {
+			DMatrix train = model.getTrainSetDMatrix();
+			DMatrix[] val = new DMatrix[] { model.getValidationSetDMatrix() };
+			String[] names = new String[] { "val" };
+			if (booster == null) {
+				// validation set is in the prediction cache of the booster
+				HashMap<String, DMatrix> watches = new HashMap<String, DMatrix>();
+				watches.put("val", val[0]);
+				booster = XGBoost.train(train, trainingParameters(), 0, watches, null, null);
+			}
+			while ((rounds < budget) && (!stopped)) {
+				booster.update(train, rounds);
+				String eval = booster.evalSet(val, names, rounds);
+				float mae = Float.parseFloat(eval.substring(eval.lastIndexOf(':') + 1).trim());
+				if (mae < bestMae) {
+					bestMae = mae;
+					bestIteration = rounds;
+				}
+				rounds++;
+				if (rounds - 1 - bestIteration >= earlyStoppingRounds) {
+					stopped = true;
+				}
+			}
+			return this;
+		}
+
+		private void dispose() {
+			if (booster != null) {
+				booster.dispose();
+				booster = null;
+			}
+		}
+	}
+
+	/**
+	 * Search hyperparameters and train the model with the best ones.
+	 *
+	 * @param bestModelFileName file name to which the best XGBoost model will be
+	 *                          saved. Can be null.
+	 * @param logFile           log file name. Can be null.
+	 * @return the best set of hyperparameters
+	 * @throws IOException  IO
+	 * @throws CDKException wrapped XGBoost exceptions
+	 */
+	public HashMap<String, Object> tune(String bestModelFileName, String logFile) throws IOException, CDKException {
+		if ((model.getTrainSetDMatrix() == null) || (model.getValidationSetDMatrix() == null)) {
+			throw new CDKException("XGBoost model is not initialized");
+		}
+		FileWriter log = logFile == null ? null : new FileWriter(logFile);
+		try {
+			if (log != null) {
+				log.write("rung\tconfiguration\tbudget\trounds\tbest_rounds\tvalidation_MAE\tearly_stopped"
+						+ "\tparameters\n");
+				log.flush();
+			}
+			ArrayList<Configuration> rung = new ArrayList<Configuration>();
+			for (int i = 0; i < configurations; i++) {
+				rung.add(new Configuration(i, model.randomParameters()));
+			}
+			ThreadPoolExecutor pool = Parallel.daemonPool(parallel, "xgboost-tuning");
+			ArrayList<Configuration> all = new ArrayList<Configuration>(rung);
+			try {
+				// the first round is sequential: lazily created column pages of DMatrix
+				// are built before concurrent training
+				rung.get(0).train(1);
+				int budget = Math.min(minEstimators, maxEstimators);
+				int rungNumber = 0;
+				while (true) {
+					ArrayList<Future<Configuration>> futures = new ArrayList<Future<Configuration>>();
+					for (Configuration c : rung) {
+						int b = budget;
+						futures.add(pool.submit(() -> c.train(b)));
+					}
+					for (Future<Configuration> f : futures) {
+						f.get();
+					}
+					Collections.sort(rung, (a, b) -> Float.compare(a.bestMae, b.bestMae));
+					for (Configuration c : rung) {
+						System.out.println("Rung " + rungNumber + " configuration " + c.number + " MAE " + c.bestMae
+								+ " best rounds " + (c.bestIteration + 1));
+						if (log != null) {
+							log.write(rungNumber + "\t" + c.number + "\t" + budget + "\t" + c.rounds + "\t"
+									+ (c.bestIteration + 1) + "\t" + c.bestMae + "\t" + c.stopped + "\t"
+									+ model.paramsToString(c.parameters).trim() + "\n");
+						}
+					}
+					if (log != null) {
+						log.flush();
+					}
+					if ((rung.size() == 1) || (budget >= maxEstimators)) {
+						break;
+					}
+					int survivors = Math.max(1, rung.size() / reduction);
+					for (int i = survivors; i < rung.size(); i++) {
+						rung.get(i).dispose();
+					}
+					rung = new ArrayList<Configuration>(rung.subList(0, survivors));
+					budget = (int) Math.min((long) budget * reduction, maxEstimators);
+					rungNumber++;
+				}
+			} catch (InterruptedException e) {
+				throw new CDKException(e.getMessage());
+			} catch (ExecutionException e) {
+				throw new CDKException(e.getCause().getMessage());
+			} catch (XGBoostError e) {
+				throw new CDKException(e.getMessage());
+			} finally {
+				pool.shutdownNow();
+				for (Configuration c : all) {
+					c.dispose();
+				}
+			}
+			Configuration best = rung.get(0);
+			bestParameters = best.parameters;
+			bestEstimators = best.bestIteration + 1;
+			bestMae = best.bestMae;
+			String validationString = model.train(bestParameters, bestEstimators);
+			float validationMae = model.mae(validationString);
+			// configurations are ranked using evaluation of the validation DMatrix, the
+			// retrained model is validated using predictions (Model.validate)
+			if (Math.abs(validationMae - bestMae) > 1e-3F * Math.max(1F, Math.abs(bestMae))) {
+				System.out.println("Warning! Tuning MAE " + bestMae + " differs from validation MAE " + validationMae
+						+ " of the retrained model");
+			}
+			if (bestModelFileName != null) {
+				model.save(bestModelFileName);
+			}
+			if (log != null) {
+				log.write("best\t" + best.number + "\t" + bestEstimators + "\t" + bestEstimators + "\t" + bestEstimators
+						+ "\t" + validationMae + "\tfalse\t" + model.paramsToString(bestParameters).trim() + "\n");
+			}
+			return bestParameters;
+		} finally {
+			if (log != null) {
+				log.close();
+			}
+		}
+	}
+}
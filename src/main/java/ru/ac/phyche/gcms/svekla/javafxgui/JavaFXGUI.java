@@ -400,11 +400,15 @@ public class JavaFXGUI extends Application {
 				String[] splt = isomers.toString().split("\\n");
 				String result = "";
 				if (splt.length < MAX_ISOMERS_SMART_SORTED + 10) {
+					String[] smiles = new String[splt.length];
+					for (int i = 0; i < splt.length; i++) {
+						smiles[i] = splt[i].trim().split("\\s+")[0];
+					}
+					float[][] predicted = rp.predictNonpolarPolar(smiles);
 					for (int i = 0; i < splt.length; i++) {
 						String t = splt[i].trim();
 						if (!t.equals("")) {
-							t = t.split("\\s+")[0];
-							float[] ri = rp.predictNonpolarPolar(t);
+							float[] ri = predicted[i];
 							result = result + splt[i] + " NP: " + ri[0] + " WAX: " + ri[1] + "\n";
 						} else {
 							result = result + "\n";
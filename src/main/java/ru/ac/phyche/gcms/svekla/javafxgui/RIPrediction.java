@@ -1,5 +1,7 @@
 package ru.ac.phyche.gcms.svekla.javafxgui;
 
+import java.util.ArrayList;
+
 import org.apache.commons.lang3.tuple.Pair;
 import org.openscience.cdk.DefaultChemObjectBuilder;
 import org.openscience.cdk.aromaticity.Aromaticity;
@@ -20,6 +22,7 @@ import ru.ac.phyche.gcms.svekla.Chemoinformatics;
 import ru.ac.phyche.gcms.svekla.Descriptors;
 import ru.ac.phyche.gcms.svekla.Model;
 import ru.ac.phyche.gcms.svekla.RetentionsDataset;
+import ru.ac.phyche.gcms.svekla.RetentionsEntry;
 import ru.ac.phyche.gcms.svekla.StackingLinearMetaLearnerModel;
 import ru.ac.phyche.gcms.svekla.TrainPolar;
 
@@ -160,6 +163,39 @@ public class RIPrediction {
 		}
 	}
 
+	public float[][] predictNonpolarPolar(String[] smiles) {
+		float[][] result = new float[smiles.length][];
+		ArrayList<RetentionsEntry> entries = new ArrayList<RetentionsEntry>();
+		ArrayList<Integer> positions = new ArrayList<Integer>();
+		for (int i = 0; i < smiles.length; i++) {
+			result[i] = new float[] { 0, 0 };
+			if (smiles[i].trim().equals("")) {
+				continue;
+			}
+			try {
+				String canonicalSmiles = Chemoinformatics.canonical(smiles[i], false);
+				entries.add(RetentionsEntry.instance(canonicalSmiles, 0, 15));
+				positions.add(i);
+			} catch (CDKException e) {
+			}
+		}
+		RetentionsDataset data = RetentionsDataset.create(entries);
+		try {
+			float[] stackingIndex = model.predictAll(data);
+			float[] sveklaCNNPolar = modelsSvekla[1].predictAll(data);
+			float[] sveklaMLPPolar = modelsSvekla[3].predictAll(data);
+			for (int i = 0; i < data.size(); i++) {
+				float polar = (float) (0.5 * sveklaMLPPolar[i] + 0.5 * sveklaCNNPolar[i]);
+				result[positions.get(i)] = new float[] { stackingIndex[i], polar };
+			}
+		} catch (CDKException e) {
+			for (int i = 0; i < smiles.length; i++) {
+				result[i] = predictNonpolarPolar(smiles[i]);
+			}
+		}
+		return result;
+	}
+
 	public void predictAndWrite(String smiles, TextField accessResults, TextField nonpolarResult,
 			TextField sveklaResults, TextField polarResult, TextField nonpolarDev, TextField polarDev,
 			TextField nonpolarTarget, TextField polarTarget, TextField molecularFormula) {
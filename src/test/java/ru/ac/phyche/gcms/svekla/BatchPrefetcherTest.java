@@ -0,0 +1,81 @@
+package ru.ac.phyche.gcms.svekla;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.MultiDataSet;
+import org.nd4j.linalg.factory.Nd4j;
+import org.openscience.cdk.exception.CDKException;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class BatchPrefetcherTest extends TestCase {
+
+	/**
+	 * Model which "featurizes" a batch as the numbers of its entries.
+	 */
+	private static class IndicesModel extends CNN1DFromSMILESModel {
+		private AtomicInteger released = new AtomicInteger();
+
+		@Override
+		MultiDataSet prepareTrainBatch(int[] batch) throws CDKException {
+			float[] f = new float[batch.length];
+			for (int i = 0; i < batch.length; i++) {
+				f[i] = batch[i];
+			}
+			try {
+				// later batches are often ready earlier
+				Thread.sleep((batch[0] % 3) * 5);
+			} catch (InterruptedException e) {
+				throw new CDKException(e.getMessage());
+			}
+			return new MultiDataSet(new INDArray[] { Nd4j.create(f) }, new INDArray[] { Nd4j.create(f) });
+		}
+
+		@Override
+		protected void releaseBatchInput(INDArray[] input) {
+			released.incrementAndGet();
+		}
+	}
+
+	private static boolean prefetcherThreadsAlive() {
+		for (Thread t : Thread.getAllStackTraces().keySet()) {
+			if (t.getName().equals("batch-prefetcher") && t.isAlive()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public void testOrder() throws CDKException {
+		IndicesModel model = new IndicesModel();
+		BatchPrefetcher prefetcher = BatchPrefetcher.instance(model, EpochSampler.instance(50, 7), 8, 4, 4);
+		EpochSampler reference = EpochSampler.instance(50, 7);
+		for (int i = 0; i < 20; i++) {
+			float[] expected = new float[8];
+			int[] batch = reference.nextBatch(8);
+			for (int j = 0; j < 8; j++) {
+				expected[j] = batch[j];
+			}
+			MultiDataSet b = prefetcher.next();
+			Assert.assertTrue(Arrays.equals(expected, b.getFeatures()[0].toFloatVector()));
+		}
+		prefetcher.close();
+	}
+
+	public void testClose() throws CDKException, InterruptedException {
+		IndicesModel model = new IndicesModel();
+		BatchPrefetcher prefetcher = BatchPrefetcher.instance(model, EpochSampler.instance(50, 7), 8, 3, 2);
+		prefetcher.next();
+		Assert.assertTrue(prefetcherThreadsAlive());
+		prefetcher.close();
+		// batches prepared in advance are released
+		Assert.assertEquals(3, model.released.get());
+		for (int i = 0; (i < 100) && prefetcherThreadsAlive(); i++) {
+			Thread.sleep(50);
+		}
+		Assert.assertFalse(prefetcherThreadsAlive());
+	}
+}
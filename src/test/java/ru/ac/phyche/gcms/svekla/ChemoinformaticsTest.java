@@ -5,6 +5,7 @@ import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashSet;
 import javax.imageio.ImageIO;
 import org.openscience.cdk.exception.CDKException;
@@ -225,6 +226,24 @@ public class ChemoinformaticsTest extends TestCase {
 		Assert.assertEquals(answers2.length, desc.length);
 	}
 
+	public void testDescriptorsPlan() throws CDKException {
+		String[] descriptorNames = { "C2SP2", "fragC", "unknownDescriptor", "C1SP2", "fragC", "nAtomLC" };
+		DescriptorsPlan plan = DescriptorsPlan.compile(descriptorNames);
+		Assert.assertTrue(plan == DescriptorsPlan.compile(descriptorNames.clone()));
+		Assert.assertEquals(3, plan.requiredDescriptorsCount());
+		descriptorNames[0] = "C3SP2";
+		Assert.assertEquals("C2SP2", plan.getDescriptorNames()[0]);
+		Assert.assertTrue(plan != DescriptorsPlan.compile(descriptorNames));
+		float[] desc = plan.compute("COc1cc(ccc1O)C=O");
+		Assert.assertEquals(6, desc.length);
+		Assert.assertEquals(5.0F, desc[0]);
+		Assert.assertEquals(true, Math.abs(251.03 - desc[1]) < 0.0001);
+		Assert.assertTrue(Float.isNaN(desc[2]));
+		Assert.assertEquals(1.0F, desc[3]);
+		Assert.assertEquals(desc[1], desc[4]);
+		Assert.assertEquals(7.0F, desc[5]);
+	}
+
 	public void testSmilesToImage() throws CDKException, IOException {
 		String s = "C([C@@H]1[C@H]([C@@H]([C@H]([C@H](O1)O[C@@]2(CO)[C@H]([C@@H]([C@@H](CO)O2)O)O)O)O)O)O";
 
@@ -390,6 +409,33 @@ public class ChemoinformaticsTest extends TestCase {
 		Assert.assertEquals(true, t);
 	}
 
+	public void testRepresentation2dCompact() throws CDKException {
+		String[] compounds = new String[] { "C", "CC", "CC(C)O", "COc1cc(ccc1O)C=O", "c1ccccc1Br",
+				"C(C1C(C(C(C(O1)OC2(C(C(C(O2)CO)O)O)CO)O)O)O)O" };
+		for (String smiles : compounds) {
+			float[][][] dense = Chemoinformatics.representation2d(smiles);
+			Representation2d compact = Chemoinformatics.representation2dCompact(smiles);
+			Assert.assertTrue(Arrays.deepEquals(dense, compact.toDense()));
+			Assert.assertEquals(Representation2d.fromDense(dense), compact);
+			int nonZeros = 0;
+			for (float[][] x : dense) {
+				for (float[] y : x) {
+					for (float z : y) {
+						nonZeros += (z != 0) ? 1 : 0;
+					}
+				}
+			}
+			Assert.assertEquals(nonZeros, compact.nonZeros());
+		}
+		boolean t = false;
+		try {
+			Chemoinformatics.representation2dCompact("CCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCC");
+		} catch (CDKException e) {
+			t = true;
+		}
+		Assert.assertEquals(true, t);
+	}
+
 	public void testCountOH() throws CDKException {
 		String[] compounds = new String[] { "C", "CC", "CC(C)O", "COc1cc(ccc1O)C=O",
 				"C(C1C(C(C(C(O1)OC2(C(C(C(O2)CO)O)O)CO)O)O)O)O",
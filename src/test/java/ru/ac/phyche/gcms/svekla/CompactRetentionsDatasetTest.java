@@ -0,0 +1,180 @@
+package ru.ac.phyche.gcms.svekla;
+
+import java.io.IOException;
+import java.util.HashSet;
+
+import org.openscience.cdk.exception.CDKException;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class CompactRetentionsDatasetTest extends TestCase {
+
+	private RetentionsDataset a() {
+		RetentionsEntry a1 = RetentionsEntry.instance("COC1=C(C=CC(=C1)C=O)O", 10, 1);
+		RetentionsEntry a2 = RetentionsEntry.instance("COC1=C(C=CC(=C1)C=O)O", 12, 1);
+		RetentionsEntry a3 = RetentionsEntry.instance("COc1cc(ccc1O)C=O", 14, 1);
+		RetentionsEntry a4 = RetentionsEntry.instance("COC1=C(C=CC(=C1)C=O)O", 13, 2);
+		RetentionsEntry a5 = RetentionsEntry.instance("CCCC", 5, 3);
+		RetentionsEntry a6 = RetentionsEntry.instance("CCC(C)", 5.5F, 3);
+		RetentionsEntry a7 = RetentionsEntry.instance("CCCC", 3.5F, 4);
+		RetentionsEntry a8 = RetentionsEntry.instance("C/C=C/C", 7.5F, 1);
+		RetentionsEntry a9 = RetentionsEntry.instance("C/C=C\\C", 9.5F, 2);
+		RetentionsEntry a10 = RetentionsEntry.instance("C(=N)(N)O", 83F, -1);
+		return RetentionsDataset.create(new RetentionsEntry[] { a1, a2, a3, a4, a5, a6, a7, a8, a9, a10 });
+	}
+
+	public void testInstance() {
+		RetentionsDataset a = a();
+		CompactRetentionsDataset c = CompactRetentionsDataset.instance(a);
+		Assert.assertEquals(10, c.size());
+		Assert.assertEquals(7, c.numberOfCompounds());
+		for (int i = 0; i < a.size(); i++) {
+			Assert.assertEquals(true, a.getEntry(i).equals(c.getEntry(i)));
+			Assert.assertEquals(a.getSmiles(i), c.getSmiles(i));
+			Assert.assertEquals(a.getRetention(i), c.getRetention(i));
+			Assert.assertEquals(a.getColumn(i), c.getColumn(i));
+			Assert.assertEquals(c.getSmiles(i), c.getCompound(c.getCompoundId(i)));
+		}
+		Assert.assertEquals(c.getCompoundId(0), c.getCompoundId(3));
+		Assert.assertEquals(true, c.getSmiles(0) == c.getSmiles(3));
+	}
+
+	public void testToDataset() {
+		RetentionsDataset a = a();
+		RetentionsDataset b = CompactRetentionsDataset.instance(a).toDataset();
+		Assert.assertEquals(a.size(), b.size());
+		for (int i = 0; i < a.size(); i++) {
+			Assert.assertEquals(true, a.getEntry(i).equals(b.getEntry(i)));
+		}
+		Assert.assertEquals(true, b.getSmiles(0) == b.getSmiles(1));
+	}
+
+	public void testSaveToFile() throws IOException {
+		RetentionsDataset a = a();
+		CompactRetentionsDataset.instance(a).saveToFile("test.txt");
+		CompactRetentionsDataset c = CompactRetentionsDataset.loadFromFile("test.txt");
+		RetentionsDataset b = RetentionsDataset.loadFromFile("test.txt");
+		Assert.assertEquals(a.size(), c.size());
+		Assert.assertEquals(7, c.numberOfCompounds());
+		for (int i = 0; i < a.size(); i++) {
+			Assert.assertEquals(true, a.getEntry(i).equals(c.getEntry(i)));
+			Assert.assertEquals(true, b.getEntry(i).equals(c.getEntry(i)));
+		}
+	}
+
+	public void testSaveToBinaryFile() throws IOException {
+		RetentionsDataset a = a();
+		CompactRetentionsDataset c = CompactRetentionsDataset.instance(a);
+		c.saveToBinaryFile("test.bin");
+		Assert.assertEquals(true, CompactRetentionsDataset.isBinaryFile("test.bin"));
+		CompactRetentionsDataset b = CompactRetentionsDataset.loadFromFile("test.bin");
+		Assert.assertEquals(c.size(), b.size());
+		Assert.assertEquals(c.numberOfCompounds(), b.numberOfCompounds());
+		for (int i = 0; i < a.size(); i++) {
+			Assert.assertEquals(true, a.getEntry(i).equals(b.getEntry(i)));
+			Assert.assertEquals(c.getCompoundId(i), b.getCompoundId(i));
+		}
+		c.saveToFile("test.txt");
+		Assert.assertEquals(false, CompactRetentionsDataset.isBinaryFile("test.txt"));
+		new java.io.File("test.bin").delete();
+	}
+
+	public void testSubset() {
+		CompactRetentionsDataset c = CompactRetentionsDataset.instance(a());
+		CompactRetentionsDataset s = c.subset(new int[] { 6, 0, 4 });
+		Assert.assertEquals(3, s.size());
+		Assert.assertEquals(2, s.numberOfCompounds());
+		Assert.assertEquals("CCCC", s.getCompound(0));
+		Assert.assertEquals(true, s.getEntry(0).equals(c.getEntry(6)));
+		Assert.assertEquals(true, s.getEntry(1).equals(c.getEntry(0)));
+		Assert.assertEquals(true, s.getEntry(2).equals(c.getEntry(4)));
+	}
+
+	public void testGroupByCompounds() {
+		CompactRetentionsDataset c = CompactRetentionsDataset.instance(a());
+		int[][] groups = c.groupByCompounds();
+		Assert.assertEquals(c.numberOfCompounds(), groups.length);
+		int n = 0;
+		for (int id = 0; id < groups.length; id++) {
+			for (int i : groups[id]) {
+				Assert.assertEquals(id, c.getCompoundId(i));
+				n++;
+			}
+		}
+		Assert.assertEquals(c.size(), n);
+		Assert.assertEquals(true, java.util.Arrays.equals(new int[] { 0, 1, 3 }, groups[c.getCompoundId(0)]));
+		Assert.assertEquals(true, groups == c.groupByCompounds());
+		c.shuffle();
+		Assert.assertEquals(false, groups == c.groupByCompounds());
+	}
+
+	public void testShuffle() {
+		RetentionsDataset a = a();
+		CompactRetentionsDataset c = CompactRetentionsDataset.instance(a);
+		c.shuffle();
+		Assert.assertEquals(a.size(), c.size());
+		Assert.assertEquals(a.compounds(), c.compounds());
+		for (int i = 0; i < a.size(); i++) {
+			int found = 0;
+			for (int j = 0; j < c.size(); j++) {
+				if (a.getEntry(i).equals(c.getEntry(j))) {
+					found++;
+				}
+			}
+			Assert.assertEquals(true, found >= 1);
+		}
+	}
+
+	public void testCompounds() throws CDKException {
+		RetentionsDataset a = a();
+		CompactRetentionsDataset c = CompactRetentionsDataset.instance(a);
+		Assert.assertEquals(a.compounds(), c.compounds());
+		Assert.assertEquals(a.inchiKeys(), c.inchiKeys());
+		Assert.assertEquals(a.inchiKeys(), c.inchiKeys());
+	}
+
+	public void testCompoundsBasedSplitAndShuffle() throws CDKException {
+		RetentionsDataset a = a();
+		CompactRetentionsDataset c = CompactRetentionsDataset.instance(a);
+		c.inchiKeys();
+		CompactRetentionsDataset b = c.compoundsBasedSplitAndShuffle(3);
+		Assert.assertEquals(3, b.numberOfCompounds());
+		Assert.assertEquals(4, c.numberOfCompounds());
+		Assert.assertEquals(a.size(), b.size() + c.size());
+		HashSet<String> intersection = b.compounds();
+		intersection.retainAll(c.compounds());
+		Assert.assertEquals(0, intersection.size());
+		Assert.assertEquals(b.toDataset().inchiKeys(), b.inchiKeys());
+		Assert.assertEquals(c.toDataset().inchiKeys(), c.inchiKeys());
+
+		c = CompactRetentionsDataset.instance(a);
+		b = c.compoundsBasedSplitAndShuffle(0.5F);
+		Assert.assertEquals(4, b.numberOfCompounds());
+		Assert.assertEquals(3, c.numberOfCompounds());
+	}
+
+	public void testMeanAndMedianByCompounds() throws CDKException {
+		RetentionsDataset a = a();
+		CompactRetentionsDataset c = CompactRetentionsDataset.instance(a);
+		for (boolean stereo : new boolean[] { true, false }) {
+			RetentionsDataset m1 = a.meanByCompounds(stereo);
+			RetentionsDataset m2 = c.meanByCompounds(stereo);
+			RetentionsDataset d1 = a.medianByCompounds(stereo);
+			RetentionsDataset d2 = c.medianByCompounds(stereo);
+			Assert.assertEquals(m1.size(), m2.size());
+			Assert.assertEquals(d1.size(), d2.size());
+			for (int i = 0; i < m1.size(); i++) {
+				for (int j = 0; j < m2.size(); j++) {
+					if (m1.getSmiles(i).equals(m2.getSmiles(j))) {
+						Assert.assertEquals(m1.getRetention(i), m2.getRetention(j), 1e-4F);
+						Assert.assertEquals(-1, m2.getColumn(j));
+					}
+					if (d1.getSmiles(i).equals(d2.getSmiles(j))) {
+						Assert.assertEquals(d1.getRetention(i), d2.getRetention(j), 1e-4F);
+					}
+				}
+			}
+		}
+	}
+}
@@ -242,6 +242,74 @@ public class DescriptorsTest extends TestCase {
 		}
 	}
 
+	public void testBinaryFile() throws CDKException, IOException {
+		HashSet<String> smilesSet = new HashSet<String>();
+		for (int j = 0; j < 40; j++) {
+			smilesSet.add(smiles[j]);
+		}
+		Descriptors d = Descriptors.instance(descriptorNames);
+		d.precompute(smilesSet, true);
+		d.saveToFile("test.txt");
+		Descriptors.convertToBinaryFile("test.txt", "test.bin");
+		Descriptors d2 = Descriptors.readFromFile("test.bin");
+		Assert.assertEquals(d.precomputedSize(), d2.precomputedSize());
+		for (int i = 0; i < descriptorNames.length; i++) {
+			Assert.assertEquals(d.getMinMaxArray().getLeft()[i], d2.getMinMaxArray().getLeft()[i]);
+			Assert.assertEquals(d.getMinMaxArray().getRight()[i], d2.getMinMaxArray().getRight()[i]);
+		}
+		for (int i = 0; i < 40; i++) {
+			float[] desc1 = d.get(smiles[i]);
+			float[] desc2 = d2.get(smiles[i]);
+			Assert.assertEquals(desc1.length, desc2.length);
+			for (int j = 0; j < desc1.length; j++) {
+				Assert.assertEquals(desc1[j], desc2[j]);
+			}
+		}
+		boolean exception = false;
+		try {
+			d2.get("CCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCC");
+		} catch (CDKException e) {
+			exception = true;
+		}
+		Assert.assertTrue(exception);
+
+		HashSet<String> more = new HashSet<String>();
+		more.add(smiles[40]);
+		more.add(smiles[0]);
+		d2.precompute(more, false);
+		Assert.assertEquals(d.precomputedSize() + 1, d2.precomputedSize());
+		d2.saveToBinaryFile("test2.bin");
+		d2.saveToFile("test2.txt");
+		Descriptors d3 = Descriptors.readFromFile("test2.bin");
+		Descriptors d4 = Descriptors.readFromFile("test2.txt");
+		Assert.assertEquals(d2.precomputedSize(), d3.precomputedSize());
+		Assert.assertEquals(d2.precomputedSize(), d4.precomputedSize());
+		for (int i = 0; i < 41; i++) {
+			float[] desc2 = d2.get(smiles[i]);
+			float[] desc3 = d3.get(smiles[i]);
+			float[] desc4 = d4.get(smiles[i]);
+			for (int j = 0; j < desc2.length; j++) {
+				Assert.assertEquals(desc2[j], desc3[j]);
+				Assert.assertEquals(desc2[j], desc4[j]);
+			}
+		}
+
+		Descriptors noPrecomputed = Descriptors.instance(descriptorNames, d.getMinMaxArray().getLeft(),
+				d.getMinMaxArray().getRight(), true);
+		noPrecomputed.saveToFile("test2.txt");
+		Descriptors.convertToBinaryFile("test2.txt", "test2.bin");
+		Descriptors d5 = Descriptors.readFromFile("test2.bin");
+		Assert.assertEquals(0, d5.precomputedSize());
+		float[] desc1 = d.get(smiles[3]);
+		float[] desc5 = d5.get(smiles[3]);
+		for (int j = 0; j < desc1.length; j++) {
+			Assert.assertEquals(desc1[j], desc5[j]);
+		}
+		new File("test.bin").delete();
+		new File("test2.bin").delete();
+		new File("test2.txt").delete();
+	}
+
 	public void testNaNs() throws CDKException {
 		float[] a = new float[] { Float.NaN, 1, 2, 3, Float.NaN, 3, 4, 6, Float.NaN };
 		float[] b = new float[] { 1, 2, 3, Float.NaN, 3, 4, 6, Float.NaN };
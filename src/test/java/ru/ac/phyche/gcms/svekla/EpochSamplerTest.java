@@ -0,0 +1,49 @@
+package ru.ac.phyche.gcms.svekla;
+
+import java.util.Arrays;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class EpochSamplerTest extends TestCase {
+
+	private static void assertPermutation(int[] a, int n) {
+		Assert.assertEquals(n, a.length);
+		int[] sorted = a.clone();
+		Arrays.sort(sorted);
+		Assert.assertTrue(Arrays.equals(Model.range(n), sorted));
+	}
+
+	public void testFullPermutation() {
+		EpochSampler sampler = EpochSampler.instance(10, 1);
+		Assert.assertEquals(10, sampler.size());
+		Assert.assertEquals(0, sampler.getEpoch());
+		int[] all = new int[40];
+		for (int i = 0; i < 40; i += 4) {
+			System.arraycopy(sampler.nextBatch(4), 0, all, i, 4);
+		}
+		for (int e = 0; e < 4; e++) {
+			assertPermutation(Arrays.copyOfRange(all, e * 10, e * 10 + 10), 10);
+		}
+		Assert.assertEquals(3, sampler.getEpoch());
+		assertPermutation(EpochSampler.instance(7, 2).nextBatch(7), 7);
+	}
+
+	public void testSeed() {
+		EpochSampler a = EpochSampler.instance(100, 42);
+		EpochSampler b = EpochSampler.instance(100, 42);
+		for (int i = 0; i < 10; i++) {
+			Assert.assertTrue(Arrays.equals(a.nextBatch(33), b.nextBatch(33)));
+		}
+		Assert.assertFalse(Arrays.equals(EpochSampler.instance(100, 42).nextBatch(100),
+				EpochSampler.instance(100, 43).nextBatch(100)));
+	}
+
+	public void testEmpty() {
+		try {
+			EpochSampler.instance(0, 1);
+			Assert.fail();
+		} catch (RuntimeException e) {
+		}
+	}
+}
@@ -1,10 +1,14 @@
 package ru.ac.phyche.gcms.svekla;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.zip.GZIPOutputStream;
 
 import org.openscience.cdk.exception.CDKException;
 
@@ -208,6 +212,92 @@ public class RetentionsDatasetTest extends TestCase {
 		}
 	}
 
+	public void testPrecomputeFeatures() throws CDKException {
+		Descriptors d = Descriptors.instance(descriptorNames);
+		RetentionsDataset a = a();
+		d.precompute(a.compoundsCanonical(true), true);
+		Featurizer f = Featurizer.instance()
+				.require(Featurizer.FeatureBlock.TOKENS, Featurizer.FeatureBlock.FUNC_GROUPS,
+						Featurizer.FeatureBlock.REPRESENTATION_2D)
+				.requireFingerprints(Chemoinformatics.FingerprintsType.values()).requireDescriptors(d);
+		RetentionsDataset noStereo = a.subset(new int[] { 0, 3, 8, 9, 14, 15, 29 });
+		noStereo.precomputeFeatures(f);
+		RetentionsDataset subset = noStereo.subset(new int[] { 6, 0, 2 });
+		Assert.assertEquals(3, subset.size());
+		Assert.assertEquals("C(=N)(N)O", subset.getSmiles(0));
+		Assert.assertEquals("CCCC", subset.getSmiles(2));
+		RetentionsDataset[] datasets = new RetentionsDataset[] { noStereo, subset };
+		for (RetentionsDataset x : datasets) {
+			for (int i = 0; i < x.size(); i++) {
+				String smiles = x.getSmiles(i);
+				for (Chemoinformatics.FingerprintsType t : Chemoinformatics.FingerprintsType.values()) {
+					Assert.assertTrue(Arrays.equals(Chemoinformatics.fingerprints(smiles, t), x.fingerprints(t, i)));
+				}
+				Assert.assertTrue(Arrays.equals(Chemoinformatics.tokenize(smiles), x.tokens(i)));
+				Assert.assertTrue(Arrays.equals(Chemoinformatics.funcGroups(smiles), x.funcGroups(i)));
+				Assert.assertTrue(Arrays.equals(d.getNoNaNs(smiles), x.descriptorsNoNaNs(i, d)));
+				Assert.assertTrue(
+						Arrays.deepEquals(Chemoinformatics.representation2d(smiles), x.representation2d(i)));
+			}
+		}
+		boolean exception = false;
+		try {
+			RetentionsDataset.create(new RetentionsEntry[] { RetentionsEntry.instance("CCmC", 5, 3) })
+					.precomputeFeatures(f);
+		} catch (CDKException e) {
+			exception = true;
+		}
+		Assert.assertTrue(exception);
+	}
+
+	public void testFeatureCache() throws CDKException {
+		RetentionsDataset noStereo = a().subset(new int[] { 0, 3, 8, 9, 14, 15, 29 });
+		FeatureCache cache = FeatureCache.instanceMegabytes(64);
+		noStereo.setFeatureCache(cache);
+		Assert.assertTrue(cache == noStereo.copy().getFeatureCache());
+		Assert.assertTrue(cache == noStereo.subset(new int[] { 1 }).getFeatureCache());
+		for (int pass = 0; pass < 2; pass++) {
+			for (int i = 0; i < noStereo.size(); i++) {
+				String smiles = noStereo.getSmiles(i);
+				Assert.assertTrue(
+						Arrays.equals(Chemoinformatics.fingerprints(smiles, Chemoinformatics.FingerprintsType.MACCS),
+								noStereo.fingerprints(Chemoinformatics.FingerprintsType.MACCS, i)));
+				Assert.assertTrue(Arrays.equals(Chemoinformatics.tokenize(smiles), noStereo.tokens(i)));
+				Assert.assertTrue(Arrays.equals(Chemoinformatics.funcGroups(smiles), noStereo.funcGroups(i)));
+			}
+		}
+		int n = noStereo.compounds().size();
+		Assert.assertEquals(n, cache.getMisses(FeatureCache.Block.FINGERPRINTS));
+		Assert.assertEquals(14 - n, cache.getHits(FeatureCache.Block.FINGERPRINTS));
+		Assert.assertEquals(14 - n, cache.getHits(FeatureCache.Block.TOKENS));
+		Assert.assertEquals(14 - n, cache.getHits(FeatureCache.Block.FUNC_GROUPS));
+		Assert.assertEquals(3 * n, cache.size());
+
+		Featurizer f = Featurizer.instance().require(Featurizer.FeatureBlock.TOKENS).requireFingerprints(
+				Chemoinformatics.FingerprintsType.MACCS, Chemoinformatics.FingerprintsType.PUBCHEM);
+		RetentionsDataset subset = noStereo.subset(new int[] { 6, 0, 2 });
+		subset.precomputeFeatures(f);
+		Assert.assertEquals(17 - n, cache.getHits(FeatureCache.Block.TOKENS));
+		Assert.assertEquals(17 - n, cache.getHits(FeatureCache.Block.FINGERPRINTS));
+		Assert.assertEquals(n + 3, cache.getMisses(FeatureCache.Block.FINGERPRINTS));
+		Assert.assertEquals(3 * n + 3, cache.size());
+		for (int i = 0; i < subset.size(); i++) {
+			Assert.assertTrue(Arrays.equals(
+					Chemoinformatics.fingerprints(subset.getSmiles(i), Chemoinformatics.FingerprintsType.PUBCHEM),
+					subset.fingerprints(Chemoinformatics.FingerprintsType.PUBCHEM, i)));
+		}
+
+		long bytes = cache.getBytes();
+		Assert.assertTrue(bytes > 0);
+		cache.setMaxBytes(bytes / 2);
+		Assert.assertTrue(cache.getBytes() <= bytes / 2);
+		Assert.assertTrue(cache.size() < 3 * n + 3);
+		cache.clear();
+		Assert.assertEquals(0, cache.size());
+		Assert.assertEquals(0, cache.getBytes());
+		Assert.assertEquals(0, cache.getHits(FeatureCache.Block.TOKENS));
+	}
+
 	public void testDescriptors() throws CDKException {
 		Descriptors d = Descriptors.instance(descriptorNames);
 		RetentionsDataset a = a();
@@ -469,6 +559,39 @@ public class RetentionsDatasetTest extends TestCase {
 		Assert.assertEquals(0, d().countIdenticalByCanonicalSmiles(b()));
 	}
 
+	public void testIdentityIndex() throws CDKException, IOException {
+		RetentionsDataset a = a();
+		Assert.assertEquals(null, a.getIdentityIndex());
+		HashSet<String> keys = a.inchiKeys();
+		IdentityIndex index = a.getIdentityIndex();
+		Assert.assertEquals(a.compounds().size(), index.size());
+		Assert.assertEquals(Chemoinformatics.smilesToInchiKey("CCCC"), index.getInchiKey("CCCC"));
+		Assert.assertEquals(Chemoinformatics.smilesToInchi("CCCC"), index.getInchi("CCCC"));
+		RetentionsDataset b = a.compoundsBasedSplitAndShuffle(3);
+		Assert.assertEquals(true, index == a.getIdentityIndex());
+		Assert.assertEquals(true, index == b.getIdentityIndex());
+		Assert.assertEquals(true, index == b.copy().getIdentityIndex());
+		HashSet<String> keys2 = a.inchiKeys();
+		keys2.addAll(b.inchiKeys());
+		Assert.assertEquals(keys, keys2);
+
+		File f = new File("test.index");
+		f.delete();
+		IdentityIndex stored = IdentityIndex.open("test.index");
+		Assert.assertEquals(0, stored.size());
+		RetentionsDataset c = a();
+		c.setIdentityIndex(stored);
+		Assert.assertEquals(keys, c.inchiKeys());
+		stored.save();
+		IdentityIndex loaded = IdentityIndex.open("test.index");
+		Assert.assertEquals(index.size(), loaded.size());
+		for (String smiles : c.compounds()) {
+			Assert.assertEquals(index.getInchi(smiles), loaded.getInchi(smiles));
+			Assert.assertEquals(index.getInchiKey(smiles), loaded.getInchiKey(smiles));
+		}
+		f.delete();
+	}
+
 	public void testCountIdenticalByInchiRetentionsDatasetArrayRetentionsDatasetArray() throws CDKException {
 		int[][] q = RetentionsDataset.countIdenticalByInchi(new RetentionsDataset[] { a(), b(), c() },
 				new RetentionsDataset[] { a(), b(), c(), d() });
@@ -812,6 +935,55 @@ public class RetentionsDatasetTest extends TestCase {
 		Assert.assertEquals(true, b.size() == 0);
 	}
 
+	public void testSaveToBinaryFile() throws IOException {
+		RetentionsDataset a = a();
+		a.saveToBinaryFile("test.bin");
+		RetentionsDataset b = RetentionsDataset.loadFromFile("test.bin");
+		Assert.assertEquals(a.size(), b.size());
+		for (int i = 0; i < a.size(); i++) {
+			Assert.assertEquals(true, a.getEntry(i).equals(b.getEntry(i)));
+		}
+		RetentionsDataset.create(new RetentionsEntry[] {}).saveToBinaryFile("test.bin");
+		Assert.assertEquals(0, RetentionsDataset.loadFromFile("test.bin").size());
+		new File("test.bin").delete();
+	}
+
+	public void testLoadFromFileLarge() throws IOException {
+		ArrayList<RetentionsEntry> entries = new ArrayList<RetentionsEntry>();
+		RetentionsEntry[] a = a_array();
+		for (int i = 0; i < 50000; i++) {
+			entries.add(RetentionsEntry.instance(a[i % a.length].getSmiles(), i * 0.5F, i % 7));
+		}
+		RetentionsDataset d = RetentionsDataset.create(entries);
+		d.saveToFile("test.txt");
+		RetentionsDataset b = RetentionsDataset.loadFromFile("test.txt");
+		Assert.assertEquals(d.size(), b.size());
+		for (int i = 0; i < d.size(); i++) {
+			Assert.assertEquals(true, d.getEntry(i).equals(b.getEntry(i)));
+		}
+
+		GZIPOutputStream gz = new GZIPOutputStream(new FileOutputStream("test.txt.gz"));
+		gz.write("CCCC 400.0 0\n  CCC\t300 1  extra\n\nCCCCC 500 0\n".getBytes("UTF-8"));
+		gz.close();
+		b = RetentionsDataset.loadFromFile("test.txt.gz");
+		Assert.assertEquals(2, b.size());
+		Assert.assertEquals(true, RetentionsEntry.instance("CCCC", 400, 0).equals(b.getEntry(0)));
+		Assert.assertEquals(true, RetentionsEntry.instance("CCC", 300, 1).equals(b.getEntry(1)));
+		new File("test.txt.gz").delete();
+
+		FileWriter fw = new FileWriter("test.txt");
+		fw.write("CCCC 400.0 0\nCCC 300\n");
+		fw.close();
+		boolean exception = false;
+		try {
+			RetentionsDataset.loadFromFile("test.txt");
+		} catch (IOException e) {
+			exception = true;
+		}
+		Assert.assertTrue(exception);
+		new File("test.txt").delete();
+	}
+
 	public void testMerge() {
 		RetentionsDataset a = a();
 		RetentionsDataset aa = a();
@@ -856,6 +1028,33 @@ public class RetentionsDatasetTest extends TestCase {
 
 	}
 
+	public void testCanonicalizer() throws CDKException {
+		for (boolean stereo : new boolean[] { true, false }) {
+			RetentionsDataset a = a();
+			RetentionsDataset expected = a();
+			Assert.assertEquals(null, a.getCanonicalizer());
+			a.makeCanoncalAll(stereo);
+			Canonicalizer c = a.getCanonicalizer();
+			Assert.assertEquals(expected.compounds().size(), c.size(stereo));
+			for (int i = 0; i < a.size(); i++) {
+				Assert.assertEquals(Chemoinformatics.canonical(expected.getSmiles(i), stereo).trim(), a.getSmiles(i));
+				Assert.assertEquals(a.getSmiles(i), c.canonical(expected.getSmiles(i), stereo));
+			}
+			RetentionsDataset b = a.compoundsBasedSplitAndShuffle(2);
+			Assert.assertEquals(true, c == b.getCanonicalizer());
+			Assert.assertEquals(true, c == b.copy().getCanonicalizer());
+		}
+		Canonicalizer shared = Canonicalizer.instance();
+		RetentionsDataset a = a();
+		a.setCanonicalizer(shared);
+		HashSet<String> compounds = a.compoundsCanonical(false);
+		Assert.assertEquals(a.compounds().size(), shared.size(false));
+		Assert.assertEquals(0, shared.size(true));
+		Assert.assertEquals(compounds, a().compoundsCanonical(false));
+		shared.clear();
+		Assert.assertEquals(0, shared.size(false));
+	}
+
 	public void testGroupByCompounds() throws CDKException {
 		RetentionsDataset a = a();
 		HashMap<String, ArrayList<RetentionsEntry>> groups = a.groupByCompounds(true);
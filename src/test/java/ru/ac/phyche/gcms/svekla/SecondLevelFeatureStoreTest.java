@@ -0,0 +1,171 @@
+package ru.ac.phyche.gcms.svekla;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+
+import org.openscience.cdk.exception.CDKException;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class SecondLevelFeatureStoreTest extends TestCase {
+
+	private static final String[] descriptorNames = { "fragC", "C1SP1", "C2SP1", "C1SP2", "C2SP2", "C3SP2", "C1SP3",
+			"C2SP3", "C3SP3", "C4SP3", "nAtomLC", "Kier3" };
+
+	private static final String FILE = "test_store.bin";
+
+	private static ArrayList<String> smiles() {
+		ArrayList<String> result = new ArrayList<String>();
+		result.add("CCCCO");
+		result.add("c1ccccc1C");
+		result.add("CC(=O)OCC");
+		return result;
+	}
+
+	private static ArrayList<double[]> rows(int n, int nFeatures, double value) {
+		ArrayList<double[]> result = new ArrayList<double[]>();
+		for (int i = 0; i < n; i++) {
+			double[] row = new double[nFeatures];
+			for (int j = 0; j < nFeatures; j++) {
+				row[j] = value + 10 * i + j;
+			}
+			result.add(row);
+		}
+		return result;
+	}
+
+	private static void deleteFiles() {
+		File dir = new File(FILE).getAbsoluteFile().getParentFile();
+		for (File f : dir.listFiles()) {
+			if (f.getName().startsWith(FILE)) {
+				f.delete();
+			}
+		}
+	}
+
+	@Override
+	protected void setUp() {
+		deleteFiles();
+	}
+
+	@Override
+	protected void tearDown() {
+		deleteFiles();
+	}
+
+	public void testWriteOpen() throws IOException {
+		Assert.assertNull(SecondLevelFeatureStore.open(FILE));
+		ArrayList<String> smiles = smiles();
+		ArrayList<double[]> rows = rows(smiles.size(), 5, 0.5);
+		SecondLevelFeatureStore.write(FILE, "key", smiles, rows);
+		SecondLevelFeatureStore store = SecondLevelFeatureStore.open(FILE);
+		Assert.assertEquals("key", store.getKey());
+		Assert.assertEquals(smiles.size(), store.size());
+		Assert.assertEquals(5, store.getNumberOfFeatures());
+		for (int i = 0; i < smiles.size(); i++) {
+			Assert.assertEquals(smiles.get(i), store.getSmiles(i));
+			double[] row = store.row(i);
+			double[] row2 = store.get(smiles.get(i));
+			Assert.assertEquals(5, row.length);
+			for (int j = 0; j < row.length; j++) {
+				Assert.assertEquals((float) rows.get(i)[j], (float) row[j]);
+				Assert.assertEquals(row[j], row2[j]);
+			}
+		}
+		Assert.assertNull(store.get("CCCCCCCCCC"));
+	}
+
+	public void testGenerations() throws IOException {
+		ArrayList<String> smiles = smiles();
+		SecondLevelFeatureStore.write(FILE, "key", smiles, rows(smiles.size(), 3, 0));
+		SecondLevelFeatureStore first = SecondLevelFeatureStore.open(FILE);
+		smiles.add("CCN");
+		SecondLevelFeatureStore.write(FILE, "key2", smiles, rows(smiles.size(), 3, 100));
+		Assert.assertTrue(new File(FILE + ".1").isFile());
+		SecondLevelFeatureStore second = SecondLevelFeatureStore.open(FILE);
+		Assert.assertEquals("key2", second.getKey());
+		Assert.assertEquals(4, second.size());
+		Assert.assertEquals(130.0, second.get("CCN")[0]);
+		Assert.assertEquals(101.0, second.row(0)[1]);
+		// the previous generation is still readable
+		Assert.assertEquals("key", first.getKey());
+		Assert.assertEquals(3, first.size());
+		Assert.assertEquals(1.0, first.row(0)[1]);
+		Assert.assertNull(first.get("CCN"));
+	}
+
+	public void testTruncatedFile() throws IOException {
+		ArrayList<String> smiles = smiles();
+		SecondLevelFeatureStore.write(FILE, "key", smiles, rows(smiles.size(), 4, 0));
+		RandomAccessFile raf = new RandomAccessFile(FILE, "rw");
+		try {
+			raf.setLength(raf.length() - 4);
+		} finally {
+			raf.close();
+		}
+		boolean exception = false;
+		try {
+			SecondLevelFeatureStore.open(FILE);
+		} catch (IOException e) {
+			exception = true;
+		}
+		Assert.assertTrue(exception);
+
+		raf = new RandomAccessFile(FILE, "rw");
+		try {
+			raf.setLength(20);
+		} finally {
+			raf.close();
+		}
+		exception = false;
+		try {
+			SecondLevelFeatureStore.open(FILE);
+		} catch (IOException e) {
+			exception = true;
+		}
+		Assert.assertTrue(exception);
+	}
+
+	public void testOtherKeyIgnored() throws CDKException, IOException {
+		ArrayList<RetentionsEntry> entries = new ArrayList<RetentionsEntry>();
+		for (String s : smiles()) {
+			entries.add(RetentionsEntry.instance(Chemoinformatics.canonical(s, true), 1000, 15));
+		}
+		RetentionsDataset data = RetentionsDataset.create(entries);
+		Descriptors d = Descriptors.instance(descriptorNames);
+		d.precompute(data.compoundsCanonical(true), true);
+		SecondLevelModelForPolar model = new SecondLevelModelForPolar.SecondLevelSVRModel();
+		model.setDescriptorsGenerator(d);
+		model.setUseOnlyDescriptors(true);
+		ArrayList<String> smiles = new ArrayList<String>();
+		for (int i = 0; i < data.size(); i++) {
+			smiles.add(data.getSmiles(i));
+		}
+
+		// written for other networks: computed features are used, store is replaced
+		SecondLevelFeatureStore.write(FILE, "other true false", smiles, rows(smiles.size(), 3, -12345));
+		model.setFeatureStore(FILE, "key");
+		double[][] features = model.dataSetToDouble(data).getLeft();
+		for (int i = 0; i < data.size(); i++) {
+			double[] computed = model.featuresDouble(data, i);
+			Assert.assertEquals(computed.length, features[i].length);
+			for (int j = 0; j < computed.length; j++) {
+				Assert.assertEquals(computed[j], features[i][j]);
+			}
+		}
+		SecondLevelFeatureStore store = SecondLevelFeatureStore.open(FILE);
+		Assert.assertEquals("key true false", store.getKey());
+		Assert.assertEquals(data.size(), store.size());
+		Assert.assertEquals((float) features[1][2], (float) store.get(data.getSmiles(1))[2]);
+
+		// written for the same networks and settings: stored rows are used
+		SecondLevelFeatureStore.write(FILE, "key true false", smiles, rows(smiles.size(), 3, -12345));
+		model.setFeatureStore(FILE, "key");
+		features = model.dataSetToDouble(data).getLeft();
+		Assert.assertEquals(3, features[0].length);
+		Assert.assertEquals(-12345.0 + 10 + 2, features[1][2]);
+	}
+}
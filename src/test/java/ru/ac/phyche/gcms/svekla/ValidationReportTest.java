@@ -0,0 +1,57 @@
+package ru.ac.phyche.gcms.svekla;
+
+import java.util.ArrayList;
+
+import org.openscience.cdk.exception.CDKException;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class ValidationReportTest extends TestCase {
+
+	public void testValidationMetrics() {
+		float[] actual = new float[] { 1000, 2000, 500, 400 };
+		float[] predicted = new float[] { 1100, 1900, 550, 400 };
+		ValidationMetrics m = ValidationMetrics.compute(actual, predicted);
+		Assert.assertEquals(62.5F, m.getMae(), 1e-4F);
+		Assert.assertEquals(75.0F, m.getMdae(), 1e-4F);
+		Assert.assertEquals((float) Math.sqrt(22500 / 4.0), m.getRmse(), 1e-4F);
+		Assert.assertEquals(6.25F, m.getMpe(), 1e-4F);
+		Assert.assertEquals(7.5F, m.getMdpe(), 1e-4F);
+		String s = m.toString();
+		Assert.assertEquals(m.getRmse(), Float.parseFloat(s.split("\\s+")[1]));
+		Assert.assertEquals(m.getMae(), Float.parseFloat(s.split("\\s+")[3]));
+		Assert.assertEquals(m.getMpe(), Float.parseFloat(s.split("\\s+")[5]));
+		Assert.assertEquals(m.getMdae(), Float.parseFloat(s.split("\\s+")[7]));
+		Assert.assertEquals(m.getMdpe(), Float.parseFloat(s.split("\\s+")[9]));
+	}
+
+	public void testValidationReport() throws CDKException {
+		ArrayList<RetentionsEntry> entries = new ArrayList<RetentionsEntry>();
+		entries.add(RetentionsEntry.instance("CCCC", 1000, 0));
+		entries.add(RetentionsEntry.instance("CCCCC", 2000, 2));
+		entries.add(RetentionsEntry.instance("CCCCCC", 500, 0));
+		entries.add(RetentionsEntry.instance("CCCCCCC", 400, 2));
+		RetentionsDataset test = RetentionsDataset.create(entries);
+		float[] predicted = new float[] { 1100, 1900, 550, 400 };
+		ValidationReport r = ValidationReport.instance(test, predicted);
+		Assert.assertEquals(ValidationMetrics.compute(new float[] { 1000, 2000, 500, 400 }, predicted).toString(),
+				r.toString());
+		Assert.assertEquals(4, r.size());
+		Assert.assertEquals("CCCCC", r.getSmiles(1));
+		Assert.assertEquals(2, r.getColumn(1));
+		Assert.assertEquals(-100.0F, r.getResidual(1));
+		Assert.assertEquals(50.0F, r.residuals()[2]);
+		Assert.assertEquals(0.0F, r.absoluteErrorPercentile(0));
+		Assert.assertEquals(100.0F, r.absoluteErrorPercentile(100));
+		Assert.assertEquals(75.0F, r.absoluteErrorPercentile(50), 1e-4F);
+		Assert.assertEquals(2, r.byColumn().size());
+		Assert.assertEquals(75.0F, r.byColumn().get(0).getMae(), 1e-4F);
+		Assert.assertEquals(50.0F, r.byColumn().get(2).getMae(), 1e-4F);
+		ValidationReport m = ValidationReport.merge(r, r);
+		Assert.assertEquals(8, m.size());
+		Assert.assertEquals(r.getMetrics().getMae(), m.getMetrics().getMae(), 1e-4F);
+		Assert.assertEquals("CCCC", m.getSmiles(4));
+	}
+
+}